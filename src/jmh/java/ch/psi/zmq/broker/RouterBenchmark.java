@@ -0,0 +1,242 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zeromq.ZMQ;
+
+import ch.psi.zmq.broker.model.Destination;
+import ch.psi.zmq.broker.model.Routing;
+import ch.psi.zmq.broker.model.Source;
+
+/**
+ * End to end benchmark of a router. A benchmark operation is one (multipart) message
+ * sent to the source of the router and received on all destinations.
+ * @author ebner
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class RouterBenchmark {
+	
+	/**
+	 * Messages sent per benchmark invocation
+	 */
+	private static final int BATCH = 100;
+	
+	/**
+	 * Maximum number of bytes in flight per destination
+	 */
+	private static final int MAX_IN_FLIGHT_BYTES = 16*1024*1024;
+	
+	private static final int BASE_PORT = 7400;
+	
+	@Param({"inproc", "tcp"})
+	public String transport;
+	
+	/**
+	 * Size of a message (all frames) in bytes
+	 */
+	@Param({"100", "10000", "1000000", "16000000"})
+	public int size;
+	
+	@Param({"1", "4"})
+	public int frames;
+	
+	@Param({"1", "8", "32"})
+	public int destinations;
+	
+	@Param({"PUSH", "PUB"})
+	public Routing.Type type;
+	
+	/**
+	 * Use message reduction. An additional destination with reduced
+	 * frequency (rate limiter) is added to the routing for this.
+	 */
+	@Param({"false", "true"})
+	public boolean reduction;
+	
+	private ZMQ.Context context;
+	private ZMQ.Socket sender;
+	private List<ZMQ.Socket> receivers = new ArrayList<>();
+	private Router router;
+	
+	private byte[][] message;
+	private int inFlight;
+	private int hwm;
+	
+	@Setup
+	public void setup() throws InterruptedException{
+		context = ZMQ.context(1);
+		
+		message = new byte[frames][];
+		for(int i=0;i<frames;i++){
+			message[i] = new byte[Math.max(1, size/frames)];
+		}
+		inFlight = Math.max(1, Math.min(BATCH, MAX_IN_FLIGHT_BYTES/size));
+		hwm = 2*BATCH*frames; // high water marks count frames, all messages in flight need to fit
+		
+		Source source = new Source();
+		source.setAddress(address(0, false));
+		source.setBuffer(hwm);
+		
+		List<Destination> d = new ArrayList<>();
+		for(int i=0;i<destinations;i++){
+			Destination destination = new Destination();
+			destination.setAddress(address(i+1, true));
+			destination.setType(type);
+			destination.setBuffer(hwm);
+			d.add(destination);
+		}
+		if(reduction){
+			Destination destination = new Destination();
+			destination.setAddress(address(destinations+1, true));
+			destination.setType(Routing.Type.PUB); // does not block without subscribers
+			destination.setFrequency(1000);
+			d.add(destination);
+		}
+		
+		Routing routing = new Routing();
+		routing.setName("benchmark");
+		routing.setSource(source);
+		routing.setDestinations(d);
+		
+		sender = context.socket(ZMQ.PUSH);
+		sender.setHWM(hwm);
+		sender.bind(address(0, true));
+		
+		router = new Router(routing, context);
+		new Thread(router).start();
+		
+		for(int i=0;i<destinations;i++){
+			ZMQ.Socket receiver = context.socket(type==Routing.Type.PUB ? ZMQ.SUB : ZMQ.PULL);
+			receiver.setHWM(hwm);
+			if(type==Routing.Type.PUB){
+				receiver.subscribe(new byte[0]);
+			}
+			connect(receiver, address(i+1, false));
+			receivers.add(receiver);
+		}
+		
+		// Wait until all receivers are connected (PUB drops messages before that)
+		for(ZMQ.Socket r: receivers){
+			r.setReceiveTimeOut(100);
+		}
+		boolean connected = false;
+		while(!connected){
+			send();
+			connected = true;
+			for(ZMQ.Socket r: receivers){
+				connected &= receive(r);
+			}
+		}
+		for(ZMQ.Socket r: receivers){
+			r.setReceiveTimeOut(-1);
+			while(r.recv(ZMQ.DONTWAIT)!=null){ // drain
+			}
+		}
+	}
+	
+	@TearDown
+	public void teardown(){
+		router.terminate();
+		sender.close();
+		for(ZMQ.Socket r: receivers){
+			r.close();
+		}
+		receivers.clear();
+		context.term();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void route(){
+		int sent = 0;
+		int received = 0;
+		while(received<BATCH){
+			while(sent<BATCH && sent-received<inFlight){
+				send();
+				sent++;
+			}
+			for(ZMQ.Socket r: receivers){
+				receive(r);
+			}
+			received++;
+		}
+	}
+	
+	private void send(){
+		for(int i=0;i<frames-1;i++){
+			sender.sendMore(message[i]);
+		}
+		sender.send(message[frames-1], 0);
+	}
+	
+	/**
+	 * Receive all frames of a message
+	 * @return	false if no message was received within the receive timeout
+	 */
+	private static boolean receive(ZMQ.Socket socket){
+		if(socket.recv()==null){
+			return false;
+		}
+		while(socket.hasReceiveMore()){
+			socket.recv();
+		}
+		return true;
+	}
+	
+	/**
+	 * Connect socket. For inproc the router might not yet have bound the address
+	 * (connecting to an unbound inproc address fails silently).
+	 */
+	private static void connect(ZMQ.Socket socket, String address) throws InterruptedException{
+		while(!socket.base().connect(address)){
+			Thread.sleep(10);
+		}
+	}
+	
+	private String address(int index, boolean bind){
+		if(transport.equals("inproc")){
+			return "inproc://benchmark-"+index;
+		}
+		return (bind ? "tcp://*:" : "tcp://localhost:")+(BASE_PORT+index);
+	}
+}
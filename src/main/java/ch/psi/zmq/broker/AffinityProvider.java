@@ -0,0 +1,44 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.io.IOException;
+
+/**
+ * Pins threads to CPUs. The provider used by the broker can be set via the system property
+ * <code>ch.psi.zmq.broker.affinity</code> (class name of the implementation, default {@link TasksetAffinityProvider}).
+ * @author ebner
+ *
+ */
+public interface AffinityProvider {
+	
+	/**
+	 * Pin the calling thread to the given CPU
+	 * @param cpu	Index of the CPU
+	 * @throws IOException
+	 */
+	public void pin(int cpu) throws IOException;
+	
+	/**
+	 * Allow the calling thread to run on the CPUs it was allowed to run before it got pinned
+	 * @throws IOException
+	 */
+	public void unpin() throws IOException;
+}
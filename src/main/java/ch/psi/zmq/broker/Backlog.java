@@ -0,0 +1,97 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.io.IOException;
+
+import zmq.Msg;
+
+/**
+ * Bounded FIFO of (multipart) messages of a destination that cannot be sent right away.
+ * Messages are written frame by frame and read frame by frame. Reading a message can be
+ * aborted ({@link #rewind()}) until it is committed.
+ * 
+ * A backlog is not thread safe, it must only be used by the routing thread. Only the sizes
+ * ({@link #getMessages()}, {@link #getBytes()}) can be read from any thread.
+ * @author ebner
+ *
+ */
+public interface Backlog {
+	
+	/**
+	 * Write frame of a message
+	 * @param frame
+	 * @param more	true if further frames of the same message follow
+	 * @throws IOException
+	 */
+	public void write(Msg frame, boolean more) throws IOException;
+	
+	/**
+	 * Start reading the next (oldest) message. Must only be called if the backlog is not empty.
+	 * @return	Time (epoch millis) the message was written
+	 */
+	public long begin();
+	
+	/**
+	 * Read next frame of the current message. The MORE flag of the frame is set if further frames follow.
+	 * @return
+	 */
+	public Msg read();
+	
+	/**
+	 * Reset reader to the start of the current message
+	 */
+	public void rewind();
+	
+	/**
+	 * Mark current message as read
+	 */
+	public void commit();
+	
+	/**
+	 * @return	true if there is no complete message in the backlog
+	 */
+	public boolean isEmpty();
+	
+	/**
+	 * @return	true if a message is currently written (i.e. not all frames are written yet)
+	 */
+	public boolean isWriting();
+	
+	/**
+	 * @return	true if the backlog reached its maximum size
+	 */
+	public boolean isFull();
+	
+	/**
+	 * @return	Number of (complete) messages in the backlog
+	 */
+	public long getMessages();
+	
+	/**
+	 * @return	Memory/disk space used by the backlog in bytes
+	 */
+	public long getBytes();
+	
+	/**
+	 * Discard all messages. The backlog can still be used afterwards.
+	 */
+	public void close();
+}
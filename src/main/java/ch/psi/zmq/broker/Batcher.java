@@ -0,0 +1,228 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import zmq.Msg;
+import ch.psi.zmq.broker.model.Destination;
+import ch.psi.zmq.broker.model.Routing;
+
+/**
+ * Combines several messages of a destination into one batch that is sent as a single ZMQ message.
+ * A batch is complete if it reached the maximum number of messages or bytes, or the linger time
+ * of its first message passed.
+ * 
+ * Batch formats:
+ * <ul>
+ * <li>MULTIPART - one multipart message. Each message is preceded by a frame holding the number of
+ * its frames (4 byte integer, big endian). The frames of the messages are not copied.</li>
+ * <li>BLOB - one single frame. For each message the number of its frames (4 byte integer) followed by
+ * the length (4 byte integer) and content of each frame. The frames are copied into the blob.</li>
+ * </ul>
+ * 
+ * A batcher is not thread safe, it must only be used by the routing thread.
+ * @author ebner
+ *
+ */
+public class Batcher {
+	
+	/**
+	 * Size of the header of a message/frame within a batch
+	 */
+	static final int HEADER = 4;
+	
+	private final Routing.Batching format;
+	private final int maxMessages;
+	private final long maxBytes;
+	private final long linger;
+	
+	/**
+	 * Frames of the batch (MULTIPART)
+	 */
+	private final List<Msg> frames = new ArrayList<>();
+	/**
+	 * Header frames for the different frame counts (MULTIPART). Only used by this batcher, i.e. they can be
+	 * reused for all batches.
+	 */
+	private Msg[] headers = new Msg[0];
+	private int header = -1;
+	private int count = 0;
+	
+	/**
+	 * Content of the batch (BLOB)
+	 */
+	private ByteBuffer blob;
+	
+	private int messages = 0;
+	private long bytes = 0;
+	private long deadline = 0;
+	
+	/**
+	 * @param format		Format of the batches
+	 * @param maxMessages	Maximum number of messages per batch
+	 * @param maxBytes		Maximum number of bytes per batch (0 = no limit)
+	 * @param linger		Maximum time (milliseconds) a message is held back
+	 */
+	public Batcher(Routing.Batching format, int maxMessages, long maxBytes, long linger){
+		this.format = format;
+		this.maxMessages = Math.max(1, maxMessages);
+		this.maxBytes = maxBytes;
+		this.linger = linger*1000000L;
+		if(format==Routing.Batching.BLOB){
+			blob = ByteBuffer.allocate(1024);
+		}
+	}
+	
+	/**
+	 * Create batcher for a destination
+	 * @param d
+	 * @return	Batcher or null if the destination does not batch messages
+	 */
+	public static Batcher create(Destination d){
+		if(d.getBatching()==null || d.getBatching()==Routing.Batching.NONE){
+			return null;
+		}
+		return new Batcher(d.getBatching(), d.getBatchSize(), d.getBatchBytes(), d.getLinger());
+	}
+	
+	/**
+	 * Add a frame to the batch
+	 * @param frame
+	 * @param last	Frame is the last frame of a message
+	 */
+	public void add(Msg frame, boolean last){
+		if(messages==0 && count==0){
+			deadline = System.nanoTime()+linger;
+		}
+		if(format==Routing.Batching.MULTIPART){
+			if(count==0){
+				header = frames.size();
+				frames.add(null); // Header is set as soon as the number of frames is known
+			}
+			// The frames are sent with other flags than received (the last frame of a message is not the last
+			// frame of the batch) and might also be sent to other destinations - use a Msg of their own
+			frames.add(Frames.share(frame));
+		}
+		else{
+			if(count==0){
+				header = blob.position();
+				ensure(HEADER);
+				blob.putInt(0); // Number of frames is set as soon as it is known
+			}
+			ensure(HEADER+frame.size());
+			blob.putInt(frame.size());
+			blob.put(frame.data(), 0, frame.size());
+		}
+		count++;
+		bytes += frame.size();
+		if(last){
+			if(format==Routing.Batching.MULTIPART){
+				frames.set(header, Frames.share(getHeader(count))); // Headers are sent again with later batches
+			}
+			else{
+				blob.putInt(header, count);
+			}
+			count = 0;
+			messages++;
+		}
+	}
+	
+	private Msg getHeader(int n){
+		if(n>=headers.length){
+			headers = Arrays.copyOf(headers, Math.max(n+1, 2*headers.length));
+		}
+		if(headers[n]==null){
+			headers[n] = new Msg(ByteBuffer.allocate(HEADER).putInt(0, n));
+		}
+		return headers[n];
+	}
+	
+	private void ensure(int n){
+		if(blob.remaining()<n){
+			ByteBuffer b = ByteBuffer.allocate(Math.max(blob.capacity()*2, blob.position()+n));
+			blob.flip();
+			b.put(blob);
+			blob = b;
+		}
+	}
+	
+	/**
+	 * @return	true if the batch reached the maximum number of messages or bytes
+	 */
+	public boolean isFull(){
+		return messages>=maxMessages || (maxBytes>0 && bytes>=maxBytes);
+	}
+	
+	/**
+	 * @return	true if the batch does not hold any (complete) message
+	 */
+	public boolean isEmpty(){
+		return messages==0;
+	}
+	
+	/**
+	 * @param now	System.nanoTime()
+	 * @return	true if the linger time of the batch passed
+	 */
+	public boolean isExpired(long now){
+		return messages>0 && now-deadline>=0;
+	}
+	
+	/**
+	 * @param now	System.nanoTime()
+	 * @return	Time in milliseconds until the linger time of the batch passes (0 if already passed, -1 if batch is empty)
+	 */
+	public long getRemaining(long now){
+		if(messages==0){
+			return -1;
+		}
+		return Math.max(0, (deadline-now+999999)/1000000);
+	}
+	
+	/**
+	 * Get the frames of the batch. Must only be called at a message boundary, the batch needs to be
+	 * cleared after the frames were sent.
+	 * @return
+	 */
+	public List<Msg> getFrames(){
+		if(format==Routing.Batching.BLOB){
+			frames.clear();
+			frames.add(new Msg(Arrays.copyOf(blob.array(), blob.position())));
+		}
+		return frames;
+	}
+	
+	/**
+	 * Start a new batch
+	 */
+	public void clear(){
+		frames.clear();
+		if(blob!=null){
+			blob.clear();
+		}
+		messages = 0;
+		bytes = 0;
+		count = 0;
+	}
+}
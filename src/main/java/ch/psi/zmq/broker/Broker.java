@@ -19,38 +19,243 @@
 
 package ch.psi.zmq.broker;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
+import org.zeromq.ZMQ;
+
+import ch.psi.zmq.broker.model.Change;
 import ch.psi.zmq.broker.model.Configuration;
+import ch.psi.zmq.broker.model.Destination;
+import ch.psi.zmq.broker.model.DestinationStatistics;
+import ch.psi.zmq.broker.model.Message;
 import ch.psi.zmq.broker.model.Routing;
+import ch.psi.zmq.broker.model.RoutingStatistics;
+import ch.psi.zmq.broker.model.Source;
+import ch.psi.zmq.broker.model.Statistics;
 
 public class Broker {
 	
 	private static final Logger logger = Logger.getLogger(Broker.class.getName());
+	
+	/**
+	 * Interval in milliseconds the counters of the routers are sampled for the calculation of rates
+	 */
+	private static final long SAMPLE_INTERVAL = 1000;
+	
+	/**
+	 * Maximum number of concurrent tap streams (each one is served by a thread of its own)
+	 */
+	public static final int MAX_TAPS = 16;
 
-	private final List<Router> routers = new ArrayList<>();
+	private final List<Router> routers = new CopyOnWriteArrayList<>(); // Also accessed by the statistics timer
+	
+	/**
+	 * ZMQ contexts shared by all routings
+	 */
+	private final List<ZMQ.Context> contexts = new ArrayList<>();
+	private int ioThreads;
 	
 	private ExecutorService eservice;
 	
+	/**
+	 * Event loops shared by the routings with EVENT_LOOP execution (created on demand)
+	 */
+	private final List<EventLoop> loops = new ArrayList<>();
+	private int eventLoops = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Worker pool shared by all routings to compress messages
+	 */
+	private final ExecutorService compression = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "compression-"+count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	/**
+	 * Threads streaming tap subscriptions to clients
+	 */
+	private final ExecutorService taps = new ThreadPoolExecutor(0, MAX_TAPS, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "tap-"+count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private final Timer timer = new Timer("statistics", true);
+	
+	/**
+	 * Statistics of all routings taken after each sampling of the counters (see {@link #getSnapshot()})
+	 */
+	private volatile Statistics snapshot = new Statistics();
+	
 	public Broker(){
+		this(1, 1);
+	}
+	
+	/**
+	 * @param contexts	Number of shared ZMQ contexts
+	 * @param ioThreads	Number of I/O threads per context
+	 */
+	public Broker(int contexts, int ioThreads){
 		eservice = Executors.newCachedThreadPool();
+		createContexts(contexts, ioThreads);
+		
+		timer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				for(Router r: routers){
+					r.getCounters().sample();
+				}
+				snapshot = getStatistics();
+			}
+		}, 0, SAMPLE_INTERVAL);
 	}
 	
 	/**
-	 * Configure a routing on the broker
+	 * Create the pool of shared ZMQ contexts
+	 * @param n			Number of contexts
+	 * @param ioThreads	Number of I/O threads per context
+	 */
+	private void createContexts(int n, int ioThreads){
+		if(n<1 || ioThreads<1){
+			throw new IllegalArgumentException("Number of contexts and I/O threads need to be >0");
+		}
+		logger.info(String.format("Create %d context(s) with %d I/O thread(s) each", n, ioThreads));
+		for(int i=0;i<n;i++){
+			contexts.add(ZMQ.context(ioThreads));
+		}
+		this.ioThreads = ioThreads;
+	}
+	
+	/**
+	 * Terminate all shared ZMQ contexts. All routers need to be terminated beforehand.
+	 */
+	private void terminateContexts(){
+		for(ZMQ.Context c: contexts){
+			c.term();
+		}
+		contexts.clear();
+	}
+	
+	/**
+	 * Get a shared ZMQ context. In-process clients need to use the context of a routing to connect via inproc.
+	 * @param index	Index of the context (see {@link Routing#getContext()})
+	 * @return
+	 */
+	ZMQ.Context getContext(int index){
+		return contexts.get(index);
+	}
+	
+	/**
+	 * Configure a routing on the broker. A routing with the same name is replaced, routings chained to it are restarted.
 	 * @param routing
 	 */
 	public void addRouting(Routing routing){
-		// Start new routing (thread)
-		Router r = new Router(routing);
-		eservice.submit(r);
+		List<Routing> routings = new ArrayList<>();
+		Router replaced = null;
+		for(Router r: routers){
+			if(r.getRouting().getName().equals(routing.getName())){
+				replaced = r;
+			}
+			else{
+				routings.add(r.getRouting());
+			}
+		}
+		Router.validate(routing);
+		checkContext(routing, contexts.size());
+		checkEndpoints(routing, routings);
+		checkSources(routing, routings);
+		
+		List<Routing> stopped = new ArrayList<>();
+		if(replaced!=null){
+			replaced.terminate();
+			routers.remove(replaced);
+			stopped.add(replaced.getRouting());
+		}
+		List<Routing> starting = stopChained(stopped);
+		starting.add(routing);
+		start(starting);
+	}
+	
+	/**
+	 * Start a routing
+	 * @param routing
+	 * @param chained	Endpoints provided by other routings on the same context (see {@link Chains})
+	 */
+	private void addRouting(Routing routing, Set<String> chained){
+		// Start new routing (thread or event loop)
+		Router r = new Router(routing, getContext(routing.getContext()), compression, chained);
+		if(routing.getExecution()==Routing.Execution.EVENT_LOOP){
+			getEventLoop().add(r);
+		}
+		else{
+			eservice.submit(r);
+		}
 		routers.add(r);
 	}
 	
+	/**
+	 * Get the event loop with the least load (message rate, number of routings)
+	 * @return
+	 */
+	private synchronized EventLoop getEventLoop(){
+		if(loops.isEmpty()){
+			logger.info(String.format("Create %d event loop(s)", eventLoops));
+			for(int i=0;i<eventLoops;i++){
+				try {
+					EventLoop l = new EventLoop("event-loop-"+i);
+					l.start();
+					loops.add(l);
+				} catch (IOException e) {
+					throw new RuntimeException("Unable to create event loop", e);
+				}
+			}
+		}
+		EventLoop loop = null;
+		double load = 0;
+		for(EventLoop l: loops){
+			double ll = l.getLoad();
+			if(loop==null || ll<load || (ll==load && l.getSize()<loop.getSize())){
+				loop = l;
+				load = ll;
+			}
+		}
+		return loop;
+	}
+	
+	/**
+	 * Terminate the event loops. All routings running on the event loops need to be terminated beforehand.
+	 */
+	private synchronized void terminateEventLoops(){
+		for(EventLoop l: loops){
+			l.terminate();
+		}
+		loops.clear();
+	}
+	
 	/**
 	 * Remove routing from broker if name of the routing matches the specified pattern
 	 * @param pattern	regular expression pattern
@@ -65,9 +270,58 @@ public class Broker {
 			}
 		}
 		// Remove found routings
+		List<Routing> removed = new ArrayList<>();
 		for(Router r: rr){
 			r.terminate();
 			routers.remove(r);
+			removed.add(r.getRouting());
+		}
+		// Chained routings are connected to endpoints that are gone
+		start(stopChained(removed));
+	}
+	
+	/**
+	 * Terminate the routings chained to stopped routings (inproc cannot reconnect), including the routings chained
+	 * to them in turn
+	 * @param stopped	Routings that were terminated
+	 * @return	Routings that were terminated and need to be started again
+	 */
+	private List<Routing> stopChained(List<Routing> stopped){
+		List<Routing> affected = new ArrayList<>(stopped);
+		List<Routing> restart = new ArrayList<>();
+		for(boolean found=true;found;){
+			found = false;
+			for(Router r: routers){
+				Routing routing = r.getRouting();
+				for(Source s: routing.getSources()){
+					String endpoint = Chains.endpoint(s);
+					if(endpoint!=null && provider(endpoint, routing, affected)!=null){
+						logger.info("Restart routing "+routing.getName()+" chained to a stopped routing");
+						r.terminate();
+						routers.remove(r);
+						affected.add(routing);
+						restart.add(routing);
+						found = true;
+						break;
+					}
+				}
+			}
+		}
+		return restart;
+	}
+	
+	/**
+	 * Start routings, routings providing chained endpoints first
+	 * @param starting	Routings to start (not running)
+	 */
+	private void start(List<Routing> starting){
+		List<Routing> routings = new ArrayList<>();
+		for(Router r: routers){
+			routings.add(r.getRouting());
+		}
+		routings.addAll(starting);
+		for(Routing routing: order(starting, routings)){
+			addRouting(routing, chained(routing, routings));
 		}
 	}
 	
@@ -82,25 +336,523 @@ public class Broker {
 		}
 		Configuration c = new Configuration();
 		c.setRouting(r);
+		c.setContexts(contexts.size());
+		c.setIoThreads(ioThreads);
+		c.setEventLoops(eventLoops);
 		return c;
 	}
 	
 	/**
-	 * Set new configuration for broker. Before adding the configured routings, etc. all old will be removed first.
+	 * Get statistics of all routings
+	 * @return
+	 */
+	public Statistics getStatistics(){
+		Statistics s = new Statistics();
+		for(Router r: routers){
+			RoutingStatistics rs = getStatistics(r);
+			s.getRouting().add(rs);
+			s.setMessagesIn(s.getMessagesIn()+rs.getMessages());
+			s.setBytesIn(s.getBytesIn()+rs.getBytes());
+			s.setMessageRateIn(s.getMessageRateIn()+rs.getMessageRate());
+			s.setByteRateIn(s.getByteRateIn()+rs.getByteRate());
+			for(DestinationStatistics d: rs.getDestinations()){
+				s.setMessagesOut(s.getMessagesOut()+d.getMessages());
+				s.setBytesOut(s.getBytesOut()+d.getBytes());
+				s.setMessageRateOut(s.getMessageRateOut()+d.getMessageRate());
+				s.setByteRateOut(s.getByteRateOut()+d.getByteRate());
+			}
+		}
+		return s;
+	}
+	
+	/**
+	 * Get the statistics of all routings as of the last sampling of the counters (at most {@value #SAMPLE_INTERVAL} ms old).
+	 * Clients polling frequently (dashboards, monitoring) should use the snapshot as it does not touch the routers.
+	 * @return
+	 */
+	public Statistics getSnapshot(){
+		return snapshot;
+	}
+	
+	/**
+	 * Get statistics of a routing
+	 * @param name	Name of the routing
+	 * @return	Statistics or null if there is no routing with the given name
+	 */
+	public RoutingStatistics getStatistics(String name){
+		for(Router r: routers){
+			if(r.getRouting().getName().equals(name)){
+				return getStatistics(r);
+			}
+		}
+		return null;
+	}
+	
+	private RoutingStatistics getStatistics(Router r){
+		return r.getStatistics();
+	}
+	
+	/**
+	 * Get the tap of a routing (live inspection of its messages)
+	 * @param name	Name of the routing
+	 * @return	Tap or null if there is no routing with the given name
+	 */
+	public Tap getTap(String name){
+		for(Router r: routers){
+			if(r.getRouting().getName().equals(name)){
+				return r.getTap();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Run publisher of a tap subscription
+	 * @param publisher
+	 * @return	false if the maximum number of concurrent taps ({@link #MAX_TAPS}) is reached, i.e. the publisher was not started
+	 */
+	public boolean publishTap(Runnable publisher){
+		try{
+			taps.execute(publisher);
+			return true;
+		}
+		catch(RejectedExecutionException e){
+			return false;
+		}
+	}
+	
+	/**
+	 * @return	Sequence trackers of all routings that track sequence numbers
+	 */
+	public List<SequenceTracker> getSequenceTrackers(){
+		List<SequenceTracker> l = new ArrayList<>();
+		for(Router r: routers){
+			if(r.getSequenceTracker()!=null){
+				l.add(r.getSequenceTracker());
+			}
+		}
+		return l;
+	}
+	
+	/**
+	 * Get the most recent message of a routing (requires caching to be enabled for the routing)
+	 * @param name	Name of the routing
+	 * @return	Message or null if there is no such routing, caching is disabled or no message was received yet
+	 */
+	public Message getLastMessage(String name){
+		for(Router r: routers){
+			if(r.getRouting().getName().equals(name)){
+				MessageCache.Entry e = r.getCache()!=null ? r.getCache().getLast() : null;
+				if(e==null){
+					return null;
+				}
+				Message m = new Message();
+				m.setTimestamp(e.getTimestamp());
+				for(zmq.Msg f: e.getFrames()){
+					m.getFrames().add(Arrays.copyOf(f.data(), f.size()));
+				}
+				return m;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Set new configuration for broker. The configuration is compared with the running routings by name:
+	 * identical routings are kept untouched, routings whose destinations changed are updated while running
+	 * (unchanged destinations keep their connections), routings whose sources or settings changed are restarted.
+	 * Routings not part of the configuration anymore are removed.
 	 * @param configuration	Configuration to load for the broker
+	 * @return	Changes applied to the broker
 	 */
-	public void setConfiguration(Configuration configuration){
-		// Clean broker
+	public List<Change> setConfiguration(Configuration configuration){
+		int n = configuration.getContexts()!=null ? configuration.getContexts() : contexts.size();
+		int t = configuration.getIoThreads()!=null ? configuration.getIoThreads() : ioThreads;
+		List<Routing> routings = configuration.getRouting()!=null ? configuration.getRouting() : new ArrayList<Routing>();
+		List<Router> matched = match(routings);
+		int l = configuration.getEventLoops()!=null ? configuration.getEventLoops() : eventLoops;
+		List<Change> changes = diff(configuration, routings, matched);
+		
+		// Remove routings first to release their addresses
+		boolean contextsChanged = n!=contexts.size() || t!=ioThreads;
+		boolean loopsChanged = l!=eventLoops;
 		for(Router r: routers){
-			r.terminate();
+			if(!matched.contains(r) || contextsChanged || (loopsChanged && r.getRouting().getExecution()==Routing.Execution.EVENT_LOOP)){
+				r.terminate();
+				routers.remove(r);
+			}
+		}
+		
+		// Recreate event loops on demand if their number changed
+		if(loopsChanged){
+			terminateEventLoops();
+			eventLoops = l;
+		}
+		
+		// Recreate shared contexts if their settings changed
+		if(contextsChanged){
+			terminateContexts();
+			createContexts(n, t);
+		}
+		
+		// Terminate routings to be restarted, update the destinations of running routings and start the new ones
+		boolean[] start = new boolean[routings.size()];
+		for(int i=0;i<routings.size();i++){
+			Router r = matched.get(i);
+			Change.Action action = changes.get(i).getAction();
+			if(action==Change.Action.RESTART && routers.contains(r)){
+				r.terminate();
+				routers.remove(r);
+			}
+			start[i] = action==Change.Action.ADD || action==Change.Action.RESTART;
+		}
+		for(int i=0;i<routings.size();i++){
+			Router r = matched.get(i);
+			if(changes.get(i).getAction()==Change.Action.UPDATE && !update(r, routings.get(i))){
+				logger.warning("Update of routing "+routings.get(i).getName()+" was not applied in time - restart routing");
+				r.terminate();
+				routers.remove(r);
+				start[i] = true;
+			}
+		}
+		List<Routing> starting = new ArrayList<>();
+		for(int i=0;i<routings.size();i++){
+			if(start[i]){
+				starting.add(routings.get(i));
+			}
+		}
+		for(Routing routing: order(starting, routings)){
+			addRouting(routing, chained(routing, routings));
+		}
+		return changes;
+	}
+	
+	/**
+	 * Order routings such that routings providing chained endpoints are started before the routings chained to them
+	 * @param starting	Routings to be started
+	 * @param routings	All routings of the broker
+	 * @return
+	 */
+	private static List<Routing> order(List<Routing> starting, List<Routing> routings){
+		List<Routing> ordered = new ArrayList<>();
+		List<Routing> pending = new ArrayList<>(starting);
+		while(!pending.isEmpty()){
+			Routing next = pending.get(0); // Taken if the routings are chained in a cycle
+			for(Routing r: pending){
+				boolean ready = true;
+				for(String endpoint: chained(r, routings)){
+					ready &= !pending.contains(provider(endpoint, r, routings));
+				}
+				if(ready){
+					next = r;
+					break;
+				}
+			}
+			pending.remove(next);
+			ordered.add(next);
+		}
+		return ordered;
+	}
+	
+	/**
+	 * Ensure that the context of a routing is part of the pool
+	 * @param routing
+	 * @param n			Number of contexts
+	 */
+	private static void checkContext(Routing routing, int n){
+		if(routing.getContext()<0 || routing.getContext()>=n){
+			throw new IllegalArgumentException("Context "+routing.getContext()+" of routing "+routing.getName()+" does not exist (contexts 0-"+(n-1)+")");
+		}
+	}
+	
+	/**
+	 * Ensure that the endpoints provided by the destinations of a routing are not provided by another routing
+	 * on the same context
+	 * @param routing
+	 * @param routings	Routings of the broker
+	 */
+	private static void checkEndpoints(Routing routing, List<Routing> routings){
+		if(routing.getDestinations()==null){
+			return;
+		}
+		for(Destination d: routing.getDestinations()){
+			String endpoint = Chains.endpoint(d);
+			Routing other = endpoint!=null ? provider(endpoint, routing, routings) : null;
+			if(other!=null){
+				throw new IllegalArgumentException("Endpoint "+endpoint+" of routing "+routing.getName()+" is already provided by routing "+other.getName());
+			}
+		}
+	}
+	
+	/**
+	 * Ensure that the chains declared by the sources of a routing (broker://) are provided by a routing on the same context
+	 * @param routing
+	 * @param routings	Routings of the broker
+	 */
+	private static void checkSources(Routing routing, List<Routing> routings){
+		for(Source s: routing.getSources()){
+			if(Chains.isDeclared(s.getAddress()) && provider(Chains.endpoint(s), routing, routings)==null){
+				throw new IllegalArgumentException("No routing on the context of routing "+routing.getName()+" provides "+s.getAddress());
+			}
+		}
+	}
+	
+	/**
+	 * Get the endpoints the sources of a routing are chained to in memory (see {@link Chains})
+	 * @param routing
+	 * @param routings	Routings of the broker
+	 * @return	Endpoints provided by other routings on the same context
+	 */
+	private static Set<String> chained(Routing routing, List<Routing> routings){
+		Set<String> s = new HashSet<>();
+		for(Source source: routing.getSources()){
+			String endpoint = Chains.endpoint(source);
+			if(endpoint!=null && provider(endpoint, routing, routings)!=null){
+				s.add(endpoint);
+			}
+		}
+		return s;
+	}
+	
+	/**
+	 * @param endpoint	Endpoint (see {@link Chains})
+	 * @param routing	Routing chained to the endpoint
+	 * @param routings	Routings of the broker
+	 * @return	Other routing on the same context providing the endpoint or null if there is none
+	 */
+	private static Routing provider(String endpoint, Routing routing, List<Routing> routings){
+		for(Routing r: routings){
+			if(!r.getName().equals(routing.getName()) && r.getContext()==routing.getContext()
+					&& provided(r, endpoint)!=null){
+				return r;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @return	Destination of the routing providing the endpoint or null if there is none
+	 */
+	private static Destination provided(Routing routing, String endpoint){
+		if(routing.getDestinations()!=null){
+			for(Destination d: routing.getDestinations()){
+				if(endpoint.equals(Chains.endpoint(d))){
+					return d;
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Check whether the endpoints a running routing is chained to change with a new configuration. The routing needs
+	 * to reconnect then, i.e. needs to be restarted.
+	 * @param routing	Routing of the new configuration (sources are the same as for the running routing)
+	 * @param routings	Routings of the new configuration
+	 * @param changes	Changes of the routings of the new configuration
+	 * @return	Name of the routing providing the changed endpoint or null if the chains of the routing do not change
+	 */
+	private String changedChain(Routing routing, List<Routing> routings, List<Change> changes){
+		List<Routing> running = new ArrayList<>();
+		for(Router r: routers){
+			running.add(r.getRouting());
+		}
+		for(Source s: routing.getSources()){
+			String endpoint = Chains.endpoint(s);
+			if(endpoint==null){
+				continue;
+			}
+			Routing before = provider(endpoint, routing, running);
+			Routing after = provider(endpoint, routing, routings);
+			if(before==null && after==null){
+				continue;
+			}
+			if(before==null || after==null || !before.getName().equals(after.getName())){
+				return after!=null ? after.getName() : before.getName();
+			}
+			Change.Action action = changes.get(routings.indexOf(after)).getAction();
+			if(action==Change.Action.ADD || action==Change.Action.RESTART || !provided(before, endpoint).equals(provided(after, endpoint))){
+				return after.getName();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Get the changes that would be done when applying the given configuration (dry-run)
+	 * @param configuration
+	 * @return
+	 */
+	public List<Change> getChanges(Configuration configuration){
+		List<Routing> routings = configuration.getRouting()!=null ? configuration.getRouting() : new ArrayList<Routing>();
+		return diff(configuration, routings, match(routings));
+	}
+	
+	/**
+	 * Find the running router for each of the given routings (by name)
+	 * @param routings
+	 * @return	Router for each routing (null if there is no running routing with the same name)
+	 */
+	private List<Router> match(List<Routing> routings){
+		List<Router> matched = new ArrayList<>();
+		for(Routing routing: routings){
+			Router m = null;
+			for(Router r: routers){
+				if(r.getRouting().getName().equals(routing.getName()) && !matched.contains(r)){
+					m = r;
+					break;
+				}
+			}
+			matched.add(m);
+		}
+		return matched;
+	}
+	
+	/**
+	 * Compare configuration with the running routings
+	 * @param configuration	New configuration
+	 * @param routings		Routings of the new configuration
+	 * @param matched		Running router for each of the routings (see {@link #match(List)})
+	 * @return	Change for each routing of the configuration followed by the routings to be removed
+	 */
+	private List<Change> diff(Configuration configuration, List<Routing> routings, List<Router> matched){
+		int n = configuration.getContexts()!=null ? configuration.getContexts() : contexts.size();
+		int t = configuration.getIoThreads()!=null ? configuration.getIoThreads() : ioThreads;
+		if(n<1 || t<1){
+			throw new IllegalArgumentException("Number of contexts and I/O threads need to be >0");
+		}
+		boolean contextsChanged = n!=contexts.size() || t!=ioThreads;
+		int l = configuration.getEventLoops()!=null ? configuration.getEventLoops() : eventLoops;
+		if(l<1){
+			throw new IllegalArgumentException("Number of event loops needs to be >0");
 		}
-		routers.clear();
 		
-		// Setup new configuration
-		if(configuration.getRouting()!=null){
-			for(Routing r: configuration.getRouting()){
-				addRouting(r);
+		List<Change> changes = new ArrayList<>();
+		for(int i=0;i<routings.size();i++){
+			Routing routing = routings.get(i);
+			// Reject invalid routings before anything is changed
+			Router.validate(routing);
+			checkContext(routing, n);
+			checkEndpoints(routing, routings);
+			checkSources(routing, routings);
+			
+			Router r = matched.get(i);
+			if(r==null){
+				changes.add(new Change(routing.getName(), Change.Action.ADD));
+				continue;
+			}
+			
+			Routing current = r.getRouting();
+			Change c = new Change(routing.getName(), Change.Action.KEEP);
+			if(contextsChanged){
+				c.getDetails().add("contexts changed");
+			}
+			if(!current.getSources().equals(routing.getSources())){
+				c.getDetails().add("sources changed");
+			}
+			if(current.getScheduling()!=routing.getScheduling()){
+				c.getDetails().add("scheduling changed");
+			}
+			if(current.getContext()!=routing.getContext()){
+				c.getDetails().add("context changed");
+			}
+			if(current.getCache()!=routing.getCache()){
+				c.getDetails().add("cache changed");
+			}
+			if(current.getExecution()!=routing.getExecution()){
+				c.getDetails().add("execution changed");
+			}
+			if(current.getWaitStrategy()!=routing.getWaitStrategy() || current.getCpu()!=routing.getCpu()){
+				c.getDetails().add("wait strategy/cpu changed");
+			}
+			if(current.getLatency()!=routing.getLatency() || current.getLatencySampling()!=routing.getLatencySampling()
+					|| (current.getTimestamp()==null ? routing.getTimestamp()!=null : !current.getTimestamp().equals(routing.getTimestamp()))){
+				c.getDetails().add("latency recording changed");
+			}
+			if((current.getSequence()==null ? routing.getSequence()!=null : !current.getSequence().equals(routing.getSequence()))
+					|| current.getSequenceFrame()!=routing.getSequenceFrame() || current.getSequenceOffset()!=routing.getSequenceOffset()
+					|| current.getSequenceSize()!=routing.getSequenceSize() || current.getSequenceOrder()!=routing.getSequenceOrder()){
+				c.getDetails().add("sequence tracking changed");
+			}
+			if(l!=eventLoops && routing.getExecution()==Routing.Execution.EVENT_LOOP){
+				c.getDetails().add("event loops changed");
+			}
+			if(!c.getDetails().isEmpty()){
+				c.setAction(Change.Action.RESTART);
+				changes.add(c);
+				continue;
+			}
+			
+			// Destinations that changed can be updated on the running routing
+			List<Destination> removed = new ArrayList<>(current.getDestinations()!=null ? current.getDestinations() : new ArrayList<Destination>());
+			List<Destination> added = new ArrayList<>();
+			if(routing.getDestinations()!=null){
+				for(Destination d: routing.getDestinations()){
+					if(!removed.remove(d)){
+						added.add(d);
+					}
+				}
+			}
+			for(Destination d: removed){
+				boolean changed = false;
+				for(Destination x: added){
+					changed |= x.getAddress()!=null && x.getAddress().equals(d.getAddress());
+				}
+				c.getDetails().add((changed?"change":"remove")+" destination "+d.getAddress());
 			}
+			for(Destination d: added){
+				boolean changed = false;
+				for(Destination x: removed){
+					changed |= x.getAddress()!=null && x.getAddress().equals(d.getAddress());
+				}
+				if(!changed){
+					c.getDetails().add("add destination "+d.getAddress());
+				}
+			}
+			if(current.getDistribution()!=routing.getDistribution()){
+				c.getDetails().add("distribution changed");
+			}
+			if(!c.getDetails().isEmpty()){
+				c.setAction(Change.Action.UPDATE);
+			}
+			changes.add(c);
+		}
+		
+		// Routings chained in memory need to reconnect (i.e. are restarted) if the endpoint they are chained to changes
+		for(boolean again=true;again;){
+			again = false;
+			for(int i=0;i<routings.size();i++){
+				Change c = changes.get(i);
+				if(c.getAction()!=Change.Action.KEEP && c.getAction()!=Change.Action.UPDATE){
+					continue;
+				}
+				String upstream = changedChain(routings.get(i), routings, changes);
+				if(upstream!=null){
+					c.getDetails().add("chained routing "+upstream+" changed");
+					c.setAction(Change.Action.RESTART);
+					again = true;
+				}
+			}
+		}
+		
+		for(Router r: routers){
+			if(!matched.contains(r)){
+				changes.add(new Change(r.getRouting().getName(), Change.Action.REMOVE));
+			}
+		}
+		return changes;
+	}
+	
+	/**
+	 * Update the destinations of a running routing
+	 * @return	false if the update could not be applied
+	 */
+	private boolean update(Router r, Routing routing){
+		try {
+			return r.update(routing);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
 		}
 	}
 	
@@ -109,14 +861,19 @@ public class Broker {
 	 */
 	public void terminate(){
 		logger.info("Terminate broker");
+		timer.cancel();
 		
 		// Terminate routers
 		for(Router r: routers){
 			r.terminate();
 		}
+		terminateEventLoops();
+		terminateContexts();
 		
 		// Terminate threadpool
 		eservice.shutdownNow();
+		compression.shutdownNow();
+		taps.shutdownNow();
 		logger.info("Broker terminated");
 	}
 }
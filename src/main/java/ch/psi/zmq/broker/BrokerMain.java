@@ -27,6 +27,12 @@ import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
 import sun.misc.Signal;
 import sun.misc.SignalHandler;
 import ch.psi.zmq.broker.model.Configuration;
@@ -36,8 +42,33 @@ public class BrokerMain {
 	
 	private static final Logger logger = Logger.getLogger(BrokerMain.class.getName());
 
-	public static void main(String[] args) {
-		String config = args[0];
+	public static void main(String[] args) throws ParseException {
+		
+		// Option handling
+		int contexts = 1;
+		int ioThreads = 1;
+		
+		Options options = new Options();
+		options.addOption("h", false, "Help");
+		options.addOption("n", true, "Number of shared ZMQ contexts (default: "+contexts+")");
+		options.addOption("t", true, "Number of I/O threads per ZMQ context (default: "+ioThreads+")");
+		
+		GnuParser parser = new GnuParser();
+		CommandLine line = parser.parse(options, args);
+		
+		if (line.hasOption("n")) {
+			contexts = Integer.parseInt(line.getOptionValue("n"));
+		}
+		if (line.hasOption("t")) {
+			ioThreads = Integer.parseInt(line.getOptionValue("t"));
+		}
+		if (line.hasOption("h") || line.getArgs().length!=1) {
+			HelpFormatter f = new HelpFormatter();
+			f.printHelp("broker [options] <configuration file>", options);
+			return;
+		}
+		
+		String config = line.getArgs()[0];
 		
 		// Read xml configuration file
 		Configuration configuration = null;
@@ -53,7 +84,7 @@ public class BrokerMain {
 		}
 
 		logger.info(String.format("Start broker with configuation %s",config));
-		final Broker broker = new Broker();
+		final Broker broker = new Broker(contexts, ioThreads);
 		broker.setConfiguration(configuration);
 		
 		logger.info("Broker started");
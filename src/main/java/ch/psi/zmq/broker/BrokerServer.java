@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.URI;
+import java.util.Timer;
 import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -20,12 +21,15 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.jackson.JacksonFeature;
+import org.glassfish.jersey.media.sse.SseBroadcaster;
 import org.glassfish.jersey.media.sse.SseFeature;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.grizzly.http.server.HttpServer;
 import org.glassfish.grizzly.http.server.StaticHttpHandler;
 
 import ch.psi.zmq.broker.model.Configuration;
+import ch.psi.zmq.broker.services.SequencePublisher;
+import ch.psi.zmq.broker.services.StatisticsPublisher;
 import sun.misc.Signal;
 import sun.misc.SignalHandler;
 
@@ -33,17 +37,28 @@ import sun.misc.SignalHandler;
 public class BrokerServer {
 	
 	private static final Logger logger = Logger.getLogger(BrokerServer.class.getName());
+	
+	/**
+	 * Interval in milliseconds new sequence events are published
+	 */
+	private static final long SEQUENCE_INTERVAL = 200;
 
 	public static void main(String[] args) throws IOException, ParseException {
 
 		// Option handling
 		int port = 8080;
 		String config = null;
+		int contexts = 1;
+		int ioThreads = 1;
+		long statistics = 1000;
 
 		Options options = new Options();
 		options.addOption("h", false, "Help");
 		options.addOption("p", true, "Server port (default: "+port+")");
 		options.addOption("c", true, "Initial configuration file");
+		options.addOption("n", true, "Number of shared ZMQ contexts (default: "+contexts+")");
+		options.addOption("t", true, "Number of I/O threads per ZMQ context (default: "+ioThreads+")");
+		options.addOption("s", true, "Interval in milliseconds of the statistics events (default: "+statistics+", 0 = disabled)");
 
 		GnuParser parser = new GnuParser();
 		CommandLine line = parser.parse(options, args);
@@ -54,6 +69,15 @@ public class BrokerServer {
 		if (line.hasOption("c")) {
 			config = line.getOptionValue("c");
 		}
+		if (line.hasOption("n")) {
+			contexts = Integer.parseInt(line.getOptionValue("n"));
+		}
+		if (line.hasOption("t")) {
+			ioThreads = Integer.parseInt(line.getOptionValue("t"));
+		}
+		if (line.hasOption("s")) {
+			statistics = Long.parseLong(line.getOptionValue("s"));
+		}
 		if (line.hasOption("h")) {
 			HelpFormatter f = new HelpFormatter();
 			f.printHelp("broker", options);
@@ -63,10 +87,11 @@ public class BrokerServer {
 		URI baseUri = UriBuilder.fromUri("http://" + InetAddress.getLocalHost().getHostName() + "/").port(port).build();
 
 		
-		Broker broker = createBroker(config);
+		Broker broker = createBroker(config, contexts, ioThreads);
 		
 		
-		ResourceBinder binder = new ResourceBinder(broker);
+		SseBroadcaster broadcaster = new SseBroadcaster();
+		ResourceBinder binder = new ResourceBinder(broker, broadcaster);
 		
 		ResourceConfig resourceConfig = new ResourceConfig(SseFeature.class, JacksonFeature.class);
 		resourceConfig.packages(BrokerServer.class.getPackage().getName()+".services"); // Services are located in services package
@@ -82,6 +107,13 @@ public class BrokerServer {
 		server.getServerConfiguration().addHttpHandler(new StaticHttpHandler(home), "/static");
 		
 
+		// Periodic statistics events
+		Timer timer = new Timer("statistics-events", true);
+		if(statistics>0){
+			timer.scheduleAtFixedRate(new StatisticsPublisher(broker, broadcaster), statistics, statistics);
+		}
+		timer.scheduleAtFixedRate(new SequencePublisher(broker, broadcaster), SEQUENCE_INTERVAL, SEQUENCE_INTERVAL);
+
 		logger.info("Broker started");
 		logger.info(String.format("Management interface available at %sstatic/", baseUri));
 		logger.info("Use ctrl+c to stop ...");
@@ -104,6 +136,7 @@ public class BrokerServer {
 		} catch (InterruptedException e) {
 		}
 
+		timer.cancel();
 		server.stop();
 		
 		broker.terminate();
@@ -113,11 +146,13 @@ public class BrokerServer {
 	/**
 	 * Create Broker
 	 * @param config
+	 * @param contexts	Number of shared ZMQ contexts
+	 * @param ioThreads	Number of I/O threads per ZMQ context
 	 * @return
 	 */
-	private static Broker createBroker(String config) {
+	private static Broker createBroker(String config, int contexts, int ioThreads) {
 		
-		final Broker broker = new Broker();
+		final Broker broker = new Broker(contexts, ioThreads);
 		
 		if(config != null){
 			// Read xml configuration file
@@ -0,0 +1,192 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQException;
+
+import zmq.ZError;
+import ch.psi.zmq.broker.model.Destination;
+import ch.psi.zmq.broker.model.Routing;
+import ch.psi.zmq.broker.model.Source;
+
+/**
+ * In-memory chaining of the routings of a broker. If a source of a routing receives the messages of a destination of
+ * another routing of the same broker, the messages are passed via inproc instead of going out and in again via the
+ * network stack. Chains are
+ * <ul>
+ * <li>declared with the address <code>broker://&lt;name&gt;</code> - the destination binds the endpoint &lt;name&gt;
+ * (in memory only), sources with the same address connect to it</li>
+ * <li>detected for sources connecting to a TCP destination of the broker on the local host
+ * (e.g. <code>tcp://localhost:9090</code> and <code>tcp://*:9090</code>) - every such destination also binds an inproc
+ * endpoint for its port, external receivers still connect via TCP</li>
+ * </ul>
+ * Inproc only works within a ZMQ context, i.e. chained routings need to use the same context.
+ * Destinations with policy DISCONNECT provide no endpoint (inproc receivers cannot reconnect).
+ * <p>
+ * Inproc addresses of the routings are bound via {@link #bind(ZMQ.Context, ZMQ.Socket, String)}, which keeps track
+ * of the addresses bound by the broker per context.</p>
+ * @author ebner
+ *
+ */
+public class Chains {
+	
+	public static final String SCHEME = "broker://";
+	
+	private static final String INPROC = "inproc://broker/";
+	
+	private static String hostname;
+	
+	/**
+	 * Inproc addresses bound by the sockets of the broker per context (socket null - the socket is closed, but the
+	 * address might not be released yet as sockets are released asynchronously)
+	 */
+	private static final Map<ZMQ.Context, Map<String, ZMQ.Socket>> bound = new WeakHashMap<>();
+	
+	/**
+	 * @param address
+	 * @return	true if the address declares a chain (broker://)
+	 */
+	public static boolean isDeclared(String address){
+		return address!=null && address.startsWith(SCHEME);
+	}
+	
+	/**
+	 * @param d
+	 * @return	Endpoint the destination provides for chained routings or null if none
+	 */
+	public static String endpoint(Destination d){
+		if(d.getAddress()==null || d.getType()==Routing.Type.FILE || d.getPolicy()==Destination.Policy.DISCONNECT){
+			return null;
+		}
+		if(isDeclared(d.getAddress())){
+			return d.getAddress().substring(SCHEME.length());
+		}
+		return tcp(d.getAddress(), true);
+	}
+	
+	/**
+	 * @param s
+	 * @return	Endpoint of a routing of the broker the source might be chained to or null if none
+	 */
+	public static String endpoint(Source s){
+		if(s.getAddress()==null || s.getType()==Routing.Type.FILE){
+			return null;
+		}
+		if(isDeclared(s.getAddress())){
+			return s.getAddress().substring(SCHEME.length());
+		}
+		return tcp(s.getAddress(), false);
+	}
+	
+	/**
+	 * @param endpoint
+	 * @return	Inproc address of the endpoint
+	 */
+	public static String address(String endpoint){
+		return INPROC+endpoint;
+	}
+	
+	/**
+	 * Endpoint of a TCP address on the local host
+	 * @param address
+	 * @param bind	Address is bound (wildcard hosts are local)
+	 * @return	Endpoint (tcp:&lt;port&gt;) or null if the address is not a TCP address of the local host
+	 */
+	private static String tcp(String address, boolean bind){
+		if(!address.startsWith("tcp://")){
+			return null;
+		}
+		int colon = address.lastIndexOf(':');
+		String host = address.substring("tcp://".length(), colon);
+		String port = address.substring(colon+1);
+		if(port.isEmpty() || !port.matches("[0-9]+")){
+			return null;
+		}
+		boolean local = host.equals("localhost") || host.equals("127.0.0.1") || host.equals(getHostname())
+				|| (bind && (host.equals("*") || host.equals("0.0.0.0")));
+		return local ? "tcp:"+port : null;
+	}
+	
+	/**
+	 * Bind socket to an inproc address. An address still held by a closed socket of the broker is taken over
+	 * (jeromq registers the address again while reporting the bind to fail). Any other address in use is an error -
+	 * note that jeromq registers the address nevertheless, i.e. the socket needs to be closed.
+	 * @param context	Context of the socket
+	 * @param socket
+	 * @param address
+	 * @throws ZMQException	EADDRINUSE if the address is in use by another socket
+	 */
+	static synchronized void bind(ZMQ.Context context, ZMQ.Socket socket, String address){
+		Map<String, ZMQ.Socket> addresses = bound.get(context);
+		if(addresses==null){
+			addresses = new HashMap<>();
+			bound.put(context, addresses);
+		}
+		boolean released = addresses.containsKey(address) && addresses.get(address)==null;
+		if(addresses.get(address)!=null){
+			throw new ZMQException("Address "+address+" is in use by another routing", ZError.EADDRINUSE);
+		}
+		if(!socket.base().bind(address)){
+			int error = socket.base().errno();
+			if(error!=ZError.EADDRINUSE || !released){
+				throw new ZMQException("Unable to bind "+address, error);
+			}
+		}
+		addresses.put(address, socket);
+	}
+	
+	/**
+	 * Mark the inproc addresses of a socket as released. Needs to be called when closing a socket bound via
+	 * {@link #bind(ZMQ.Context, ZMQ.Socket, String)}.
+	 * @param context	Context of the socket
+	 * @param socket
+	 */
+	static synchronized void release(ZMQ.Context context, ZMQ.Socket socket){
+		Map<String, ZMQ.Socket> addresses = bound.get(context);
+		if(addresses==null){
+			return;
+		}
+		for(Iterator<Map.Entry<String, ZMQ.Socket>> i=addresses.entrySet().iterator();i.hasNext();){
+			Map.Entry<String, ZMQ.Socket> e = i.next();
+			if(e.getValue()==socket){
+				e.setValue(null);
+			}
+		}
+	}
+	
+	private static synchronized String getHostname(){
+		if(hostname==null){
+			try {
+				hostname = InetAddress.getLocalHost().getHostName();
+			} catch (UnknownHostException e) {
+				hostname = "localhost";
+			}
+		}
+		return hostname;
+	}
+}
@@ -0,0 +1,368 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import zmq.Msg;
+
+import com.github.luben.zstd.Zstd;
+
+import ch.psi.zmq.broker.model.Destination;
+import ch.psi.zmq.broker.model.Routing;
+
+/**
+ * Compresses the messages of a destination (frame by frame) on a worker pool. The compressed messages
+ * are taken in the order they were added by the routing thread and sent to the destination.
+ * 
+ * Frame format: 1 byte type (0 - uncompressed, 1 - deflate, 2 - lz4 block, 3 - zstd frame) followed by the content
+ * of the frame (uncompressed) or the original size (4 byte integer, big endian) and the compressed data. Frames below
+ * the threshold and frames that do not get smaller are sent uncompressed.
+ * 
+ * Besides the statistics a compressor is not thread safe, it must only be used by the routing thread.
+ * @author ebner
+ *
+ */
+public class Compressor {
+	
+	static final byte RAW = 0;
+	static final byte DEFLATE = 1;
+	static final byte LZ4 = 2;
+	static final byte ZSTD = 3;
+	
+	/**
+	 * Maximum compression level of LZ4 (levels above 1 use the high compression variant)
+	 */
+	private static final int LZ4_MAX_LEVEL = 17;
+	
+	/**
+	 * Maximum number of messages being compressed at the same time (per destination)
+	 */
+	public static final int MAX_PENDING = 64;
+	
+	private static final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+	
+	/**
+	 * Deflater and output buffer of the worker threads
+	 */
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>(){
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater();
+		}
+	};
+	private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>(){
+		@Override
+		protected byte[] initialValue() {
+			return new byte[64*1024];
+		}
+	};
+	
+	private final Executor executor;
+	private final Routing.Compression compression;
+	private final int level;
+	private final int threshold;
+	/**
+	 * Compressor (LZ4 only, thread safe)
+	 */
+	private final LZ4Compressor lz4;
+	
+	private final List<Msg> frames = new ArrayList<>();
+	/**
+	 * Remaining frames of the current message are dropped
+	 */
+	private boolean discard = false;
+	private final ArrayDeque<FutureTask<Msg[]>> pending = new ArrayDeque<>();
+	
+	// Statistics (updated by the worker threads)
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private final AtomicLong time = new AtomicLong();
+	
+	/**
+	 * @param executor		Worker pool (null to compress on the calling thread)
+	 * @param compression	DEFLATE, LZ4 or ZSTD
+	 * @param level			Compression level (1 fastest - 9 (DEFLATE), 17 (LZ4), 22 (ZSTD) best compression)
+	 * @param threshold		Minimum size of a frame to get compressed
+	 */
+	public Compressor(Executor executor, Routing.Compression compression, int level, int threshold){
+		this.executor = executor;
+		this.compression = compression;
+		this.threshold = threshold;
+		switch(compression){
+		case LZ4:
+			this.level = Math.max(1, Math.min(LZ4_MAX_LEVEL, level));
+			LZ4Factory factory = LZ4Factory.fastestInstance();
+			this.lz4 = this.level==1 ? factory.fastCompressor() : factory.highCompressor(this.level);
+			break;
+		case ZSTD:
+			this.level = Math.max(1, Math.min(Zstd.maxCompressionLevel(), level));
+			this.lz4 = null;
+			break;
+		default:
+			this.level = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level));
+			this.lz4 = null;
+		}
+	}
+	
+	/**
+	 * Create compressor for a destination
+	 * @param d
+	 * @param executor	Worker pool
+	 * @return	Compressor or null if the destination does not compress messages
+	 */
+	public static Compressor create(Destination d, Executor executor){
+		if(d.getCompression()==null || d.getCompression()==Routing.Compression.NONE){
+			return null;
+		}
+		return new Compressor(executor, d.getCompression(), d.getCompressionLevel(), d.getCompressionThreshold());
+	}
+	
+	/**
+	 * Ensure a compression is available (ZSTD needs its native library)
+	 * @param compression
+	 * @param address	Address of the destination/source using the compression
+	 * @throws IllegalArgumentException	If the compression is not available on this platform
+	 */
+	public static void validate(Routing.Compression compression, String address){
+		if(compression==Routing.Compression.ZSTD){
+			try{
+				Zstd.maxCompressionLevel();
+			}
+			catch(LinkageError e){
+				throw new IllegalArgumentException("Compression ZSTD of "+address+" is not available on this platform", e);
+			}
+		}
+	}
+	
+	/**
+	 * Add frame of a message. As soon as the last frame is added the message gets compressed.
+	 * @param frame
+	 * @param last	Frame is the last frame of the message
+	 * @return	false if the frame belongs to a dropped message
+	 */
+	public boolean add(Msg frame, boolean last){
+		if(discard){
+			discard = !last;
+			return false;
+		}
+		frames.add(frame);
+		if(!last){
+			return true;
+		}
+		final Msg[] message = frames.toArray(new Msg[frames.size()]);
+		frames.clear();
+		FutureTask<Msg[]> task = new FutureTask<>(new Callable<Msg[]>() {
+			@Override
+			public Msg[] call() {
+				return compress(message);
+			}
+		});
+		pending.add(task);
+		if(executor==null){
+			task.run();
+		}
+		else{
+			executor.execute(task);
+		}
+		return true;
+	}
+	
+	/**
+	 * Drop the message starting with the next frame
+	 * @param last	Next frame is the last frame of the message
+	 */
+	public void drop(boolean last){
+		discard = !last;
+	}
+	
+	/**
+	 * @return	true if the next frame added is the first frame of a message
+	 */
+	public boolean isStart(){
+		return frames.isEmpty() && !discard;
+	}
+	
+	/**
+	 * @return	true if no further message can be added before the oldest one was taken
+	 */
+	public boolean isFull(){
+		return pending.size()>=MAX_PENDING;
+	}
+	
+	/**
+	 * @return	true if there is no message being compressed
+	 */
+	public boolean isEmpty(){
+		return pending.isEmpty();
+	}
+	
+	/**
+	 * Take the oldest message
+	 * @param wait	Wait until the message is compressed
+	 * @return	Frames of the compressed message or null if the message is not compressed yet
+	 * @throws InterruptedException
+	 */
+	public Msg[] take(boolean wait) throws InterruptedException{
+		FutureTask<Msg[]> task = pending.peek();
+		if(task==null || (!wait && !task.isDone())){
+			return null;
+		}
+		pending.poll();
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Compression failed", e.getCause());
+		}
+	}
+	
+	private Msg[] compress(Msg[] message){
+		long start = bean.getCurrentThreadCpuTime();
+		Msg[] compressed = new Msg[message.length];
+		long in = 0;
+		long out = 0;
+		for(int i=0;i<message.length;i++){
+			Msg frame = message[i];
+			int size = frame.size();
+			byte[] data = null;
+			if(size>=threshold){
+				int n;
+				byte type;
+				switch(compression){
+				case LZ4:
+					n = lz4(frame.data(), size);
+					type = LZ4;
+					break;
+				case ZSTD:
+					n = zstd(frame.data(), size);
+					type = ZSTD;
+					break;
+				default:
+					n = deflate(frame.data(), size);
+					type = DEFLATE;
+				}
+				if(n>=0 && n+4<size){
+					data = new byte[5+n];
+					data[0] = type;
+					ByteBuffer.wrap(data).putInt(1, size);
+					System.arraycopy(buffers.get(), 0, data, 5, n);
+				}
+			}
+			if(data==null){ // Compression does not pay off
+				data = new byte[1+size];
+				data[0] = RAW;
+				System.arraycopy(frame.data(), 0, data, 1, size);
+			}
+			compressed[i] = new Msg(data);
+			in += size;
+			out += data.length;
+		}
+		bytesIn.addAndGet(in);
+		bytesOut.addAndGet(out);
+		time.addAndGet(bean.getCurrentThreadCpuTime()-start);
+		return compressed;
+	}
+	
+	/**
+	 * Compress data into the buffer of the thread (deflate stream)
+	 * @return	Compressed size or -1 if the data does not get smaller
+	 */
+	private int deflate(byte[] data, int size){
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		deflater.setLevel(level);
+		deflater.setInput(data, 0, size);
+		deflater.finish();
+		byte[] buffer = buffers.get();
+		int n = 0;
+		while(!deflater.finished() && n<size){
+			if(n==buffer.length){
+				buffer = Arrays.copyOf(buffer, buffer.length*2);
+				buffers.set(buffer);
+			}
+			n += deflater.deflate(buffer, n, buffer.length-n);
+		}
+		return deflater.finished() ? n : -1;
+	}
+	
+	/**
+	 * Compress data into the buffer of the thread (LZ4 block)
+	 * @return	Compressed size
+	 */
+	private int lz4(byte[] data, int size){
+		byte[] buffer = buffer(lz4.maxCompressedLength(size));
+		return lz4.compress(data, 0, size, buffer, 0, buffer.length);
+	}
+	
+	/**
+	 * Compress data into the buffer of the thread (zstd frame)
+	 * @return	Compressed size
+	 */
+	private int zstd(byte[] data, int size){
+		byte[] buffer = buffer((int) Zstd.compressBound(size));
+		long n = Zstd.compressByteArray(buffer, 0, buffer.length, data, 0, size, level);
+		if(Zstd.isError(n)){
+			throw new RuntimeException("Compression failed - "+Zstd.getErrorName(n));
+		}
+		return (int) n;
+	}
+	
+	/**
+	 * @param size	Minimum size
+	 * @return	Buffer of the thread with at least the given size
+	 */
+	private static byte[] buffer(int size){
+		byte[] buffer = buffers.get();
+		if(buffer.length<size){
+			buffer = new byte[Math.max(size, buffer.length*2)];
+			buffers.set(buffer);
+		}
+		return buffer;
+	}
+	
+	/**
+	 * @return	Ratio between the size of the original and the compressed frames (0 if nothing was compressed yet)
+	 */
+	public double getRatio(){
+		long out = bytesOut.get();
+		return out>0 ? ((double) bytesIn.get())/out : 0;
+	}
+	
+	/**
+	 * @return	CPU time spent for compression in nanoseconds
+	 */
+	public long getTime(){
+		return time.get();
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Counter that is only updated by a single thread (usually the routing thread) but can be read
+ * by any thread. As there is only one writer no atomic read-modify-write (or striping) is necessary,
+ * an update is a plain read and an ordered (lazy) write.
+ * @author ebner
+ *
+ */
+public class Counter {
+	
+	private static final AtomicLongFieldUpdater<Counter> updater = AtomicLongFieldUpdater.newUpdater(Counter.class, "value");
+	
+	private volatile long value = 0;
+	
+	/**
+	 * Increment counter by one. Must only be called by the owning thread.
+	 */
+	public void increment(){
+		updater.lazySet(this, value+1);
+	}
+	
+	/**
+	 * Add value to counter. Must only be called by the owning thread.
+	 * @param n
+	 */
+	public void add(long n){
+		updater.lazySet(this, value+n);
+	}
+	
+	/**
+	 * Set counter to the given value. Must only be called by the owning thread.
+	 * @param n
+	 */
+	public void set(long n){
+		updater.lazySet(this, n);
+	}
+	
+	public long get(){
+		return value;
+	}
+}
@@ -0,0 +1,491 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.util.List;
+
+import ch.psi.zmq.broker.model.Destination;
+import ch.psi.zmq.broker.model.DestinationStatistics;
+import ch.psi.zmq.broker.model.RoutingStatistics;
+import ch.psi.zmq.broker.model.SequenceStatistics;
+import ch.psi.zmq.broker.model.Source;
+import ch.psi.zmq.broker.model.SourceStatistics;
+
+/**
+ * Throughput counters of a router. The counters are updated by the routing thread only.
+ * Rates are calculated over a sliding window of samples that are taken periodically
+ * by the broker (see {@link #sample()}).
+ * @author ebner
+ *
+ */
+public class Counters {
+	
+	/**
+	 * Number of samples in the sliding window
+	 */
+	public static final int WINDOW = 10;
+	
+	private final Counter messagesIn = new Counter();
+	private final Counter framesIn = new Counter();
+	private final Counter bytesIn = new Counter();
+	private final Counter multipartIn = new Counter();
+	
+	private final Counter[] messagesSource;
+	private final Counter[] framesSource;
+	private final Counter[] bytesSource;
+	
+	// Sequence tracking per source (null if not tracked)
+	private Counter[] sequence;
+	private Counter[] gaps;
+	private Counter[] missing;
+	private Counter[] duplicates;
+	private Counter[] reordered;
+	private Counter[] resets;
+	
+	private Counter[] messagesOut;
+	private Counter[] framesOut;
+	private Counter[] bytesOut;
+	private Counter[] skipped;
+	private Counter[] hwm;
+	private Counter[] dropped;
+	private Counter[] disconnects;
+	private Counter[] spilled;
+	private Counter[] expired;
+	private Counter[] batches;
+	private Counter[] dropGaps;
+	
+	// Latency histograms per destination (null if not recorded)
+	private Histogram[] residence;
+	private Histogram[] sending;
+	private Histogram[] endToEnd;
+	
+	// Sliding window - sample layout: messages in, bytes in, (messages out, bytes out) per destination,
+	// (messages in, bytes in) per source
+	private final long[] times = new long[WINDOW];
+	private long[][] samples;
+	private int samplesCount = 0;
+	private int sampleIndex = 0;
+	
+	/**
+	 * @param sources		Number of sources of the routing
+	 * @param destinations	Number of destinations of the routing
+	 */
+	public Counters(int sources, int destinations){
+		this(sources, destinations, false, false);
+	}
+	
+	/**
+	 * @param sources		Number of sources of the routing
+	 * @param destinations	Number of destinations of the routing
+	 * @param latency		Record latency histograms of the destinations
+	 * @param endToEnd		Record end-to-end latency histograms of the destinations
+	 */
+	public Counters(int sources, int destinations, boolean latency, boolean endToEnd){
+		this(sources, destinations, latency, endToEnd, false);
+	}
+	
+	/**
+	 * @param sources		Number of sources of the routing
+	 * @param destinations	Number of destinations of the routing
+	 * @param latency		Record latency histograms of the destinations
+	 * @param endToEnd		Record end-to-end latency histograms of the destinations
+	 * @param sequence		Record the sequence tracking of the sources
+	 */
+	public Counters(int sources, int destinations, boolean latency, boolean endToEnd, boolean sequence){
+		messagesSource = create(sources);
+		framesSource = create(sources);
+		bytesSource = create(sources);
+		messagesOut = create(destinations);
+		framesOut = create(destinations);
+		bytesOut = create(destinations);
+		skipped = create(destinations);
+		hwm = create(destinations);
+		dropped = create(destinations);
+		disconnects = create(destinations);
+		spilled = create(destinations);
+		expired = create(destinations);
+		batches = create(destinations);
+		dropGaps = create(destinations);
+		if(sequence){
+			this.sequence = create(sources);
+			gaps = create(sources);
+			missing = create(sources);
+			duplicates = create(sources);
+			reordered = create(sources);
+			resets = create(sources);
+		}
+		if(latency){
+			residence = createHistograms(destinations);
+			sending = createHistograms(destinations);
+		}
+		if(endToEnd){
+			this.endToEnd = createHistograms(destinations);
+		}
+		samples = new long[WINDOW][2+2*destinations+2*sources];
+	}
+	
+	private static Histogram[] createHistograms(int n){
+		Histogram[] h = new Histogram[n];
+		for(int i=0;i<n;i++){
+			h[i] = new Histogram();
+		}
+		return h;
+	}
+	
+	private static Counter[] create(int n){
+		Counter[] c = new Counter[n];
+		for(int i=0;i<n;i++){
+			c[i] = new Counter();
+		}
+		return c;
+	}
+	
+	/**
+	 * Record a received message
+	 * @param source	Index of the source the message was received from
+	 * @param frames	Number of frames of the message
+	 * @param bytes		Total size of all frames of the message
+	 */
+	public void received(int source, int frames, long bytes){
+		messagesSource[source].increment();
+		framesSource[source].add(frames);
+		bytesSource[source].add(bytes);
+		messagesIn.increment();
+		framesIn.add(frames);
+		bytesIn.add(bytes);
+		if(frames>1){
+			multipartIn.increment();
+		}
+	}
+	
+	/**
+	 * Record a message sent to a destination
+	 * @param destination	Index of the destination
+	 * @param frames		Number of frames of the message
+	 * @param bytes			Total size of all frames of the message
+	 */
+	public void sent(int destination, int frames, long bytes){
+		messagesOut[destination].increment();
+		framesOut[destination].add(frames);
+		bytesOut[destination].add(bytes);
+	}
+	
+	/**
+	 * Record a message that was not sent to a destination because of the reduced frequency/rate of the destination
+	 * @param destination	Index of the destination
+	 */
+	public void skipped(int destination){
+		skipped[destination].increment();
+	}
+	
+	/**
+	 * Record a send that had to wait because the high water mark of the destination was reached
+	 * @param destination	Index of the destination
+	 */
+	public void hwm(int destination){
+		hwm[destination].increment();
+	}
+	
+	/**
+	 * Record a message dropped because buffer and queue/spill journal of a destination were full
+	 * @param destination	Index of the destination
+	 */
+	public void dropped(int destination){
+		dropped[destination].increment();
+	}
+	
+	/**
+	 * Record a disconnect of the receivers of a destination
+	 * @param destination	Index of the destination
+	 */
+	public void disconnected(int destination){
+		disconnects[destination].increment();
+	}
+	
+	/**
+	 * Record a message written to the queue or spill journal of a destination
+	 * @param destination	Index of the destination
+	 */
+	public void spilled(int destination){
+		spilled[destination].increment();
+	}
+	
+	/**
+	 * Record a message dropped from the spill journal of a destination because of its age
+	 * @param destination	Index of the destination
+	 */
+	public void expired(int destination){
+		expired[destination].increment();
+	}
+	
+	/**
+	 * Record the latency of a message sent to a destination
+	 * @param destination	Index of the destination
+	 * @param residence		Time in nanoseconds from receiving the message to starting to send it
+	 * @param sending		Time in nanoseconds spent sending the frames of the message
+	 */
+	public void latency(int destination, long residence, long sending){
+		this.residence[destination].record(residence);
+		this.sending[destination].record(sending);
+	}
+	
+	/**
+	 * Record the end-to-end latency of a message sent to a destination
+	 * @param destination	Index of the destination
+	 * @param latency		Time in nanoseconds from the creation of the message to starting to send it
+	 */
+	public void endToEnd(int destination, long latency){
+		endToEnd[destination].record(latency);
+	}
+	
+	/**
+	 * Record the highest sequence number received from a source
+	 * @param source	Index of the source
+	 * @param sequence	Sequence number
+	 */
+	public void sequence(int source, long sequence){
+		this.sequence[source].set(sequence);
+	}
+	
+	/**
+	 * Record a gap in the sequence numbers of a source
+	 * @param source	Index of the source
+	 * @param missing	Number of messages missing
+	 */
+	public void gap(int source, long missing){
+		gaps[source].increment();
+		this.missing[source].add(missing);
+	}
+	
+	/**
+	 * Record a message with a sequence number that was already received from a source
+	 * @param source	Index of the source
+	 */
+	public void duplicate(int source){
+		duplicates[source].increment();
+	}
+	
+	/**
+	 * Record a message of a source that arrived late
+	 * @param source	Index of the source
+	 * @param missing	Message was counted as missing (see {@link #gap(int, long)})
+	 */
+	public void reordered(int source, boolean missing){
+		reordered[source].increment();
+		if(missing){
+			this.missing[source].add(-1);
+		}
+	}
+	
+	/**
+	 * Record a restart of the sequence numbers of a source
+	 * @param source	Index of the source
+	 */
+	public void reset(int source){
+		resets[source].increment();
+	}
+	
+	/**
+	 * Record a gap in the sequence of the messages sent to a destination, i.e. the start of a run of dropped messages
+	 * @param destination	Index of the destination
+	 */
+	public void dropGap(int destination){
+		dropGaps[destination].increment();
+	}
+	
+	/**
+	 * Rearrange the destination counters after the destinations of the routing were updated.
+	 * Must only be called by the routing thread.
+	 * @param map	Index of the previous destination for each destination (-1 for new destinations)
+	 */
+	public synchronized void remap(int[] map){
+		int n = map.length;
+		int offset = 2+2*messagesOut.length;
+		long[][] s = new long[WINDOW][2+2*n+2*messagesSource.length];
+		for(int k=0;k<WINDOW;k++){
+			s[k][0] = samples[k][0];
+			s[k][1] = samples[k][1];
+			for(int i=0;i<n;i++){
+				if(map[i]>=0){
+					s[k][2+2*i] = samples[k][2+2*map[i]];
+					s[k][3+2*i] = samples[k][3+2*map[i]];
+				}
+			}
+			System.arraycopy(samples[k], offset, s[k], 2+2*n, 2*messagesSource.length);
+		}
+		samples = s;
+		messagesOut = remap(messagesOut, map);
+		framesOut = remap(framesOut, map);
+		bytesOut = remap(bytesOut, map);
+		skipped = remap(skipped, map);
+		hwm = remap(hwm, map);
+		dropped = remap(dropped, map);
+		disconnects = remap(disconnects, map);
+		spilled = remap(spilled, map);
+		expired = remap(expired, map);
+		batches = remap(batches, map);
+		dropGaps = remap(dropGaps, map);
+		residence = remap(residence, map);
+		sending = remap(sending, map);
+		endToEnd = remap(endToEnd, map);
+	}
+	
+	private static Histogram[] remap(Histogram[] histograms, int[] map){
+		if(histograms==null){
+			return null;
+		}
+		Histogram[] h = new Histogram[map.length];
+		for(int i=0;i<map.length;i++){
+			h[i] = map[i]>=0 ? histograms[map[i]] : new Histogram();
+		}
+		return h;
+	}
+	
+	private static Counter[] remap(Counter[] counters, int[] map){
+		Counter[] c = new Counter[map.length];
+		for(int i=0;i<map.length;i++){
+			c[i] = map[i]>=0 ? counters[map[i]] : new Counter();
+		}
+		return c;
+	}
+	
+	/**
+	 * Record a batch of messages sent to a destination
+	 * @param destination	Index of the destination
+	 */
+	public void batched(int destination){
+		batches[destination].increment();
+	}
+	
+	/**
+	 * Take a sample of the counters for the calculation of the rates
+	 */
+	public synchronized void sample(){
+		long[] sample = samples[sampleIndex];
+		times[sampleIndex] = System.nanoTime();
+		sample[0] = messagesIn.get();
+		sample[1] = bytesIn.get();
+		for(int i=0;i<messagesOut.length;i++){
+			sample[2+2*i] = messagesOut[i].get();
+			sample[3+2*i] = bytesOut[i].get();
+		}
+		int offset = 2+2*messagesOut.length;
+		for(int i=0;i<messagesSource.length;i++){
+			sample[offset+2*i] = messagesSource[i].get();
+			sample[offset+1+2*i] = bytesSource[i].get();
+		}
+		sampleIndex = (sampleIndex+1) % WINDOW;
+		if(samplesCount<WINDOW){
+			samplesCount++;
+		}
+	}
+	
+	/**
+	 * Get current statistics
+	 * @param name			Name of the routing
+	 * @param sources		Sources of the routing
+	 * @param destinations	Destinations of the routing
+	 * @return
+	 */
+	public synchronized RoutingStatistics getStatistics(String name, List<Source> sources, List<Destination> destinations){
+		RoutingStatistics s = new RoutingStatistics();
+		s.setName(name);
+		s.setMessages(messagesIn.get());
+		s.setFrames(framesIn.get());
+		s.setBytes(bytesIn.get());
+		s.setMultipart(multipartIn.get());
+		s.setMessageRate(rate(0));
+		s.setByteRate(rate(1));
+		
+		int offset = 2+2*messagesOut.length;
+		for(int i=0;i<messagesSource.length;i++){
+			SourceStatistics so = new SourceStatistics();
+			so.setAddress(sources.get(i).getAddress());
+			so.setMessages(messagesSource[i].get());
+			so.setFrames(framesSource[i].get());
+			so.setBytes(bytesSource[i].get());
+			so.setMessageRate(rate(offset+2*i));
+			so.setByteRate(rate(offset+1+2*i));
+			if(sequence!=null){
+				SequenceStatistics q = new SequenceStatistics();
+				q.setLast(sequence[i].get());
+				q.setGaps(gaps[i].get());
+				q.setMissing(missing[i].get());
+				q.setDuplicates(duplicates[i].get());
+				q.setReordered(reordered[i].get());
+				q.setResets(resets[i].get());
+				so.setSequence(q);
+			}
+			s.getSources().add(so);
+		}
+		
+		for(int i=0;i<messagesOut.length;i++){
+			DestinationStatistics d = new DestinationStatistics();
+			d.setAddress(destinations.get(i).getAddress());
+			d.setMessages(messagesOut[i].get());
+			d.setFrames(framesOut[i].get());
+			d.setBytes(bytesOut[i].get());
+			d.setSkipped(skipped[i].get());
+			d.setHwm(hwm[i].get());
+			d.setDropped(dropped[i].get());
+			d.setDisconnects(disconnects[i].get());
+			d.setSpilled(spilled[i].get());
+			d.setExpired(expired[i].get());
+			d.setBatches(batches[i].get());
+			d.setGaps(dropGaps[i].get());
+			if(residence!=null){
+				d.setResidence(residence[i].getStatistics());
+				d.setSending(sending[i].getStatistics());
+			}
+			if(endToEnd!=null){
+				d.setEndToEnd(endToEnd[i].getStatistics());
+			}
+			d.setMessageRate(rate(2+2*i));
+			d.setByteRate(rate(3+2*i));
+			s.getDestinations().add(d);
+		}
+		return s;
+	}
+	
+	/**
+	 * @return	Received messages per second (average over the sliding window)
+	 */
+	public synchronized double getMessageRate(){
+		return rate(0);
+	}
+	
+	/**
+	 * Rate (per second) of the given sample value over the sliding window
+	 * @param index	Index of the value within a sample
+	 * @return
+	 */
+	private double rate(int index){
+		if(samplesCount<2){
+			return 0;
+		}
+		int newest = (sampleIndex+WINDOW-1) % WINDOW;
+		int oldest = (sampleIndex+WINDOW-samplesCount) % WINDOW;
+		long time = times[newest]-times[oldest];
+		if(time<=0){
+			return 0;
+		}
+		return (samples[newest][index]-samples[oldest][index])*1e9/time;
+	}
+}
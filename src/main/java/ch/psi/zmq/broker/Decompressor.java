@@ -0,0 +1,197 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.logging.Logger;
+import java.util.zip.Inflater;
+
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import zmq.Msg;
+import ch.psi.zmq.broker.model.Routing;
+
+import com.github.luben.zstd.Zstd;
+
+/**
+ * Restores the frames compressed by a {@link Compressor}. The original size is read off the network, i.e. it is only
+ * trusted up to the maximum ratio the compression can achieve. Frames that cannot be decompressed are counted and
+ * passed on as they are.
+ * 
+ * Besides the statistics a decompressor is not thread safe, it must only be used by the routing thread.
+ * @author ebner
+ *
+ */
+public class Decompressor {
+	
+	private static final Logger logger = Logger.getLogger(Decompressor.class.getName());
+	
+	/**
+	 * Maximum size of an original frame
+	 */
+	static final int MAX_SIZE = 1<<30;
+	
+	/**
+	 * Maximum ratio between original and compressed size of deflate, LZ4 and zstd
+	 */
+	private static final long DEFLATE_RATIO = 1032;
+	private static final long LZ4_RATIO = 255;
+	private static final long ZSTD_RATIO = 32768;
+	
+	private final Inflater inflater = new Inflater();
+	private LZ4SafeDecompressor lz4;
+	private final Counter invalid = new Counter();
+	
+	/**
+	 * Create decompressor for a source
+	 * @param compression	Compression of the frames the source receives
+	 * @return	Decompressor or null if the source does not receive compressed frames
+	 */
+	public static Decompressor create(Routing.Compression compression){
+		if(compression==null || compression==Routing.Compression.NONE){
+			return null;
+		}
+		return new Decompressor();
+	}
+	
+	/**
+	 * Decompress frame
+	 * @param frame
+	 * @return	Original frame (keeps the flags of the received frame). Frames that cannot be decompressed are returned as they are.
+	 */
+	public Msg decompress(Msg frame){
+		byte[] data = frame.data();
+		int size = frame.size();
+		if(size==0){
+			return frame; // Not compressed by a compressor
+		}
+		byte[] original;
+		byte type = data[0];
+		if(type==Compressor.RAW){
+			original = Arrays.copyOfRange(data, 1, size);
+		}
+		else if(size<5 || (type!=Compressor.DEFLATE && type!=Compressor.LZ4 && type!=Compressor.ZSTD)){
+			return invalid(frame, "unknown type "+type);
+		}
+		else{
+			int length = ByteBuffer.wrap(data).getInt(1);
+			long ratio = type==Compressor.DEFLATE ? DEFLATE_RATIO : type==Compressor.LZ4 ? LZ4_RATIO : ZSTD_RATIO;
+			if(length<0 || length>MAX_SIZE || length>(size-5)*ratio){
+				return invalid(frame, "invalid size "+length);
+			}
+			original = new byte[length];
+			String error;
+			if(type==Compressor.DEFLATE){
+				error = inflate(data, size, original);
+			}
+			else if(type==Compressor.LZ4){
+				error = lz4(data, size, original);
+			}
+			else{
+				error = zstd(data, size, original);
+			}
+			if(error!=null){
+				return invalid(frame, error);
+			}
+		}
+		Msg message = new Msg(original);
+		if(frame.hasMore()){
+			message.setFlags(Msg.MORE);
+		}
+		return message;
+	}
+	
+	/**
+	 * @return	null if the deflate stream was decompressed into the original frame, otherwise the reason why not
+	 */
+	private String inflate(byte[] data, int size, byte[] original){
+		inflater.reset();
+		inflater.setInput(data, 5, size-5);
+		try {
+			int n = 0;
+			while(n<original.length && !inflater.finished()){
+				int r = inflater.inflate(original, n, original.length-n);
+				if(r==0 && (inflater.needsInput() || inflater.needsDictionary())){
+					break;
+				}
+				n += r;
+			}
+			return n==original.length ? null : "frame is incomplete";
+		} catch (DataFormatException e) {
+			return e.getMessage();
+		}
+	}
+	
+	/**
+	 * @return	null if the LZ4 block was decompressed into the original frame, otherwise the reason why not
+	 */
+	private String lz4(byte[] data, int size, byte[] original){
+		if(lz4==null){
+			lz4 = LZ4Factory.fastestInstance().safeDecompressor();
+		}
+		try{
+			int n = lz4.decompress(data, 5, size-5, original, 0, original.length);
+			return n==original.length ? null : "frame is incomplete";
+		}
+		catch(LZ4Exception e){
+			return e.getMessage();
+		}
+	}
+	
+	/**
+	 * @return	null if the zstd frame was decompressed into the original frame, otherwise the reason why not
+	 */
+	private String zstd(byte[] data, int size, byte[] original){
+		try{
+			long n = Zstd.decompressByteArray(original, 0, original.length, data, 5, size-5);
+			if(Zstd.isError(n)){
+				return Zstd.getErrorName(n);
+			}
+			return n==original.length ? null : "frame is incomplete";
+		}
+		catch(LinkageError e){
+			return "zstd is not available - "+e;
+		}
+	}
+	
+	/**
+	 * Count frame that cannot be decompressed (only the first one is logged)
+	 * @param frame
+	 * @param reason
+	 * @return	Frame as received
+	 */
+	private Msg invalid(Msg frame, String reason){
+		if(invalid.get()==0){
+			logger.warning("Unable to decompress frame - "+reason);
+		}
+		invalid.increment();
+		return frame;
+	}
+	
+	/**
+	 * @return	Number of frames that could not be decompressed (can be read by any thread)
+	 */
+	public long getInvalid(){
+		return invalid.get();
+	}
+}
@@ -0,0 +1,208 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import zmq.PollItem;
+
+/**
+ * Event loop thread routing the messages of several routings. The sockets of all routings are polled
+ * together, available messages are routed without blocking (up to a budget per routing and iteration so that
+ * all routings get their turn).
+ * 
+ * Note that sending to a destination that applies back pressure (policy BLOCK without queue), waiting for
+ * credit of workers, etc. still blocks the thread, i.e. also all other routings of the event loop. Such routings
+ * should get a dedicated thread.
+ * @author ebner
+ *
+ */
+public class EventLoop implements Runnable {
+	
+	private static final Logger logger = Logger.getLogger(EventLoop.class.getName());
+	
+	/**
+	 * Maximum number of messages routed per routing and iteration
+	 */
+	private static final int BUDGET = 64;
+	
+	/**
+	 * Routers assigned to the event loop (also accessed by the broker)
+	 */
+	private final List<Router> routers = new CopyOnWriteArrayList<>();
+	
+	/**
+	 * Routers to be started by the event loop thread
+	 */
+	private final ConcurrentLinkedQueue<Router> added = new ConcurrentLinkedQueue<>();
+	
+	private final Selector selector;
+	private final Thread thread;
+	private volatile boolean terminate = false;
+	
+	/**
+	 * @param name	Name of the event loop thread
+	 * @throws IOException
+	 */
+	public EventLoop(String name) throws IOException{
+		selector = Selector.open();
+		thread = new Thread(this, name);
+	}
+	
+	public void start(){
+		thread.start();
+	}
+	
+	/**
+	 * Add routing to the event loop. The routing is started by the event loop thread.
+	 * @param router
+	 */
+	public void add(Router router){
+		routers.add(router);
+		added.add(router);
+		selector.wakeup();
+	}
+	
+	/**
+	 * Load of the event loop, i.e. the sum of the message rates of its routings
+	 * @return
+	 */
+	public double getLoad(){
+		double load = 0;
+		for(Router r: routers){
+			load += r.getCounters().getMessageRate();
+		}
+		return load;
+	}
+	
+	/**
+	 * @return	Number of routings assigned to the event loop
+	 */
+	public int getSize(){
+		return routers.size();
+	}
+	
+	@Override
+	public void run() {
+		List<Router> active = new ArrayList<>();
+		PollItem[] items = new PollItem[0];
+		boolean busy = false;
+		try{
+			while(!terminate){
+				// Start new routings
+				Router router;
+				while((router=added.poll())!=null){
+					try{
+						if(!router.isTerminating()){
+							router.open();
+							active.add(router);
+							continue;
+						}
+					}
+					catch(Exception e){
+						logger.log(Level.SEVERE, "Routing failed", e);
+					}
+					router.close();
+					routers.remove(router);
+				}
+				
+				// Collect poll items of all routings
+				long timeout = busy ? 0 : Router.TIMEOUT;
+				int n = 0;
+				for(int i=0;i<active.size();i++){
+					Router r = active.get(i);
+					if(r.isTerminating()){
+						r.close();
+						routers.remove(r);
+						active.remove(i--);
+						continue;
+					}
+					long t = r.prepare(true);
+					if(t>=0){
+						timeout = Math.min(timeout, t);
+					}
+					PollItem[] ritems = r.getItems();
+					if(n+ritems.length>items.length){
+						PollItem[] it = new PollItem[2*(n+ritems.length)];
+						System.arraycopy(items, 0, it, 0, n);
+						items = it;
+					}
+					System.arraycopy(ritems, 0, items, n, ritems.length);
+					n += ritems.length;
+				}
+				
+				zmq.ZMQ.poll(selector, items, n, timeout);
+				
+				busy = false;
+				for(int i=0;i<active.size();i++){
+					Router r = active.get(i);
+					try{
+						r.dispatch();
+						busy |= r.process(BUDGET);
+					}
+					catch(Exception e){
+						if(!r.isTerminating()){
+							logger.log(Level.SEVERE, "Routing failed", e);
+						}
+						r.close();
+						routers.remove(r);
+						active.remove(i--);
+					}
+				}
+			}
+		}
+		catch(Exception e){
+			logger.log(Level.SEVERE, "Event loop failed", e);
+		}
+		finally{
+			for(Router r: active){
+				r.close();
+			}
+			for(Router r: added){
+				r.close();
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Unable to close selector", e);
+			}
+		}
+	}
+	
+	/**
+	 * Terminate event loop. The routings of the event loop need to be terminated beforehand.
+	 */
+	public void terminate(){
+		terminate = true;
+		selector.wakeup();
+		try {
+			thread.join(10*Router.TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
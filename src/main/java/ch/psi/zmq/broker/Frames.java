@@ -0,0 +1,45 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.nio.ByteBuffer;
+
+import zmq.Msg;
+
+/**
+ * Helpers for passing received frames (zmq.Msg) on without copying their data.
+ * @author ebner
+ *
+ */
+public class Frames {
+	
+	/**
+	 * Sending a frame rewrites the flags (MORE) of its Msg while the I/O thread of a socket the Msg was passed to
+	 * before might still encode it. A frame that is sent more than once (several destinations, replays) therefore
+	 * needs a Msg of its own for each send.
+	 * @param frame
+	 * @return	New Msg sharing the data of the frame (the flags are not taken over)
+	 */
+	public static Msg share(Msg frame){
+		ByteBuffer buffer = frame.buf();
+		buffer.rewind();
+		return new Msg(buffer);
+	}
+}
@@ -0,0 +1,293 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Locates the value of a top level field of a JSON header (first frame of a message) without
+ * parsing the header into objects, i.e. without allocation. After a successful {@link #find(byte[], int)}
+ * the raw (unparsed) bytes of the value are at [{@link #getStart()}, {@link #getEnd()}). For string values
+ * the quotes are not included.
+ * 
+ * Instances are not thread safe, they must only be used by the routing thread.
+ * @author ebner
+ *
+ */
+public class HeaderField {
+	
+	/**
+	 * Mantissas below this limit (all numbers of up to 15 digits) are exact as double
+	 */
+	private static final long MAX_MANTISSA = 100000000000000L;
+	/**
+	 * Powers of ten that are exact as double
+	 */
+	private static final double[] POWERS = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	
+	private final byte[] name;
+	private int start;
+	private int end;
+	
+	/**
+	 * @param name	Name of the field
+	 */
+	public HeaderField(String name){
+		this.name = name.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Find the field in the given JSON object
+	 * @param data
+	 * @param size	Number of valid bytes of data
+	 * @return	false if the data is not a JSON object or does not contain the field
+	 */
+	public boolean find(byte[] data, int size){
+		int i = skipWhitespace(data, size, 0);
+		if(i>=size || data[i]!='{'){
+			return false;
+		}
+		i++;
+		while(true){
+			i = skipWhitespace(data, size, i);
+			if(i>=size || data[i]!='"'){
+				return false; // end of object or malformed
+			}
+			int keyStart = i+1;
+			i = skipString(data, size, i);
+			if(i<0){
+				return false;
+			}
+			boolean match = equals(data, keyStart, i-1);
+			i = skipWhitespace(data, size, i);
+			if(i>=size || data[i]!=':'){
+				return false;
+			}
+			i = skipWhitespace(data, size, i+1);
+			if(i>=size){
+				return false;
+			}
+			int valueStart = i;
+			i = skipValue(data, size, i);
+			if(i<=valueStart){
+				return false; // not terminated or missing
+			}
+			if(match){
+				if(data[valueStart]=='"'){
+					start = valueStart+1;
+					end = i-1;
+				}
+				else{
+					start = valueStart;
+					end = i;
+					while(end>start && isWhitespace(data[end-1])){
+						end--;
+					}
+				}
+				return true;
+			}
+			i = skipWhitespace(data, size, i);
+			if(i>=size || data[i]!=','){
+				return false;
+			}
+			i++;
+		}
+	}
+	
+	/**
+	 * @return	Start index of the value (inclusive)
+	 */
+	public int getStart(){
+		return start;
+	}
+	
+	/**
+	 * @return	End index of the value (exclusive)
+	 */
+	public int getEnd(){
+		return end;
+	}
+	
+	/**
+	 * Parse the value found by {@link #find(byte[], int)} as JSON number. The result is the same as of
+	 * Double.parseDouble (correctly rounded). Numbers with up to 15 significant digits and a decimal exponent within
+	 * +/-22 are parsed without allocation, others fall back to Double.parseDouble.
+	 * @param data	Data the field was found in
+	 * @return	Value or NaN if the value is not a number
+	 */
+	public double getNumber(byte[] data){
+		int i = start;
+		boolean negative = i<end && data[i]=='-';
+		if(negative){
+			i++;
+		}
+		long mantissa = 0;
+		int exponent = 0;
+		int digits = 0;
+		boolean exact = true;
+		for(;i<end && data[i]>='0' && data[i]<='9';i++, digits++){
+			if(mantissa<MAX_MANTISSA){
+				mantissa = mantissa*10 + (data[i]-'0');
+			}
+			else{
+				exact = false;
+			}
+		}
+		if(i<end && data[i]=='.'){
+			for(i++;i<end && data[i]>='0' && data[i]<='9';i++, digits++){
+				if(mantissa<MAX_MANTISSA){
+					mantissa = mantissa*10 + (data[i]-'0');
+					exponent--;
+				}
+				else{
+					exact = false;
+				}
+			}
+		}
+		if(digits==0){
+			return Double.NaN;
+		}
+		if(i<end && (data[i]=='e' || data[i]=='E')){
+			i++;
+			boolean negativeExponent = i<end && data[i]=='-';
+			if(i<end && (data[i]=='-' || data[i]=='+')){
+				i++;
+			}
+			int e = 0;
+			int exponentDigits = 0;
+			for(;i<end && data[i]>='0' && data[i]<='9';i++, exponentDigits++){
+				if(e<1000){
+					e = e*10 + (data[i]-'0');
+				}
+			}
+			if(exponentDigits==0){
+				return Double.NaN;
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+		if(i!=end){
+			return Double.NaN;
+		}
+		if(!exact || exponent<-22 || exponent>22){
+			// Mantissa or power of ten not exact as double, the result would not be correctly rounded
+			return Double.parseDouble(new String(data, start, end-start, StandardCharsets.US_ASCII));
+		}
+		// Both operands are exact, i.e. the single operation is correctly rounded
+		double value = exponent<0 ? mantissa/POWERS[-exponent] : mantissa*POWERS[exponent];
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Parse the value found by {@link #find(byte[], int)} as integral JSON number (without allocation)
+	 * @param data	Data the field was found in
+	 * @return	Value or Long.MIN_VALUE if the value is not an integer
+	 */
+	public long getLong(byte[] data){
+		int i = start;
+		boolean negative = i<end && data[i]=='-';
+		if(negative){
+			i++;
+		}
+		if(i==end || end-i>18){
+			return Long.MIN_VALUE; // Not a number or out of range
+		}
+		long value = 0;
+		for(;i<end;i++){
+			if(data[i]<'0' || data[i]>'9'){
+				return Long.MIN_VALUE;
+			}
+			value = value*10 + (data[i]-'0');
+		}
+		return negative ? -value : value;
+	}
+	
+	private boolean equals(byte[] data, int from, int to){
+		if(to-from!=name.length){
+			return false;
+		}
+		for(int i=0;i<name.length;i++){
+			if(data[from+i]!=name[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static boolean isWhitespace(byte b){
+		return b==' ' || b=='\t' || b=='\n' || b=='\r';
+	}
+	
+	private static int skipWhitespace(byte[] data, int size, int i){
+		while(i<size && isWhitespace(data[i])){
+			i++;
+		}
+		return i;
+	}
+	
+	/**
+	 * @param i	Index of the opening quote
+	 * @return	Index after the closing quote or -1 if the string is not terminated
+	 */
+	private static int skipString(byte[] data, int size, int i){
+		for(i++;i<size;i++){
+			if(data[i]=='\\'){
+				i++;
+			}
+			else if(data[i]=='"'){
+				return i+1;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @param i	Index of the first byte of the value
+	 * @return	Index after the value or -1 if the value is not terminated
+	 */
+	private static int skipValue(byte[] data, int size, int i){
+		if(data[i]=='"'){
+			return skipString(data, size, i);
+		}
+		int depth = 0;
+		for(;i<size;i++){
+			byte b = data[i];
+			if(b=='"'){
+				i = skipString(data, size, i)-1;
+				if(i<0){
+					return -1;
+				}
+			}
+			else if(b=='{' || b=='['){
+				depth++;
+			}
+			else if(b=='}' || b==']'){
+				if(depth==0){
+					return i; // end of enclosing object
+				}
+				depth--;
+			}
+			else if(b==',' && depth==0){
+				return i;
+			}
+		}
+		return depth==0 ? i : -1;
+	}
+}
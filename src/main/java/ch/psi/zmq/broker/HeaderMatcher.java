@@ -0,0 +1,304 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import zmq.Msg;
+import ch.psi.zmq.broker.model.Destination;
+
+/**
+ * Content based routing on the JSON header (first frame) of messages. The match conditions of all destinations
+ * are compiled once. Per message only the header is scanned (see {@link HeaderField}) - each field used by the conditions
+ * at most once and only if a condition needs it. The payload frames are not touched. Matching does not allocate.
+ * 
+ * Conditions have the form <code>&lt;field&gt; &lt;operator&gt; &lt;value&gt;</code> with the operators
+ * <code>==</code> (or <code>=</code>), <code>!=</code>, <code>&lt;</code>, <code>&lt;=</code>, <code>&gt;</code>, <code>&gt;=</code>
+ * and <code>in</code> (list of values <code>a, b, c</code> or numeric range <code>min..max</code>, inclusive). Numeric values are compared
+ * as numbers, other values (or values in quotes) as text with the raw value of the field. Numeric values are written as in
+ * JSON (no NaN, Infinity, hexadecimal or suffixed literals - the header never contains those). Only top level fields are supported.
+ * Messages without the field (or without JSON header) do not fulfill the condition.
+ * 
+ * A matcher is not thread safe, it must only be used by the routing thread.
+ * @author ebner
+ *
+ */
+public class HeaderMatcher {
+	
+	private static final Pattern CONDITION = Pattern.compile("\\s*([^\\s=!<>]+)\\s*(==|=|!=|<=|>=|<|>|\\sin\\s)\\s*(.*?)\\s*");
+	private static final Pattern RANGE = Pattern.compile("(\\S+)\\s*\\.\\.\\s*(\\S+)");
+	/**
+	 * Numbers as found in a JSON header (see {@link HeaderField#getNumber(byte[])})
+	 */
+	private static final Pattern NUMBER = Pattern.compile("-?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?");
+	
+	private enum Operator {EQ, NE, LT, LE, GT, GE, RANGE};
+	
+	/**
+	 * Fields used by the conditions and their state for the current message
+	 */
+	private final List<String> names = new ArrayList<>();
+	private HeaderField[] fields = new HeaderField[0];
+	private byte[] found;		// 0 = not searched yet, 1 = found, -1 = not found
+	private double[] numbers;
+	private boolean[] parsed;
+	
+	/**
+	 * Conditions per destination (null if the destination has none)
+	 */
+	private final Condition[][] conditions;
+	
+	private HeaderMatcher(List<Destination> destinations){
+		conditions = new Condition[destinations.size()][];
+		for(int i=0;i<conditions.length;i++){
+			List<String> matches = destinations.get(i).getMatches();
+			if(matches==null || matches.isEmpty()){
+				continue;
+			}
+			conditions[i] = new Condition[matches.size()];
+			for(int j=0;j<matches.size();j++){
+				conditions[i][j] = compile(matches.get(j), destinations.get(i));
+			}
+		}
+		fields = new HeaderField[names.size()];
+		for(int i=0;i<fields.length;i++){
+			fields[i] = new HeaderField(names.get(i));
+		}
+		found = new byte[fields.length];
+		numbers = new double[fields.length];
+		parsed = new boolean[fields.length];
+	}
+	
+	/**
+	 * Compile the match conditions of the destinations
+	 * @param destinations
+	 * @return	Matcher or null if no destination has match conditions
+	 * @throws IllegalArgumentException	If a condition is invalid
+	 */
+	public static HeaderMatcher create(List<Destination> destinations){
+		for(Destination d: destinations){
+			if(d.getMatches()!=null && !d.getMatches().isEmpty()){
+				return new HeaderMatcher(destinations);
+			}
+		}
+		return null;
+	}
+	
+	private Condition compile(String expression, Destination d){
+		Matcher m = CONDITION.matcher(expression);
+		if(!m.matches() || m.group(3).isEmpty()){
+			throw new IllegalArgumentException("Invalid match condition '"+expression+"' of destination "+d.getAddress());
+		}
+		String name = m.group(1);
+		int field = names.indexOf(name);
+		if(field<0){
+			field = names.size();
+			names.add(name);
+		}
+		String operator = m.group(2).trim();
+		String value = m.group(3);
+		try{
+			switch(operator){
+			case "=":
+			case "==":
+				return new Condition(field, Operator.EQ, new String[]{value});
+			case "!=":
+				return new Condition(field, Operator.NE, new String[]{value});
+			case "<":
+				return new Condition(field, Operator.LT, parseNumber(value), 0);
+			case "<=":
+				return new Condition(field, Operator.LE, parseNumber(value), 0);
+			case ">":
+				return new Condition(field, Operator.GT, parseNumber(value), 0);
+			case ">=":
+				return new Condition(field, Operator.GE, parseNumber(value), 0);
+			default: // in
+				Matcher r = RANGE.matcher(value);
+				if(r.matches()){
+					return new Condition(field, Operator.RANGE, parseNumber(r.group(1)), parseNumber(r.group(2)));
+				}
+				String[] values = value.split(",");
+				for(int i=0;i<values.length;i++){
+					values[i] = values[i].trim();
+				}
+				return new Condition(field, Operator.EQ, values);
+			}
+		}
+		catch(NumberFormatException e){
+			throw new IllegalArgumentException("Invalid number in match condition '"+expression+"' of destination "+d.getAddress());
+		}
+	}
+	
+	/**
+	 * Parse numeric value of a condition
+	 * @param value
+	 * @return	Value (parsed as by the header scanner)
+	 * @throws NumberFormatException	If the value is not a number as it appears in a JSON header
+	 */
+	static double parseNumber(String value){
+		if(!NUMBER.matcher(value).matches()){
+			throw new NumberFormatException("Not a number: "+value);
+		}
+		return Double.parseDouble(value);
+	}
+	
+	/**
+	 * Match the header of a message against the conditions of the destinations
+	 * @param frame		First frame of a message
+	 * @param result	Set to false for the destinations with conditions the message does not fulfill (other destinations are not touched)
+	 */
+	public void match(Msg frame, boolean[] result){
+		for(int i=0;i<found.length;i++){
+			found[i] = 0;
+			parsed[i] = false;
+		}
+		byte[] data = frame.data();
+		int size = frame.size();
+		for(int i=0;i<conditions.length;i++){
+			if(conditions[i]==null || !result[i]){
+				continue;
+			}
+			for(Condition c: conditions[i]){
+				if(!test(c, data, size)){
+					result[i] = false;
+					break;
+				}
+			}
+		}
+	}
+	
+	private boolean test(Condition c, byte[] data, int size){
+		int f = c.field;
+		if(found[f]==0){
+			found[f] = fields[f].find(data, size) ? (byte) 1 : (byte) -1;
+		}
+		if(found[f]<0){
+			return false;
+		}
+		switch(c.operator){
+		case EQ:
+			return equals(c, data);
+		case NE:
+			return !equals(c, data);
+		case LT:
+			return number(f, data) < c.min;
+		case LE:
+			return number(f, data) <= c.min;
+		case GT:
+			return number(f, data) > c.min;
+		case GE:
+			return number(f, data) >= c.min;
+		default: // RANGE
+			double x = number(f, data);
+			return x >= c.min && x <= c.max;
+		}
+	}
+	
+	/**
+	 * @return	true if the value of the field equals one of the values of the condition
+	 */
+	private boolean equals(Condition c, byte[] data){
+		HeaderField field = fields[c.field];
+		for(int i=0;i<c.texts.length;i++){
+			if(!Double.isNaN(c.numbers[i])){
+				if(number(c.field, data)==c.numbers[i]){
+					return true;
+				}
+				continue;
+			}
+			byte[] text = c.texts[i];
+			if(field.getEnd()-field.getStart()!=text.length){
+				continue;
+			}
+			int j = 0;
+			while(j<text.length && data[field.getStart()+j]==text[j]){
+				j++;
+			}
+			if(j==text.length){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private double number(int field, byte[] data){
+		if(!parsed[field]){
+			numbers[field] = fields[field].getNumber(data);
+			parsed[field] = true;
+		}
+		return numbers[field];
+	}
+	
+	/**
+	 * Compiled condition
+	 */
+	private static class Condition {
+		final int field;
+		final Operator operator;
+		/**
+		 * Values (EQ, NE) as text and as number (NaN if the value is not numeric or quoted)
+		 */
+		final byte[][] texts;
+		final double[] numbers;
+		/**
+		 * Limits (LT, LE, GT, GE use min)
+		 */
+		final double min;
+		final double max;
+		
+		Condition(int field, Operator operator, String[] values){
+			this.field = field;
+			this.operator = operator;
+			this.min = 0;
+			this.max = 0;
+			texts = new byte[values.length][];
+			numbers = new double[values.length];
+			for(int i=0;i<values.length;i++){
+				String v = values[i];
+				numbers[i] = Double.NaN;
+				if(v.length()>=2 && v.startsWith("\"") && v.endsWith("\"")){
+					v = v.substring(1, v.length()-1);
+				}
+				else{
+					try{
+						numbers[i] = parseNumber(v);
+					}
+					catch(NumberFormatException e){
+						// Text value
+					}
+				}
+				texts[i] = v.getBytes(StandardCharsets.UTF_8);
+			}
+		}
+		
+		Condition(int field, Operator operator, double min, double max){
+			this.field = field;
+			this.operator = operator;
+			this.min = min;
+			this.max = max;
+			this.texts = new byte[0][];
+			this.numbers = new double[0];
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import ch.psi.zmq.broker.model.LatencyStatistics;
+
+/**
+ * Latency histogram (nanoseconds) with logarithmic buckets that are linearly subdivided, i.e. the
+ * relative error of a value is below 1/{@value #SUB_BUCKETS}. Values up to 2^{@value #MAX_EXPONENT} ns
+ * (about 18 minutes) are distinguished, larger values are counted as the maximum.
+ * 
+ * Like a {@link Counter} the histogram is only updated by a single thread (the routing thread) but can be
+ * read by any thread. Recording is a plain read and an ordered (lazy) write of a bucket, i.e. lock and allocation free.
+ * @author ebner
+ *
+ */
+public class Histogram {
+	
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int MAX_EXPONENT = 40;
+	private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+	
+	private final AtomicLongArray buckets = new AtomicLongArray((MAX_EXPONENT-SUB_BITS+2)*SUB_BUCKETS);
+	private volatile long max = 0;
+	
+	/**
+	 * Record a value. Must only be called by the owning thread.
+	 * @param value	Latency in nanoseconds (negative values are counted as 0)
+	 */
+	public void record(long value){
+		if(value<0){
+			value = 0;
+		}
+		else if(value>MAX_VALUE){
+			value = MAX_VALUE;
+		}
+		int i = index(value);
+		buckets.lazySet(i, buckets.get(i)+1);
+		if(value>max){
+			max = value;
+		}
+	}
+	
+	private static int index(long value){
+		if(value<SUB_BUCKETS){
+			return (int) value;
+		}
+		int exponent = 63-Long.numberOfLeadingZeros(value);
+		return (exponent-SUB_BITS+1)*SUB_BUCKETS + (int) ((value >>> (exponent-SUB_BITS)) & (SUB_BUCKETS-1));
+	}
+	
+	/**
+	 * @param index
+	 * @return	Highest value counted in the given bucket
+	 */
+	private static long highest(int index){
+		if(index<SUB_BUCKETS){
+			return index;
+		}
+		int shift = index/SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + index%SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+	
+	/**
+	 * Get percentiles of the recorded values (snapshot of the buckets, values may be recorded concurrently)
+	 * @return
+	 */
+	public LatencyStatistics getStatistics(){
+		int n = buckets.length();
+		long[] counts = new long[n];
+		long count = 0;
+		for(int i=0;i<n;i++){
+			counts[i] = buckets.get(i);
+			count += counts[i];
+		}
+		long maximum = max;
+		LatencyStatistics s = new LatencyStatistics();
+		s.setCount(count);
+		s.setP50(micros(percentile(counts, count, 0.5, maximum)));
+		s.setP99(micros(percentile(counts, count, 0.99, maximum)));
+		s.setP999(micros(percentile(counts, count, 0.999, maximum)));
+		s.setMax(micros(maximum));
+		return s;
+	}
+	
+	private static long percentile(long[] counts, long count, double percentile, long maximum){
+		if(count==0){
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile*count));
+		long sum = 0;
+		for(int i=0;i<counts.length;i++){
+			sum += counts[i];
+			if(sum>=rank){
+				return Math.min(highest(i), maximum);
+			}
+		}
+		return maximum;
+	}
+	
+	private static double micros(long nanos){
+		return nanos/1000.0;
+	}
+}
@@ -0,0 +1,292 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.logging.Logger;
+
+import zmq.Msg;
+
+/**
+ * Append-only journal of (multipart) messages backed by memory mapped segment files.
+ * Messages are read in the order they were written (FIFO). Segments are deleted as soon as all their
+ * messages are read.
+ * 
+ * The journal is not thread safe, it must only be used by the routing thread. Only the sizes
+ * ({@link #getMessages()}, {@link #getBytes()}) can be read from any thread.
+ * 
+ * Record layout: message start [int -2][long timestamp], frame [int size][byte more][data], 
+ * end of segment [int -1]
+ * @author ebner
+ *
+ */
+public class Journal implements Backlog {
+	
+	private static final Logger logger = Logger.getLogger(Journal.class.getName());
+	
+	/**
+	 * Maximum size of a segment file (segments are a quarter of the maximum journal size but not bigger than this).
+	 * Segments holding bigger frames are sized to fit the frame.
+	 */
+	public static final int SEGMENT_SIZE = 64*1024*1024;
+	
+	private static final int END_OF_SEGMENT = -1;
+	private static final int MESSAGE_START = -2;
+	
+	private final File directory;
+	private final String name;
+	private final long maxBytes;
+	
+	private final Deque<Segment> segments = new ArrayDeque<>();
+	private Segment writeSegment;
+	private long segmentCounter = 0;
+	
+	/**
+	 * Reader position - segment and position of the message start
+	 */
+	private Segment readSegment;
+	private int readPosition;
+	private Segment markSegment;
+	private int markPosition;
+	
+	private boolean writing = false;
+	
+	private final Counter messages = new Counter();
+	private final Counter bytes = new Counter();
+	
+	/**
+	 * @param directory	Directory of the segment files
+	 * @param name		Name (prefix) of the segment files
+	 * @param maxBytes	Maximum size of all segments. This limit might be exceeded by the message currently written.
+	 */
+	public Journal(File directory, String name, long maxBytes){
+		this.directory = directory;
+		this.name = name;
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * Write frame of a message to the journal
+	 * @param frame
+	 * @param more	true if further frames of the same message follow
+	 * @throws IOException
+	 */
+	public void write(Msg frame, boolean more) throws IOException{
+		int size = frame.size();
+		if(!writing){
+			ensureSpace(12);
+			writeSegment.buffer.putInt(MESSAGE_START);
+			writeSegment.buffer.putLong(System.currentTimeMillis());
+			writing = true;
+		}
+		ensureSpace(5+size);
+		MappedByteBuffer b = writeSegment.buffer;
+		b.putInt(size);
+		b.put((byte) (more?1:0));
+		b.put(frame.data(), 0, size);
+		if(!more){
+			writing = false;
+			messages.increment();
+		}
+	}
+	
+	/**
+	 * Ensure that the current write segment has enough space left for the given number of bytes.
+	 * If not a new segment is started.
+	 */
+	private void ensureSpace(int n) throws IOException{
+		if(writeSegment!=null && writeSegment.buffer.remaining()>=n+4){ // leave space for end of segment marker
+			return;
+		}
+		if(writeSegment!=null){
+			writeSegment.buffer.putInt(END_OF_SEGMENT);
+		}
+		
+		int size = (int) Math.max(n+4, Math.min(SEGMENT_SIZE, Math.max(maxBytes/4, 4096)));
+		File file = new File(directory, name+"-"+(segmentCounter++)+".spill");
+		directory.mkdirs();
+		try(RandomAccessFile f = new RandomAccessFile(file, "rw")){
+			writeSegment = new Segment(file, f.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+		}
+		segments.add(writeSegment);
+		bytes.add(size);
+		
+		if(readSegment==null){
+			readSegment = writeSegment;
+			readPosition = 0;
+		}
+	}
+	
+	/**
+	 * Start reading the next (oldest) message. Must only be called if the journal is not empty.
+	 * @return	Time (epoch millis) the message was written to the journal
+	 */
+	public long begin(){
+		markSegment = readSegment;
+		markPosition = readPosition;
+		int tag = readInt();
+		if(tag!=MESSAGE_START){
+			throw new IllegalStateException("Journal "+name+" is corrupt");
+		}
+		long timestamp = readSegment.buffer.getLong(readPosition);
+		readPosition += 8;
+		return timestamp;
+	}
+	
+	/**
+	 * Read next frame of the current message. The MORE flag of the frame is set if further frames follow.
+	 * @return
+	 */
+	public Msg read(){
+		int size = readInt();
+		boolean more = readSegment.buffer.get(readPosition)!=0;
+		readPosition++;
+		Msg frame = new Msg(size); // Encoders of ZMQ need heap buffers, i.e. the frame cannot be a slice of the segment
+		ByteBuffer b = readSegment.buffer.duplicate();
+		b.position(readPosition);
+		b.get(frame.data(), 0, size);
+		readPosition += size;
+		if(more){
+			frame.setFlags(Msg.MORE);
+		}
+		return frame;
+	}
+	
+	/**
+	 * Reset reader to the start of the current message
+	 */
+	public void rewind(){
+		readSegment = markSegment;
+		readPosition = markPosition;
+	}
+	
+	/**
+	 * Mark current message as read. Fully read segments are deleted.
+	 */
+	public void commit(){
+		messages.add(-1);
+		while(segments.peekFirst()!=readSegment){
+			delete(segments.pollFirst());
+		}
+	}
+	
+	/**
+	 * Read int at reader position, follow end of segment markers.
+	 */
+	private int readInt(){
+		int value = readSegment.buffer.getInt(readPosition);
+		while(value==END_OF_SEGMENT){
+			readSegment = next(readSegment);
+			readPosition = 0;
+			value = readSegment.buffer.getInt(readPosition);
+		}
+		readPosition += 4;
+		return value;
+	}
+	
+	private Segment next(Segment segment){
+		boolean found = false;
+		for(Segment s: segments){
+			if(found){
+				return s;
+			}
+			found = s==segment;
+		}
+		throw new IllegalStateException("Journal "+name+" is corrupt");
+	}
+	
+	private void delete(Segment segment){
+		bytes.add(-segment.buffer.capacity());
+		MappedFiles.unmap(segment.buffer); // Otherwise the disk space is only freed when the buffer is garbage collected
+		if(!segment.file.delete()){
+			logger.warning("Unable to delete journal segment "+segment.file);
+		}
+	}
+	
+	/**
+	 * @return	true if there is no complete message in the journal
+	 */
+	public boolean isEmpty(){
+		return messages.get()==0;
+	}
+	
+	/**
+	 * @return	true if a message is currently written to the journal (i.e. not all frames are written yet)
+	 */
+	public boolean isWriting(){
+		return writing;
+	}
+	
+	/**
+	 * @return	true if the journal reached its maximum size
+	 */
+	public boolean isFull(){
+		return bytes.get()>=maxBytes;
+	}
+	
+	/**
+	 * @return	Number of (complete) messages in the journal
+	 */
+	public long getMessages(){
+		return messages.get();
+	}
+	
+	/**
+	 * @return	Disk space used by the journal in bytes
+	 */
+	public long getBytes(){
+		return bytes.get();
+	}
+	
+	/**
+	 * Close journal and delete all segments. Messages still in the journal are lost.
+	 * The journal can still be used afterwards.
+	 */
+	public void close(){
+		if(messages.get()>0){
+			logger.warning(String.format("Discard %d messages of journal %s", messages.get(), name));
+		}
+		for(Segment s: segments){
+			delete(s);
+		}
+		segments.clear();
+		writeSegment = null;
+		readSegment = null;
+		markSegment = null;
+		writing = false;
+		messages.add(-messages.get());
+	}
+	
+	private static class Segment {
+		final File file;
+		final MappedByteBuffer buffer;
+		Segment(File file, MappedByteBuffer buffer){
+			this.file = file;
+			this.buffer = buffer;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Releases memory mapped files explicitly. A mapping is otherwise only released when the buffer gets garbage
+ * collected, i.e. the disk space of a deleted file is not freed (and the file cannot be deleted at all on Windows).
+ * There is no public API to unmap a buffer, the cleaner of the JDK is used (sun.misc.Cleaner up to Java 8,
+ * sun.misc.Unsafe.invokeCleaner as of Java 9). If neither is available the mapping is left to the garbage collector.
+ * @author ebner
+ *
+ */
+public class MappedFiles {
+	
+	private static final Logger logger = Logger.getLogger(MappedFiles.class.getName());
+	
+	private static volatile boolean failed = false;
+	
+	/**
+	 * Unmap buffer. The buffer (and any duplicate or slice of it) must not be accessed afterwards.
+	 * @param buffer	Buffer to unmap (null is ignored)
+	 */
+	public static void unmap(MappedByteBuffer buffer){
+		if(buffer==null || failed){
+			return;
+		}
+		try{
+			try{
+				// Java 9+
+				Class<?> c = Class.forName("sun.misc.Unsafe");
+				Method invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+				Field f = c.getDeclaredField("theUnsafe");
+				f.setAccessible(true);
+				invokeCleaner.invoke(f.get(null), buffer);
+			}
+			catch(NoSuchMethodException e){
+				// Java 7/8
+				Method cleaner = buffer.getClass().getMethod("cleaner");
+				cleaner.setAccessible(true);
+				Object c = cleaner.invoke(buffer);
+				if(c!=null){
+					c.getClass().getMethod("clean").invoke(c);
+				}
+			}
+		}
+		catch(Exception e){
+			failed = true;
+			logger.log(Level.WARNING, "Unable to unmap files - mappings are released by the garbage collector", e);
+		}
+	}
+	
+	/**
+	 * @return	false if buffers cannot be unmapped (i.e. unmapping failed before)
+	 */
+	static boolean isSupported(){
+		return !failed;
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import zmq.Msg;
+
+/**
+ * Ring buffer holding the last N (multipart) messages of a routing. The cache holds references
+ * to the received frames, i.e. the frame data is not copied.
+ * 
+ * Messages are only added by the routing thread, but the cache can be read by any thread.
+ * @author ebner
+ *
+ */
+public class MessageCache {
+	
+	private final AtomicReferenceArray<Entry> ring;
+	private final Counter count = new Counter();
+	
+	/**
+	 * @param size	Number of messages to keep
+	 */
+	public MessageCache(int size){
+		ring = new AtomicReferenceArray<>(size);
+	}
+	
+	/**
+	 * Add message to the cache. Must only be called by the routing thread.
+	 * @param frames	Frames of the message
+	 */
+	public void add(List<Msg> frames){
+		Entry e = new Entry(System.currentTimeMillis(), frames.toArray(new Msg[frames.size()]));
+		ring.lazySet((int) (count.get() % ring.length()), e);
+		count.increment();
+	}
+	
+	/**
+	 * Get all cached messages, oldest first
+	 * @return
+	 */
+	public List<Entry> getMessages(){
+		long n = count.get();
+		List<Entry> l = new ArrayList<>();
+		for(long i=Math.max(0, n-ring.length());i<n;i++){
+			Entry e = ring.get((int) (i % ring.length()));
+			if(e!=null){
+				l.add(e);
+			}
+		}
+		return l;
+	}
+	
+	/**
+	 * Get most recent message
+	 * @return	Most recent message or null if no message was received yet
+	 */
+	public Entry getLast(){
+		long n = count.get();
+		if(n==0){
+			return null;
+		}
+		return ring.get((int) ((n-1) % ring.length()));
+	}
+	
+	/**
+	 * Cached message
+	 */
+	public static class Entry {
+		private final long timestamp;
+		private final Msg[] frames;
+		
+		Entry(long timestamp, Msg[] frames){
+			this.timestamp = timestamp;
+			this.frames = frames;
+		}
+		
+		/**
+		 * @return	Time (epoch millis) the message was received
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+		public Msg[] getFrames() {
+			return frames;
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import zmq.Msg;
+
+/**
+ * In memory backlog of a destination holding up to a fixed number of messages. The queue keeps
+ * references to the received frames, i.e. the frames are shared with the other destinations and are not copied.
+ * The slots of the queue are reused, so queuing a message does not allocate (once the slots have grown to
+ * the number of frames of the messages). The frames do not necessarily carry the MORE flag (e.g. frames shared between
+ * destinations, see {@link Frames#share(Msg)}), the multipart boundaries are kept in the slot.
+ * @author ebner
+ *
+ */
+public class MessageQueue implements Backlog {
+	
+	private static final Logger logger = Logger.getLogger(MessageQueue.class.getName());
+	
+	private final Slot[] slots;
+	/**
+	 * Sequence number of the slot that is written next/read next
+	 */
+	private long head = 0;
+	private long tail = 0;
+	private int readIndex;
+	private boolean writing = false;
+	
+	private final Counter messages = new Counter();
+	private final Counter bytes = new Counter();
+	
+	/**
+	 * @param size	Maximum number of messages in the queue
+	 */
+	public MessageQueue(int size){
+		slots = new Slot[size];
+		for(int i=0;i<size;i++){
+			slots[i] = new Slot();
+		}
+	}
+	
+	@Override
+	public void write(Msg frame, boolean more){
+		Slot slot = slots[(int) (head % slots.length)];
+		if(!writing){
+			slot.timestamp = System.currentTimeMillis();
+			slot.count = 0;
+			slot.bytes = 0;
+			writing = true;
+		}
+		if(slot.count==slot.frames.length){
+			slot.frames = Arrays.copyOf(slot.frames, slot.frames.length*2);
+			slot.more = Arrays.copyOf(slot.more, slot.frames.length);
+		}
+		slot.more[slot.count] = more;
+		slot.frames[slot.count++] = frame;
+		slot.bytes += frame.size();
+		bytes.add(frame.size());
+		if(!more){
+			writing = false;
+			head++;
+			messages.increment();
+		}
+	}
+
+	@Override
+	public long begin(){
+		readIndex = 0;
+		return slots[(int) (tail % slots.length)].timestamp;
+	}
+
+	@Override
+	public Msg read(){
+		Slot slot = slots[(int) (tail % slots.length)];
+		Msg frame = slot.frames[readIndex];
+		if(slot.more[readIndex++]){
+			frame.setFlags(Msg.MORE);
+		}
+		else{
+			frame.resetFlags(Msg.MORE);
+		}
+		return frame;
+	}
+
+	@Override
+	public void rewind(){
+		readIndex = 0;
+	}
+
+	@Override
+	public void commit(){
+		Slot slot = slots[(int) (tail % slots.length)];
+		Arrays.fill(slot.frames, 0, slot.count, null); // release frames
+		bytes.add(-slot.bytes);
+		messages.add(-1);
+		tail++;
+	}
+
+	@Override
+	public boolean isEmpty(){
+		return head==tail;
+	}
+
+	@Override
+	public boolean isWriting(){
+		return writing;
+	}
+
+	@Override
+	public boolean isFull(){
+		return head-tail>=slots.length;
+	}
+
+	@Override
+	public long getMessages(){
+		return messages.get();
+	}
+
+	@Override
+	public long getBytes(){
+		return bytes.get();
+	}
+
+	@Override
+	public void close(){
+		if(messages.get()>0){
+			logger.warning(String.format("Discard %d queued messages", messages.get()));
+		}
+		for(Slot s: slots){
+			Arrays.fill(s.frames, null);
+			s.count = 0;
+		}
+		tail = head;
+		writing = false;
+		messages.add(-messages.get());
+		bytes.add(-bytes.get());
+	}
+	
+	private static class Slot {
+		Msg[] frames = new Msg[1];
+		boolean[] more = new boolean[1];
+		int count;
+		long bytes;
+		long timestamp;
+	}
+}
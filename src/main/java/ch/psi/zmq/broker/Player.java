@@ -0,0 +1,163 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.zeromq.ZMQ;
+
+import zmq.Msg;
+import zmq.SocketBase;
+import zmq.ZError;
+import ch.psi.zmq.broker.model.Source;
+
+/**
+ * Replays a recording (see {@link RecordingWriter}) as FILE source of a routing. The player sends the recorded messages
+ * on its own thread to an inproc PUSH socket the routing connects to. Messages are replayed at the original speed,
+ * N times faster/slower or as fast as the routing takes them (speed 0).
+ * @author ebner
+ *
+ */
+public class Player implements Runnable {
+	
+	private static final Logger logger = Logger.getLogger(Player.class.getName());
+	
+	private static final AtomicInteger count = new AtomicInteger();
+	
+	private final ZMQ.Socket socket;
+	private final String address;
+	private final File directory;
+	private final double speed;
+	private final boolean loop;
+	private final Thread thread;
+	private volatile boolean terminate = false;
+	
+	/**
+	 * Validate the replay settings of a source
+	 * @param s
+	 */
+	static void validate(Source s){
+		if(s.getSpeed()<0){
+			throw new IllegalArgumentException("Replay speed needs to be >=0");
+		}
+		if(!Recorder.directory(s.getAddress()).isDirectory()){
+			throw new IllegalArgumentException("Recording "+s.getAddress()+" does not exist");
+		}
+	}
+	
+	/**
+	 * Start replaying. The socket of the player is bound before this returns, i.e. the routing can connect right away.
+	 * @param context	Context of the routing
+	 * @param s			FILE source
+	 * @param name		Name of the routing
+	 */
+	public Player(ZMQ.Context context, Source s, String name){
+		directory = Recorder.directory(s.getAddress());
+		speed = s.getSpeed();
+		loop = s.isLoop();
+		address = "inproc://player-"+count.incrementAndGet();
+		socket = context.socket(ZMQ.PUSH);
+		socket.setHWM(s.getBuffer());
+		socket.setSendTimeOut(Router.TIMEOUT);
+		socket.bind(address);
+		thread = new Thread(this, "player-"+name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * @return	Inproc address the routing needs to connect to
+	 */
+	public String getAddress(){
+		return address;
+	}
+
+	@Override
+	public void run() {
+		logger.info("Start replay of "+directory+(speed>0 ? " at speed "+speed : " as fast as possible"));
+		SocketBase s = socket.base();
+		RecordingReader reader = new RecordingReader(directory);
+		try{
+			long messages;
+			do{
+				long first = -1;
+				long start = 0;
+				messages = 0;
+				while(reader.next()){
+					messages++;
+					if(speed>0){
+						// Keep the (scaled) time offsets of the recording
+						if(first<0){
+							first = reader.getTimestamp();
+							start = System.nanoTime();
+						}
+						long due = start+(long) ((reader.getTimestamp()-first)/speed);
+						for(long wait=due-System.nanoTime();wait>0 && !terminate;wait=due-System.nanoTime()){
+							LockSupport.parkNanos(Math.min(wait, TimeUnit.MILLISECONDS.toNanos(Router.TIMEOUT)));
+						}
+						if(terminate){
+							return;
+						}
+					}
+					while(reader.hasMore()){
+						Msg frame = reader.read();
+						while(!s.send(frame, frame.hasMore() ? ZMQ.SNDMORE : 0)){
+							if(s.errno()!=ZError.EAGAIN || terminate){
+								return;
+							}
+						}
+					}
+				}
+				reader.rewind();
+			} while(loop && messages>0 && !terminate);
+			logger.info("Replay of "+directory+" finished");
+			// Keep the socket until the routing is closed (messages not taken yet are still delivered)
+			while(!terminate){
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Router.TIMEOUT));
+			}
+		}
+		catch(IOException e){
+			logger.log(Level.SEVERE, "Replay of "+directory+" failed", e);
+		}
+		finally{
+			reader.close();
+			socket.setLinger(0);
+			socket.close();
+		}
+	}
+	
+	/**
+	 * Stop replaying. Blocks until the socket of the player is closed.
+	 */
+	public void close(){
+		terminate = true;
+		try {
+			thread.join(10*Router.TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.util.Arrays;
+
+import zmq.Msg;
+
+/**
+ * Byte trie of the prefix filters of the destinations of a routing. The first frame of a message
+ * is matched against all filters in a single walk down the trie, i.e. the cost depends on the length of the
+ * matching prefixes and not on the number of configured filters. Matching does not allocate.
+ * 
+ * Destinations without filter match all messages.
+ * @author ebner
+ *
+ */
+public class PrefixIndex {
+	
+	private final Node root = new Node();
+	/**
+	 * Match result of a frame not matching any filter (true for destinations without filter)
+	 */
+	private final boolean[] unfiltered;
+	
+	/**
+	 * @param destinations	Number of destinations
+	 */
+	public PrefixIndex(int destinations){
+		unfiltered = new boolean[destinations];
+		Arrays.fill(unfiltered, true);
+	}
+	
+	/**
+	 * Add prefix filter of a destination
+	 * @param prefix
+	 * @param destination	Index of the destination
+	 */
+	public void add(byte[] prefix, int destination){
+		unfiltered[destination] = false;
+		Node node = root;
+		for(byte b: prefix){
+			node = node.child(b, true);
+		}
+		if(Arrays.binarySearch(node.destinations, destination)<0){
+			node.destinations = Arrays.copyOf(node.destinations, node.destinations.length+1);
+			node.destinations[node.destinations.length-1] = destination;
+			Arrays.sort(node.destinations);
+		}
+	}
+	
+	/**
+	 * Match frame against the filters
+	 * @param frame		First frame of a message
+	 * @param result	Set to true for all destinations that take the message, false otherwise
+	 */
+	public void match(Msg frame, boolean[] result){
+		System.arraycopy(unfiltered, 0, result, 0, unfiltered.length);
+		byte[] data = frame.data();
+		int size = frame.size();
+		Node node = root;
+		for(int i=0;node!=null;i++){
+			for(int d: node.destinations){
+				result[d] = true;
+			}
+			if(i==size){
+				break;
+			}
+			node = node.child(data[i], false);
+		}
+	}
+	
+	private static class Node {
+		/**
+		 * Bytes of the children (sorted) and the corresponding child nodes
+		 */
+		byte[] keys = new byte[0];
+		Node[] children = new Node[0];
+		/**
+		 * Destinations with a filter ending at this node
+		 */
+		int[] destinations = new int[0];
+		
+		Node child(byte b, boolean create){
+			int i = Arrays.binarySearch(keys, b);
+			if(i>=0){
+				return children[i];
+			}
+			if(!create){
+				return null;
+			}
+			i = -i-1;
+			Node n = new Node();
+			keys = insert(keys, i, b);
+			Node[] c = new Node[children.length+1];
+			System.arraycopy(children, 0, c, 0, i);
+			System.arraycopy(children, i, c, i+1, children.length-i);
+			c[i] = n;
+			children = c;
+			return n;
+		}
+		
+		private static byte[] insert(byte[] a, int i, byte b){
+			byte[] r = new byte[a.length+1];
+			System.arraycopy(a, 0, r, 0, i);
+			System.arraycopy(a, i, r, i+1, a.length-i);
+			r[i] = b;
+			return r;
+		}
+	}
+}
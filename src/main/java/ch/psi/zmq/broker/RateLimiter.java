@@ -0,0 +1,95 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+/**
+ * Token bucket limiting the message rate and/or the bandwidth of a destination.
+ * The limiter is checked once per message with a monotonic clock (System.nanoTime()), i.e. there is no timer.
+ * 
+ * The bandwidth bucket may go into debt: a message is accepted as long as the bucket is not empty and its
+ * size is deducted afterwards. This way messages bigger than the burst size are still sent (at the configured average bandwidth).
+ * 
+ * The limiter is not thread safe, it must only be used by the routing thread.
+ * @author ebner
+ *
+ */
+public class RateLimiter {
+	
+	/**
+	 * Tokens per nanosecond
+	 */
+	private final double rate;
+	private final double bandwidth;
+	
+	/**
+	 * Bucket sizes
+	 */
+	private final double burst;
+	private final double bandwidthBurst;
+	
+	private double messages;
+	private double bytes;
+	private long time;
+	
+	/**
+	 * @param maxRate			Maximum messages per second (0 = unlimited)
+	 * @param burst				Maximum number of messages sent at once after an idle period
+	 * @param maxBandwidth		Maximum bytes per second (0 = unlimited)
+	 * @param bandwidthBurst	Maximum number of bytes sent at once after an idle period
+	 */
+	public RateLimiter(double maxRate, double burst, double maxBandwidth, double bandwidthBurst){
+		this.rate = maxRate/1e9;
+		this.bandwidth = maxBandwidth/1e9;
+		this.burst = Math.max(burst, 1);
+		this.bandwidthBurst = bandwidthBurst;
+		this.messages = this.burst;
+		this.bytes = bandwidthBurst;
+		this.time = System.nanoTime();
+	}
+	
+	/**
+	 * Check whether a message can be sent at the given time. If so a message token is taken.
+	 * @param now	Current time (System.nanoTime())
+	 * @return	true if the message can be sent
+	 */
+	public boolean acquire(long now){
+		long elapsed = Math.max(0, now-time); // now might be taken before the last check (or the creation of the limiter)
+		time += elapsed;
+		if(rate>0){
+			messages = Math.min(burst, messages+elapsed*rate);
+		}
+		if(bandwidth>0){
+			bytes = Math.min(bandwidthBurst, bytes+elapsed*bandwidth);
+		}
+		if((rate>0 && messages<1) || (bandwidth>0 && bytes<=0)){
+			return false;
+		}
+		messages--;
+		return true;
+	}
+	
+	/**
+	 * Deduct sent bytes from the bandwidth bucket
+	 * @param size
+	 */
+	public void consume(long size){
+		bytes -= size;
+	}
+}
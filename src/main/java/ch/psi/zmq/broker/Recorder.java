@@ -0,0 +1,172 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.zeromq.ZMQ;
+
+import zmq.Msg;
+import ch.psi.zmq.broker.model.Destination;
+
+/**
+ * Records the messages of a FILE destination. The destination is an inproc PUSH socket of the routing, the recorder
+ * receives the messages on its own thread and writes them to the recording (see {@link RecordingWriter}), i.e. disk
+ * I/O does not stall the routing. Buffer and policy of the destination apply as for any other destination.
+ * If the recording fails (e.g. the disk is full) the recorder keeps taking the messages of the destination and drops
+ * them (counted as dropped messages of the destination), i.e. the routing does not stall.
+ * @author ebner
+ *
+ */
+public class Recorder implements Runnable {
+	
+	private static final Logger logger = Logger.getLogger(Recorder.class.getName());
+	
+	private static final AtomicInteger count = new AtomicInteger();
+	
+	private final ZMQ.Socket socket;
+	private final RecordingWriter writer;
+	private final File directory;
+	private final Thread thread;
+	private volatile boolean terminate = false;
+	private final Counter dropped = new Counter();
+	
+	/**
+	 * Validate the recording settings of a destination
+	 * @param d
+	 */
+	static void validate(Destination d){
+		if(d.getPolicy()==Destination.Policy.DISCONNECT){
+			throw new IllegalArgumentException("Policy DISCONNECT is not supported for FILE destinations");
+		}
+		if(d.getSegmentSize()<1 || d.getSegmentSize()>1024){
+			throw new IllegalArgumentException("Segment size needs to be 1-1024 MB");
+		}
+	}
+	
+	/**
+	 * @return	Unique inproc address for the socket of a FILE destination
+	 */
+	static String createAddress(){
+		return "inproc://recorder-"+count.incrementAndGet();
+	}
+	
+	/**
+	 * Start recording. The socket of the destination needs to be bound already.
+	 * @param context	Context of the routing
+	 * @param d			FILE destination
+	 * @param address	Inproc address the socket of the destination is bound to
+	 * @param name		Name of the routing
+	 */
+	public Recorder(ZMQ.Context context, Destination d, String address, String name){
+		directory = directory(d.getAddress());
+		writer = new RecordingWriter(directory, d.getSegmentSize()*1024*1024, d.getSegments());
+		socket = context.socket(ZMQ.PULL);
+		socket.setHWM(d.getBuffer());
+		socket.setReceiveTimeOut(Router.TIMEOUT);
+		socket.connect(address);
+		thread = new Thread(this, "recorder-"+name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * @param address	Address of a FILE source/destination (directory, optionally prefixed with file://)
+	 * @return	Directory of the recording
+	 */
+	static File directory(String address){
+		return new File(address.startsWith("file://") ? address.substring("file://".length()) : address);
+	}
+
+	@Override
+	public void run() {
+		logger.info("Start recording to "+directory);
+		// Time of the messages - wall clock at start plus elapsed monotonic time
+		long epoch = System.currentTimeMillis()*1000000-System.nanoTime();
+		try{
+			while(true){
+				Msg frame = socket.base().recv(0);
+				if(frame==null){
+					if(terminate){
+						break;
+					}
+					writer.flush(); // Idle
+					continue;
+				}
+				writer.write(frame, frame.hasMore(), epoch+System.nanoTime());
+			}
+		}
+		catch(IOException e){
+			logger.log(Level.SEVERE, "Recording to "+directory+" failed - drop messages of the destination", e);
+			drop();
+		}
+		finally{
+			try {
+				writer.close();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Unable to close recording "+directory, e);
+			}
+			socket.close();
+		}
+		logger.info("Stop recording to "+directory);
+	}
+	
+	/**
+	 * Take the messages of the destination without recording them until the recorder gets closed
+	 */
+	private void drop(){
+		while(true){
+			Msg frame = socket.base().recv(0);
+			if(frame==null){
+				if(terminate){
+					break;
+				}
+				continue;
+			}
+			if(!frame.hasMore()){
+				dropped.increment();
+			}
+		}
+	}
+	
+	/**
+	 * @return	Number of messages dropped as the recording failed (can be read by any thread)
+	 */
+	public long getDropped(){
+		return dropped.get();
+	}
+	
+	/**
+	 * Stop recording. The messages already passed to the recorder are still written. Blocks until the recording is closed.
+	 * Must be called after the socket of the destination is closed.
+	 */
+	public void close(){
+		terminate = true;
+		try {
+			thread.join(10*Router.TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import zmq.Msg;
+
+/**
+ * Reads the messages of a recording (see {@link RecordingWriter}) in the order they were written.
+ * Segments are memory mapped, messages are located via the index of the segments.
+ * 
+ * The reader is not thread safe.
+ * @author ebner
+ *
+ */
+public class RecordingReader {
+	
+	private final File directory;
+	private File[] segments;
+	private int segment = -1;
+	
+	/**
+	 * Data and index of the current segment, index entry of the current message, position of the next frame
+	 */
+	private MappedByteBuffer data;
+	private MappedByteBuffer index;
+	private int entry;
+	private int position;
+	private long timestamp;
+	private boolean more;
+	
+	/**
+	 * @param directory	Directory of the recording
+	 */
+	public RecordingReader(File directory){
+		this.directory = directory;
+		rewind();
+	}
+	
+	/**
+	 * Move to the next message
+	 * @return	false if there are no further messages
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException{
+		while(index==null || 8+16*(entry+2)>index.limit()){
+			if(segment+1>=segments.length){
+				return false;
+			}
+			open(++segment);
+		}
+		entry++;
+		timestamp = index.getLong(8+16*entry);
+		long p = index.getLong(16+16*entry);
+		if(p+12>data.limit() || data.getInt((int) p)!=RecordingWriter.MESSAGE_START){
+			throw new IOException("Segment "+segments[segment]+" is corrupt");
+		}
+		position = (int) p+12;
+		more = true;
+		return true;
+	}
+	
+	/**
+	 * @return	Time the current message was recorded (nanoseconds since epoch)
+	 */
+	public long getTimestamp(){
+		return timestamp;
+	}
+	
+	/**
+	 * @return	true if the current message has further frames (see {@link #read()})
+	 */
+	public boolean hasMore(){
+		return more;
+	}
+	
+	/**
+	 * Read next frame of the current message. The MORE flag of the frame is set if further frames follow.
+	 * @return
+	 */
+	public Msg read(){
+		int size = data.getInt(position);
+		more = data.get(position+4)!=0;
+		position += 5;
+		Msg frame = new Msg(size); // Encoders of ZMQ need heap buffers, i.e. the frame cannot be a slice of the segment
+		ByteBuffer b = data.duplicate();
+		b.position(position);
+		b.get(frame.data(), 0, size);
+		position += size;
+		if(more){
+			frame.setFlags(Msg.MORE);
+		}
+		return frame;
+	}
+	
+	/**
+	 * Restart at the first message of the recording. Segments added to the recording in the meantime are taken into account.
+	 */
+	public void rewind(){
+		close();
+		segments = RecordingWriter.list(directory);
+		segment = -1;
+	}
+	
+	/**
+	 * Release the current segment. The reader can be used again after a {@link #rewind()}.
+	 */
+	public void close(){
+		MappedFiles.unmap(data);
+		MappedFiles.unmap(index);
+		data = null;
+		index = null;
+	}
+	
+	private void open(int segment) throws IOException{
+		close();
+		data = map(segments[segment]);
+		index = map(RecordingWriter.index(segments[segment]));
+		if(data.limit()<8 || data.getLong(0)!=RecordingWriter.MAGIC || index.limit()<8 || index.getLong(0)!=RecordingWriter.MAGIC){
+			throw new IOException("Segment "+segments[segment]+" is not part of a recording");
+		}
+		index.limit(8+(index.limit()-8)/16*16); // Ignore incomplete entry
+		entry = -1;
+	}
+	
+	private static MappedByteBuffer map(File file) throws IOException{
+		try(RandomAccessFile f = new RandomAccessFile(file, "r")){
+			return f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+		}
+	}
+}
@@ -0,0 +1,267 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import zmq.Msg;
+
+/**
+ * Writes (multipart) messages to a recording, i.e. a directory of append-only segment files. A new segment
+ * is started once a segment reached its size (at a message boundary), with a limit on the number of segments
+ * the oldest segments are deleted. Data is written via FileChannel and a direct buffer, the buffer is written
+ * out when it is full, on {@link #flush()} and when a segment is finished.
+ * 
+ * Each segment consists of a data file (<code>segment-NNNNNN.rec</code>) and an index file
+ * (<code>segment-NNNNNN.idx</code>).
+ * Data layout: [long magic], message [int -2][long timestamp], frame [int size][byte more][data]
+ * Index layout: [long magic], per message [long timestamp][long position of the message in the data file]
+ * 
+ * Timestamps are nanoseconds since epoch. Index entries are written after the message data, i.e. a recording that
+ * was cut short (e.g. crash) is readable up to the last complete message.
+ * 
+ * The writer is not thread safe.
+ * @author ebner
+ *
+ */
+public class RecordingWriter {
+	
+	private static final Logger logger = Logger.getLogger(RecordingWriter.class.getName());
+	
+	public static final long MAGIC = 0x5a4d515245433031L; // ZMQREC01
+	public static final String DATA = ".rec";
+	public static final String INDEX = ".idx";
+	public static final int MESSAGE_START = -2;
+	
+	private static final Pattern SEGMENT = Pattern.compile("segment-(\\d+)\\.rec");
+	private static final int BUFFER_SIZE = 1024*1024;
+	
+	private final File directory;
+	private final long segmentSize;
+	private final int maxSegments;
+	
+	/**
+	 * Segments of the recording (oldest first) and number of the next segment
+	 */
+	private final Deque<File> segments = new ArrayDeque<>();
+	private long segmentCounter;
+	
+	private FileChannel data;
+	private FileChannel index;
+	private final ByteBuffer dataBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final ByteBuffer indexBuffer = ByteBuffer.allocateDirect(64*1024);
+	
+	/**
+	 * Position of the next byte written to the current segment, start position and timestamp of the current message
+	 */
+	private long position;
+	private long messageStart;
+	private long timestamp;
+	private boolean writing = false;
+	
+	/**
+	 * @param directory		Directory of the recording. The recording continues after existing segments.
+	 * @param segmentSize	Size of a segment in bytes (segments exceed this size by up to one message)
+	 * @param maxSegments	Maximum number of segments (0 = no limit)
+	 */
+	public RecordingWriter(File directory, long segmentSize, int maxSegments){
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		for(File f: list(directory)){
+			segments.add(f);
+		}
+		segmentCounter = segments.isEmpty() ? 0 : number(segments.peekLast())+1;
+	}
+	
+	/**
+	 * Write frame of a message
+	 * @param frame
+	 * @param more		true if further frames of the same message follow
+	 * @param timestamp	Time the message was received (nanoseconds since epoch, only used for the first frame)
+	 * @throws IOException
+	 */
+	public void write(Msg frame, boolean more, long timestamp) throws IOException{
+		if(!writing){
+			if(data==null || position>=segmentSize){
+				rotate();
+			}
+			messageStart = position;
+			this.timestamp = timestamp;
+			ensureSpace(12);
+			dataBuffer.putInt(MESSAGE_START);
+			dataBuffer.putLong(timestamp);
+			position += 12;
+			writing = true;
+		}
+		int size = frame.size();
+		ensureSpace(5);
+		dataBuffer.putInt(size);
+		dataBuffer.put((byte) (more?1:0));
+		position += 5;
+		if(size>dataBuffer.remaining()){
+			// Big frames are written directly
+			writeData();
+			ByteBuffer b = ByteBuffer.wrap(frame.data(), 0, size);
+			while(b.hasRemaining()){
+				data.write(b);
+			}
+		}
+		else{
+			dataBuffer.put(frame.data(), 0, size);
+		}
+		position += size;
+		if(!more){
+			writing = false;
+			if(indexBuffer.remaining()<16){
+				flush();
+			}
+			indexBuffer.putLong(this.timestamp);
+			indexBuffer.putLong(messageStart);
+		}
+	}
+	
+	/**
+	 * Write the buffered data to the segment files
+	 * @throws IOException
+	 */
+	public void flush() throws IOException{
+		if(data==null){
+			return;
+		}
+		writeData(); // Data needs to be written before the index entries referring to it
+		indexBuffer.flip();
+		while(indexBuffer.hasRemaining()){
+			index.write(indexBuffer);
+		}
+		indexBuffer.clear();
+	}
+	
+	/**
+	 * Flush and close the current segment. A message that is not complete yet is not referenced by the index,
+	 * i.e. is not part of the recording.
+	 * @throws IOException
+	 */
+	public void close() throws IOException{
+		if(data==null){
+			return;
+		}
+		try{
+			flush();
+		}
+		finally{
+			data.close();
+			index.close();
+			data = null;
+			index = null;
+			writing = false;
+		}
+	}
+	
+	private void ensureSpace(int n) throws IOException{
+		if(dataBuffer.remaining()<n){
+			writeData();
+		}
+	}
+	
+	private void writeData() throws IOException{
+		dataBuffer.flip();
+		while(dataBuffer.hasRemaining()){
+			data.write(dataBuffer);
+		}
+		dataBuffer.clear();
+	}
+	
+	/**
+	 * Finish the current segment and start a new one. The oldest segments are deleted if there are too many.
+	 * @throws IOException
+	 */
+	private void rotate() throws IOException{
+		close();
+		directory.mkdirs();
+		String name = String.format("segment-%06d", segmentCounter++);
+		File file = new File(directory, name+DATA);
+		data = new FileOutputStream(file).getChannel();
+		index = new FileOutputStream(new File(directory, name+INDEX)).getChannel();
+		dataBuffer.putLong(MAGIC);
+		indexBuffer.putLong(MAGIC);
+		position = 8;
+		segments.add(file);
+		
+		while(maxSegments>0 && segments.size()>maxSegments){
+			File oldest = segments.pollFirst();
+			File oldestIndex = index(oldest);
+			if(!oldest.delete() || !oldestIndex.delete()){
+				logger.warning("Unable to delete segment "+oldest);
+			}
+		}
+	}
+	
+	/**
+	 * @param directory	Directory of a recording
+	 * @return	Data files of the segments of the recording, oldest first
+	 */
+	public static File[] list(File directory){
+		File[] files = directory.listFiles();
+		if(files==null){
+			return new File[0];
+		}
+		int n = 0;
+		for(File f: files){
+			if(SEGMENT.matcher(f.getName()).matches()){
+				files[n++] = f;
+			}
+		}
+		File[] segments = Arrays.copyOf(files, n);
+		Arrays.sort(segments, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(number(a), number(b));
+			}
+		});
+		return segments;
+	}
+	
+	/**
+	 * @param segment	Data file of a segment
+	 * @return	Index file of the segment
+	 */
+	public static File index(File segment){
+		String name = segment.getName();
+		return new File(segment.getParentFile(), name.substring(0, name.length()-DATA.length())+INDEX);
+	}
+	
+	private static long number(File segment){
+		Matcher m = SEGMENT.matcher(segment.getName());
+		m.matches();
+		return Long.parseLong(m.group(1));
+	}
+}
@@ -6,15 +6,25 @@ import org.glassfish.jersey.media.sse.SseBroadcaster;
 public class ResourceBinder extends AbstractBinder {
 
 	private final Broker broker;
+	private final SseBroadcaster broadcaster;
 	
 	public ResourceBinder(Broker broker){
+		this(broker, new SseBroadcaster());
+	}
+	
+	/**
+	 * @param broker
+	 * @param broadcaster	Broadcaster of the server sent events (shared with publishers outside of the services)
+	 */
+	public ResourceBinder(Broker broker, SseBroadcaster broadcaster){
 		this.broker = broker;
+		this.broadcaster = broadcaster;
 	}
 	
     @Override
     protected void configure() {
     	bind(broker).to(Broker.class);
-    	bind(new SseBroadcaster()).to(SseBroadcaster.class);
+    	bind(broadcaster).to(SseBroadcaster.class);
     }
 
 }
\ No newline at end of file
@@ -19,19 +19,34 @@
 
 package ch.psi.zmq.broker;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.zeromq.ZMQ;
+import org.zeromq.ZMQException;
 
+import zmq.Msg;
+import zmq.PollItem;
+import zmq.SocketBase;
+import zmq.ZError;
+import ch.psi.zmq.broker.model.Destination;
+import ch.psi.zmq.broker.model.DestinationStatistics;
 import ch.psi.zmq.broker.model.Routing;
+import ch.psi.zmq.broker.model.RoutingStatistics;
+import ch.psi.zmq.broker.model.Source;
 
 /**
  * Active component that is actually doing the routing of messages.
@@ -42,158 +57,1738 @@ import ch.psi.zmq.broker.model.Routing;
 public class Router implements Runnable{
 	
 	private static final Logger logger = Logger.getLogger(Router.class.getName());
+	
+	/**
+	 * Timeout in milliseconds of blocking receive/send calls. The router checks
+	 * for termination after each timeout.
+	 */
+	static final int TIMEOUT = 100;
+	
+	/**
+	 * Number of spins (non-blocking wait strategies) between checks of the destinations
+	 */
+	private static final int SPINS = 1024;
+	
+	private static AffinityProvider affinity;
 
-	private ZMQ.Context context;
+	private final ZMQ.Context context;
 	private List<ZMQ.Socket> out = new ArrayList<>();
-	private ZMQ.Socket in;
+	private List<ZMQ.Socket> in = new ArrayList<>();
+	
+	private volatile Routing routing;
+	private volatile boolean terminate = false;
+	private final CountDownLatch terminated = new CountDownLatch(1);
+	
+	private final Counters counters;
+	
+	/**
+	 * New configuration of the routing to be applied by the routing thread (null if none)
+	 */
+	private volatile Routing update;
+	private volatile CountDownLatch updated;
+	
+	private SocketBase[] inputs;
+	private SocketBase[] outputs;
+	
+	/**
+	 * Scheduling of the sources - number of messages taken from a source in turn, source currently
+	 * read from and number of messages that can still be taken from it
+	 */
+	private int[] weights;
+	private int current = 0;
+	private int credit = 0;
+	
+	/**
+	 * Backlogs (queue or spill journal) of the destinations (null if destination has none)
+	 */
+	private volatile Backlog[] backlogs = new Backlog[0];
+	/**
+	 * Destination is in the middle of a message that is sent directly, i.e. not via the backlog
+	 */
+	private boolean[] partial;
+	/**
+	 * Destination is in the middle of a message that was dropped
+	 */
+	private boolean[] discard;
+	/**
+	 * Receivers of the destination were disconnected and nothing was sent since then
+	 */
+	private boolean[] disconnected;
+	/**
+	 * Recorders of the FILE destinations (null for other destinations) and players of the FILE sources
+	 */
+	private Recorder[] recorders = new Recorder[0];
+	private final List<Player> players = new ArrayList<>();
+	/**
+	 * Poll items (sources followed by destinations) used to wait for multiple sources, destinations with
+	 * non empty backlogs and subscriptions
+	 */
+	private PollItem[] items;
+	private Selector selector;
+	
+	/**
+	 * Cache of the last messages (null if disabled)
+	 */
+	private final MessageCache cache;
+	/**
+	 * Tap for live inspection and whether the current message is published to it
+	 */
+	private final Tap tap = new Tap();
+	private boolean tapping;
+	/**
+	 * Current message is sent to more than one destination, i.e. each destination gets its own Msg (see {@link Frames#share(Msg)})
+	 */
+	private boolean shared;
+	/**
+	 * Destination is a XPUB socket, i.e. subscriptions are received and answered with the cached messages
+	 */
+	private boolean[] xpub;
+	/**
+	 * Peers of the XPUB destinations (null for other destinations)
+	 */
+	private Subscribers[] subscribers = new Subscribers[0];
+	
+	/**
+	 * Workers and their credit of ROUTER destinations (null for other destinations)
+	 */
+	private volatile Workers[] workers = new Workers[0];
+	/**
+	 * Destination the last message was distributed to (ROUND_ROBIN, LEAST_LOADED distribution)
+	 */
+	private int next = -1;
+	
+	/**
+	 * Count/hash based reduction, rate limits, prefix filters and header match conditions of the destinations (null if destination has none)
+	 */
+	private Sampler[] samplers;
+	private RateLimiter[] limiters;
+	private PrefixIndex index;
+	private HeaderMatcher matcher;
+	private boolean sampled;
+	private boolean limited;
+	private boolean distributed;
+	
+	/**
+	 * Decision on the current message - destinations the message is meant for (filters, distribution),
+	 * destinations taking the message (reduction) and destinations that dropped the message
+	 */
+	private boolean[] match;
+	private boolean[] take;
+	private boolean[] dropped;
+	
+	/**
+	 * Number of the current message, number of frames and bytes of the current message received so far
+	 * and its frames (if messages are cached)
+	 */
+	private long sequence = 0;
+	private int frames = 0;
+	private long bytes = 0;
+	private final List<Msg> parts = new ArrayList<>();
+	
+	/**
+	 * Batching of the destinations and un-batching of the sources (null if destination/source has none)
+	 */
+	private Batcher[] batchers = new Batcher[0];
+	private Unbatcher[] unbatchers;
+	
+	/**
+	 * Compression of the destinations and decompression of the sources (null if destination/source has none)
+	 */
+	private volatile Compressor[] compressors = new Compressor[0];
+	private Decompressor[] decompressors;
+	private boolean compressing;
+	
+	/**
+	 * Worker pool messages are compressed on (null to compress on the routing thread)
+	 */
+	private final Executor compression;
+	
+	/**
+	 * Endpoints (see {@link Chains}) provided by other routings on the same context. Sources connecting to these endpoints
+	 * are chained in memory.
+	 */
+	private final Set<String> chained;
+	
+	/**
+	 * Wait strategy of the routing thread
+	 */
+	private Routing.WaitStrategy strategy = Routing.WaitStrategy.BLOCKING;
+	private int spins = 0;
+	private boolean pinned = false;
+	
+	/**
+	 * Latency recording - every Nth message is recorded (0 = no recording), header field holding the creation time
+	 * of the messages (null if none). For the current message: whether it is recorded, time it was received
+	 * (System.nanoTime() and milliseconds since epoch), creation time (NaN if unknown) and per destination the
+	 * residence time and time spent sending its frames so far.
+	 */
+	private final int latency;
+	private final HeaderField timestamp;
+	private boolean recording;
+	private long received;
+	private long receivedTime;
+	private double created;
+	private long[] residences;
+	private long[] sendings;
 	
-	private Map<ZMQ.Socket, AtomicBoolean> flag = new HashMap<>();
-	private Timer timer = null;
+	/**
+	 * Tracking of the sequence numbers of the messages (null if not tracked)
+	 */
+	private final SequenceTracker tracker;
+	
+	/**
+	 * Sequence number to generate unique names for the spill journals
+	 */
+	private int journalId = 0;
+	
+	/**
+	 * @param routing
+	 * @param context	ZMQ context to create the sockets of the routing in. The context is shared
+	 * 					with other routers and is not terminated by the router.
+	 */
+	public Router(Routing routing, ZMQ.Context context){
+		this(routing, context, null);
+	}
 	
-	private Routing routing;
-	private boolean terminate;
+	/**
+	 * @param routing
+	 * @param context		ZMQ context the sockets of the routing are created on
+	 * @param compression	Worker pool messages of compressing destinations are compressed on (null to compress on the routing thread)
+	 */
+	public Router(Routing routing, ZMQ.Context context, Executor compression){
+		this(routing, context, compression, Collections.<String>emptySet());
+	}
 	
-	public Router(Routing routing){
+	/**
+	 * @param routing
+	 * @param context		ZMQ context the sockets of the routing are created on
+	 * @param compression	Worker pool messages of compressing destinations are compressed on (null to compress on the routing thread)
+	 * @param chained		Endpoints provided by other routings on the same context (see {@link Chains}), sources
+	 * 						connecting to these endpoints are chained in memory
+	 */
+	public Router(Routing routing, ZMQ.Context context, Executor compression, Set<String> chained){
 		this.routing = routing;
+		this.context = context;
+		this.compression = compression;
+		this.chained = chained;
+		if(routing.getLatency()==Routing.Latency.ALL){
+			this.latency = 1;
+		}
+		else if(routing.getLatency()==Routing.Latency.SAMPLED){
+			this.latency = Math.max(1, routing.getLatencySampling());
+		}
+		else{
+			this.latency = 0;
+		}
+		this.timestamp = latency>0 && routing.getTimestamp()!=null && !routing.getTimestamp().isEmpty() ? new HeaderField(routing.getTimestamp()) : null;
+		this.counters = new Counters(routing.getSources()!=null ? routing.getSources().size() : 0, routing.getDestinations()!=null ? routing.getDestinations().size() : 0, latency>0, timestamp!=null, SequenceTracker.isTracked(routing));
+		this.tracker = SequenceTracker.create(routing, counters);
+		this.cache = routing.getCache()>0 ? new MessageCache(routing.getCache()) : null;
+		
+		validate(routing);
+	}
+	
+	/**
+	 * Validate the destinations and sequence tracking of a routing (create samplers, header matchers and sequence tracker
+	 * upfront to reject invalid configurations when adding the routing)
+	 */
+	static void validate(Routing routing){
+		SequenceTracker.create(routing, null);
+		if(routing.getSources()!=null){
+			for(Source s: routing.getSources()){
+				if(s.getType()==Routing.Type.FILE){
+					Player.validate(s);
+				}
+				Compressor.validate(s.getDecompress(), s.getAddress());
+			}
+		}
+		if(routing.getDestinations()!=null){
+			Set<String> endpoints = new HashSet<>();
+			for(Destination d: routing.getDestinations()){
+				Sampler.create(d);
+				Compressor.validate(d.getCompression(), d.getAddress());
+				if(d.getType()==Routing.Type.FILE){
+					Recorder.validate(d);
+				}
+				String endpoint = Chains.endpoint(d);
+				if(Chains.isDeclared(d.getAddress()) && endpoint==null){
+					throw new IllegalArgumentException("Destination "+d.getAddress()+" cannot be chained (type/policy)");
+				}
+				if(endpoint!=null && !endpoints.add(endpoint)){
+					throw new IllegalArgumentException("Endpoint "+endpoint+" is provided by more than one destination");
+				}
+			}
+			HeaderMatcher.create(routing.getDestinations());
+		}
 	}
 	
 	@Override
 	public void run() {
 		try{
+			if(terminate){
+				return; // Router was terminated before it got started
+			}
+			pinned = pin(routing.getCpu());
+			if(routing.getWaitStrategy()!=null){
+				strategy = routing.getWaitStrategy();
+			}
+			open();
+			while(!Thread.currentThread().isInterrupted()){
+				route(receive(frames==0, true));
+			}
+		}
+		catch(Exception e){
+			if(!terminate){
+				logger.log(Level.SEVERE, "Routing failed", e);
+			}
+			// An exception occurs when terminating the router. Ignore this exception
+		}
+		finally{
+			close();
+			if(pinned){
+				unpin();
+			}
+		}
+	}
+	
+	/**
+	 * Pin the calling thread to a CPU
+	 * @param cpu	Index of the CPU (<0 to not pin the thread)
+	 * @return	true if the thread got pinned
+	 */
+	private boolean pin(int cpu){
+		if(cpu<0){
+			return false;
+		}
+		try {
+			getAffinityProvider().pin(cpu);
+			logger.info("Pinned routing "+routing.getName()+" to CPU "+cpu);
+			return true;
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Unable to pin routing "+routing.getName()+" to CPU "+cpu, e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Release the calling thread from its CPU (the thread is pooled and might be used for other routings)
+	 */
+	private void unpin(){
+		try {
+			getAffinityProvider().unpin();
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Unable to unpin thread of routing "+routing.getName(), e);
+		}
+	}
+	
+	/**
+	 * Get the affinity provider configured via the system property <code>ch.psi.zmq.broker.affinity</code>
+	 * @return
+	 * @throws ReflectiveOperationException
+	 */
+	private static synchronized AffinityProvider getAffinityProvider() throws ReflectiveOperationException{
+		if(affinity==null){
+			String provider = System.getProperty("ch.psi.zmq.broker.affinity", TasksetAffinityProvider.class.getName());
+			affinity = (AffinityProvider) Class.forName(provider).newInstance();
+		}
+		return affinity;
+	}
+	
+	/**
+	 * Connect to the sources and bind the destinations. Must be called by the thread doing the routing.
+	 * @throws InterruptedException
+	 */
+	void open() throws InterruptedException{
 		logger.info("Start routing: "+routing.getName());
-		terminate = false;
-		context = ZMQ.context(1);
-//		zmq.ZError..clear(); // Clear error code
 		
-		// Bind to destinations, i.e. create sockets.
-		for(final ch.psi.zmq.broker.model.Destination d: routing.getDestinations()){
+		// Open connection to sources
+		for(Source source: routing.getSources()){
+			logger.info("Connect to source: "+source.getAddress());
 			int type;
-			switch (d.getType()) {
-			case PUB:
-				type = ZMQ.PUB;
+			switch (source.getType()) {
+			case SUB:
+				type = ZMQ.SUB;
 				break;
-
+	
 			default:
-				type = ZMQ.PUSH;
+				type = ZMQ.PULL;
 				break;
 			}
-			ZMQ.Socket outSocket = context.socket(type);
-			outSocket.setHWM(d.getBuffer());
-//			outSocket.setRate(100000);
-			outSocket.bind(d.getAddress());
-			out.add(outSocket);
-			
-			// Support reduced frequency for sending messages out
-			if(d.getFrequency()>0){
-				if(timer==null){
-					timer = new Timer(); // lazy creation timer
-				}
-				
-				final AtomicBoolean b = new AtomicBoolean();
-				flag.put(outSocket, b);
-				timer.scheduleAtFixedRate(new TimerTask() {
-					@Override
-					public void run() {
-						b.set(true); // clear flag
+			String address = source.getAddress();
+			if(source.getType()==Routing.Type.FILE){
+				// Replay of a recording - the player is bound already
+				Player player = new Player(context, source, routing.getName());
+				players.add(player);
+				address = player.getAddress();
+			}
+			String endpoint = Chains.endpoint(source);
+			if(endpoint!=null && (Chains.isDeclared(source.getAddress()) || chained.contains(endpoint))){
+				address = Chains.address(endpoint);
+				logger.info("Chain source "+source.getAddress()+" in memory");
+			}
+			ZMQ.Socket inSocket = context.socket(type);
+			in.add(inSocket);
+			inSocket.setHWM(source.getBuffer());
+			inSocket.setReceiveTimeOut(TIMEOUT);
+			if(address.startsWith("inproc://")){
+				connect(inSocket, address);
+			}
+			else{
+				inSocket.connect(address);
+			}
+			if(source.getType().equals(Routing.Type.SUB)){
+				List<String> topics = source.getTopics();
+				if(topics==null || topics.isEmpty()){
+					inSocket.subscribe("".getBytes()); // subscribe to all topics
+				}
+				else{
+					for(String topic: topics){
+						inSocket.subscribe(topic.getBytes(StandardCharsets.UTF_8));
 					}
-				}, 0, d.getFrequency());
+				}
 			}
 		}
 		
-		// Open connection to source
-		logger.info("Connect to source: "+routing.getSource().getAddress());
-		int type;
-		switch (routing.getSource().getType()) {
-		case SUB:
-			type = ZMQ.SUB;
-			break;
-
-		default:
-			type = ZMQ.PULL;
-			break;
-		}
-		in = context.socket(type);
-		in.setHWM(routing.getSource().getBuffer());
-		in.connect(routing.getSource().getAddress());
-		if(routing.getSource().getType().equals(Routing.Type.SUB)){
-			in.subscribe("".getBytes()); // subscribe to all topics
+		// Forward the received frames (zmq.Msg) as they are. The frame data is
+		// shared between all destinations, i.e. no copy. Only if a frame goes to more than
+		// one destination each destination gets a Msg of its own (see Frames).
+		inputs = new SocketBase[in.size()];
+		weights = new int[in.size()];
+		unbatchers = new Unbatcher[in.size()];
+		decompressors = new Decompressor[in.size()];
+		for(int i=0;i<inputs.length;i++){
+			inputs[i] = in.get(i).base();
+			weights[i] = routing.getScheduling()==Routing.Scheduling.WEIGHTED ? Math.max(1, routing.getSources().get(i).getWeight()) : 1;
+			unbatchers[i] = Unbatcher.create(routing.getSources().get(i).getUnbatch());
+			decompressors[i] = Decompressor.create(routing.getSources().get(i).getDecompress());
 		}
-			
 		
-		boolean receiveMore;
+		// Bind to destinations, i.e. create sockets.
+		setupDestinations(routing, null);
+		
 		// Do Routing
-		if(timer==null){
-			logger.info("Enter routing loop without message reduction");
-			while(!Thread.currentThread().isInterrupted()){
-				byte[] message = in.recv();
-				receiveMore = in.hasReceiveMore();
-				for(ZMQ.Socket o: out){
-					logger.finest("Message: "+message);
-					o.send(message, receiveMore ? ZMQ.SNDMORE : 0);
+		logger.info("Enter routing loop"+(limited||sampled?" with message reduction":"")+(index!=null?" with filters":"")+(distributed?" with "+routing.getDistribution()+" distribution":""));
+	}
+	
+	/**
+	 * Route the available messages without blocking (event loop execution). Must only be called at a message
+	 * boundary, i.e. messages are always routed as a whole.
+	 * @param budget	Maximum number of messages to route
+	 * @return	true if the budget was used up, i.e. there might be further messages available
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	boolean process(int budget) throws IOException, InterruptedException{
+		for(int n=0;n<budget;n++){
+			Msg message = receive(true, false);
+			if(message==null){
+				return false;
+			}
+			route(message);
+			while(frames>0){ // Remaining frames of the message are available immediately
+				route(receive(false, true));
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Route frame to the destinations
+	 * @param message	Frame received from the sources
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void route(Msg message) throws IOException, InterruptedException{
+		if(frames==0 && (limited || sampled || index!=null || matcher!=null || distributed)){
+			// Decide on the first frame which destinations take the message. Frames of messages
+			// no destination takes are just dropped
+			if(index!=null){
+				index.match(message, match);
+			}
+			else if(distributed || matcher!=null){
+				Arrays.fill(match, true);
+			}
+			if(matcher!=null){
+				matcher.match(message, match);
+			}
+			long now = limited ? System.nanoTime() : 0;
+			for(int i=0;i<limiters.length;i++){
+				take[i] = match[i]
+						&& (samplers[i]==null || samplers[i].accept(sequence, message))
+						&& (distributed || limiters[i]==null || limiters[i].acquire(now));
+			}
+			if(distributed){
+				// Only one destination gets the message - only the selected destination takes a token,
+				// a throttled destination passes the message on to the next eligible one
+				int d = distribute(take);
+				while(d>=0 && limiters[d]!=null && !limiters[d].acquire(now)){
+					take[d] = false;
+					d = distribute(take);
+				}
+				for(int i=0;i<take.length;i++){
+					if(i!=d){
+						match[i] = false;
+						take[i] = false;
+					}
 				}
 			}
 		}
-		else{
-			logger.info("Enter routing loop with message reduction");
-			List<byte[]> buffer = new ArrayList<>();
-			while(!Thread.currentThread().isInterrupted()){
-				// We need to take care that all related messages (multipart) are send out
-				buffer.add(in.recv()); // buffer all related messages
-				while(in.hasReceiveMore()){
-					buffer.add(in.recv());
-				}
-				
-				for(ZMQ.Socket o: out){
-					
-					int c = 1;
-					int len = buffer.size();
-					
-					if((!flag.containsKey(o)) || flag.get(o).getAndSet(false)){
-						for(byte[] message: buffer){
-							logger.finest("Message: "+message);
-							o.send(message, c<len ? ZMQ.SNDMORE : 0);
-							c++;
+		if(frames==0 && latency>0){
+			recording = sequence % latency == 0;
+			if(recording){
+				received = System.nanoTime();
+				created = Double.NaN;
+				if(timestamp!=null && timestamp.find(message.data(), message.size())){
+					created = timestamp.getNumber(message.data());
+					receivedTime = System.currentTimeMillis();
+				}
+			}
+		}
+		if(frames==0){
+			tapping = tap.isSampled(sequence);
+			int n = 0;
+			for(int i=0;i<take.length;i++){
+				if(take[i]){
+					n++;
+				}
+			}
+			shared = n>1;
+		}
+		if(cache!=null || tapping){
+			parts.add(message);
+		}
+		if(tracker!=null){
+			tracker.frame(frames, message);
+		}
+		int flags = message.hasMore() ? ZMQ.SNDMORE : 0;
+		for(int i=0;i<outputs.length;i++){
+			if(!take[i]){
+				continue;
+			}
+			long start = recording ? System.nanoTime() : 0;
+			if(limiters[i]!=null){
+				limiters[i].consume(message.size());
+			}
+			if(batchers[i]!=null){
+				batchers[i].add(message, flags==0);
+				if(flags==0 && batchers[i].isFull()){
+					flush(i);
+				}
+			}
+			else if(!emit(i, shared ? Frames.share(message) : message, flags)){
+				dropped[i] = true;
+			}
+			if(recording){
+				if(frames==0){
+					residences[i] = start-received;
+				}
+				sendings[i] += System.nanoTime()-start;
+			}
+		}
+		
+		frames++;
+		bytes += message.size();
+		if(flags==0){ // Last frame of message
+			counters.received(current, frames, bytes);
+			if(tracker!=null){
+				tracker.received(current);
+			}
+			for(int i=0;i<outputs.length;i++){
+				if(!match[i]){
+					continue; // Message not meant for this destination
+				}
+				if(!take[i]){
+					counters.skipped(i);
+				}
+				else if(dropped[i]){
+					dropped[i] = false;
+					if(tracker!=null){
+						tracker.dropped(i);
+					}
+				}
+				else{
+					counters.sent(i, frames, bytes);
+					if(tracker!=null){
+						tracker.sent(i);
+					}
+					if(recording){
+						counters.latency(i, residences[i], sendings[i]);
+						if(!Double.isNaN(created)){
+							counters.endToEnd(i, (long) ((receivedTime-created)*1000000) + residences[i]);
 						}
 					}
 				}
-				
-				buffer.clear();
+				sendings[i] = 0;
+			}
+			if(cache!=null){
+				cache.add(parts);
+			}
+			if(tapping){
+				tap.offer(sequence, parts);
 			}
+			parts.clear();
+			frames = 0;
+			bytes = 0;
+			sequence++;
 		}
-			
-		// Close connections
-		terminate();
+	}
+	
+	/**
+	 * Close the sockets of the routing. Sockets must be closed by the thread that used them.
+	 */
+	void close(){
+		for(ZMQ.Socket i: in){
+			i.close();
 		}
-		catch(Exception e){
-			if(!terminate){
-				logger.log(Level.SEVERE, "Routing failed", e);
+		for(Player p: players){
+			p.close();
+		}
+		for(ZMQ.Socket o: out){
+			close(o);
+		}
+		for(Recorder r: recorders){
+			if(r!=null){
+				r.close();
+			}
+		}
+		for(Subscribers s: subscribers){
+			if(s!=null){
+				s.close();
+			}
+		}
+		for(Backlog b: backlogs){
+			if(b!=null){
+				b.close();
 			}
-			// An exception occurs when terminating the router. Ignore this exception
 		}
+		if(selector!=null){
+			try {
+				selector.close();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Unable to close selector", e);
+			}
+		}
+		tap.close();
+		terminated.countDown();
+		CountDownLatch latch = updated;
+		if(latch!=null){
+			latch.countDown(); // Do not keep a pending update waiting
+		}
+	}
+	
+	/**
+	 * @return	true if the router was requested to terminate
+	 */
+	boolean isTerminating(){
+		return terminate;
 	}
 	
 	/**
-	 * Terminate router
+	 * Terminate router. The method blocks until the routing thread has closed all its sockets.
 	 */
 	public void terminate(){
 		logger.info("Terminate routing: "+routing.getName());
 		terminate = true;
-		if(in!=null){
-			in.close();
+		try {
+			if(!terminated.await(10*TIMEOUT, TimeUnit.MILLISECONDS)){
+				logger.warning("Routing "+routing.getName()+" did not terminate in time");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
-		for(ZMQ.Socket o: out){
-			o.close();
+		logger.info("Routing terminated");
+	}
+
+	/**
+	 * (Re)create the destinations of the routing. Must only be called by the routing thread at a message boundary.
+	 * @param r		Routing holding the destinations
+	 * @param map	Index of the current destination that is kept for each destination (-1 for new destinations),
+	 * 				null if all destinations are new
+	 * @throws InterruptedException 
+	 */
+	private void setupDestinations(Routing r, int[] map) throws InterruptedException{
+		List<Destination> ds = r.getDestinations()!=null ? r.getDestinations() : new ArrayList<Destination>();
+		int n = ds.size();
+		
+		// Close destinations that are not kept
+		boolean[] kept = new boolean[out.size()];
+		for(int j=0;map!=null && j<n;j++){
+			if(map[j]>=0){
+				kept[map[j]] = true;
+			}
+		}
+		for(int i=0;i<kept.length;i++){
+			if(!kept[i]){
+				logger.info("Remove destination "+routing.getDestinations().get(i).getAddress()+" of routing "+routing.getName());
+				close(out.get(i));
+				if(recorders[i]!=null){
+					recorders[i].close();
+				}
+				if(subscribers[i]!=null){
+					subscribers[i].close();
+				}
+				if(backlogs[i]!=null){
+					backlogs[i].close();
+				}
+			}
+		}
+		
+		List<ZMQ.Socket> o = new ArrayList<>();
+		SocketBase[] op = new SocketBase[n];
+		Backlog[] b = new Backlog[n];
+		Workers[] w = new Workers[n];
+		RateLimiter[] l = new RateLimiter[n];
+		Batcher[] ba = new Batcher[n];
+		Compressor[] co = new Compressor[n];
+		Recorder[] re = new Recorder[n];
+		Subscribers[] su = new Subscribers[n];
+		boolean[] disc = new boolean[n];
+		for(int j=0;j<n;j++){
+			Destination d = ds.get(j);
+			int i = map!=null ? map[j] : -1;
+			if(i>=0){ // Keep destination as it is
+				o.add(out.get(i));
+				b[j] = backlogs[i];
+				w[j] = workers[i];
+				l[j] = limiters[i];
+				ba[j] = batchers[i];
+				co[j] = compressors[i];
+				re[j] = recorders[i];
+				su[j] = subscribers[i];
+				disc[j] = disconnected[i];
+			}
+			else{
+				if(map!=null){
+					logger.info("Add destination "+d.getAddress()+" to routing "+r.getName());
+				}
+				if(d.getType()==Routing.Type.FILE){
+					// Recording - the recorder takes the messages from an inproc socket
+					String address = Recorder.createAddress();
+					o.add(createSocket(d, address));
+					re[j] = new Recorder(context, d, address, r.getName());
+				}
+				else{
+					o.add(createSocket(d, d.getAddress()));
+				}
+				if(cache!=null && d.getType()==Routing.Type.PUB){
+					su[j] = new Subscribers(context, o.get(j));
+				}
+				// Create backlog - spill journal or in memory queue
+				if(d.getSpill()!=null && !d.getSpill().isEmpty()){
+					b[j] = new Journal(new File(d.getSpill()), r.getName()+"-"+(journalId++), d.getSpillSize()*1024*1024);
+				}
+				else if(d.getQueue()>0){
+					b[j] = new MessageQueue(d.getQueue());
+				}
+				if(d.getType().equals(Routing.Type.ROUTER)){
+					w[j] = new Workers();
+				}
+				// Support reduced rate/bandwidth for sending messages out
+				l[j] = createRateLimiter(d);
+				ba[j] = Batcher.create(d);
+				co[j] = Compressor.create(d, compression);
+			}
+			op[j] = o.get(j).base();
 		}
-		context.term();
 		
-		if(timer!=null){
-			timer.cancel();
+		Sampler[] sa = new Sampler[n];
+		boolean[] x = new boolean[n];
+		sampled = false;
+		limited = false;
+		compressing = false;
+		for(int j=0;j<n;j++){
+			sa[j] = Sampler.create(ds.get(j));
+			sampled |= sa[j]!=null;
+			limited |= l[j]!=null;
+			compressing |= co[j]!=null;
+			x[j] = cache!=null && ds.get(j).getType().equals(Routing.Type.PUB);
 		}
 		
-		logger.info("Routing terminated");
-	}
-
-	public Routing getRouting(){
-		return routing;
+		// Prefix filters of the destinations
+		PrefixIndex idx = null;
+		for(int j=0;j<n;j++){
+			List<String> filters = ds.get(j).getFilters();
+			if(filters==null){
+				continue;
+			}
+			for(String filter: filters){
+				if(idx==null){
+					idx = new PrefixIndex(n);
+				}
+				idx.add(filter.getBytes(StandardCharsets.UTF_8), j);
+			}
+		}
+		
+		PollItem[] it = new PollItem[inputs.length+n];
+		for(int i=0;i<inputs.length;i++){
+			it[i] = new PollItem(inputs[i], zmq.ZMQ.ZMQ_POLLIN);
+		}
+		for(int j=0;j<n;j++){
+			it[inputs.length+j] = new PollItem(op[j], 0);
+		}
+		
+		out = o;
+		outputs = op;
+		subscribers = su;
+		items = it;
+		limiters = l;
+		batchers = ba;
+		samplers = sa;
+		index = idx;
+		matcher = HeaderMatcher.create(ds);
+		xpub = x;
+		disconnected = disc;
+		partial = new boolean[n];
+		discard = new boolean[n];
+		match = new boolean[n];
+		take = new boolean[n];
+		dropped = new boolean[n];
+		residences = new long[n];
+		sendings = new long[n];
+		Arrays.fill(match, true);
+		Arrays.fill(take, true);
+		distributed = r.getDistribution()!=null && r.getDistribution()!=Routing.Distribution.BROADCAST;
+		next = -1;
+		if(tracker!=null){
+			tracker.remap(map, ds);
+		}
+		
+		// Publish state that is read by other threads (statistics)
+		synchronized(counters){
+			if(map!=null){
+				counters.remap(map);
+			}
+			backlogs = b;
+			workers = w;
+			compressors = co;
+			recorders = re;
+			routing = r;
+		}
+	}
+	
+	/**
+	 * Update the configuration of the running routing. Destinations that did not change are kept as they are
+	 * (including their connections and queued messages), removed destinations are closed and new ones are created.
+	 * The update is applied by the routing thread at the next message boundary, the method blocks until then.
+	 * Sources and the other settings of the routing must not differ from the current configuration.
+	 * @param r	New configuration
+	 * @return	false if the update was not applied in time (e.g. because the routing is blocked)
+	 * @throws InterruptedException
+	 */
+	public boolean update(Routing r) throws InterruptedException{
+		validate(r);
+		CountDownLatch latch = new CountDownLatch(1);
+		synchronized(this){
+			updated = latch;
+			update = r;
+		}
+		return latch.await(100*TIMEOUT, TimeUnit.MILLISECONDS) && routing==r;
+	}
+	
+	/**
+	 * Apply pending update. Must only be called by the routing thread at a message boundary.
+	 * @throws InterruptedException 
+	 */
+	private void applyUpdate() throws InterruptedException{
+		Routing r;
+		CountDownLatch latch;
+		synchronized(this){
+			r = update;
+			latch = updated;
+			update = null;
+		}
+		if(r==null){
+			return;
+		}
+		
+		// Keep destinations that did not change
+		List<Destination> current = routing.getDestinations()!=null ? routing.getDestinations() : new ArrayList<Destination>();
+		List<Destination> ds = r.getDestinations()!=null ? r.getDestinations() : new ArrayList<Destination>();
+		boolean[] used = new boolean[current.size()];
+		int[] map = new int[ds.size()];
+		for(int j=0;j<map.length;j++){
+			map[j] = -1;
+			for(int i=0;i<used.length;i++){
+				if(!used[i] && current.get(i).equals(ds.get(j))){
+					used[i] = true;
+					map[j] = i;
+					break;
+				}
+			}
+		}
+		setupDestinations(r, map);
+		latch.countDown();
+	}
+	
+	/**
+	 * Create the rate limiter of a destination
+	 * @param d
+	 * @return	Rate limiter or null if the rate of the destination is not limited
+	 */
+	private static RateLimiter createRateLimiter(Destination d){
+		double rate = d.getMaxRate();
+		int burst = d.getBurst();
+		if(d.getFrequency()>0){
+			rate = 1000.0/d.getFrequency();
+			burst = 1;
+		}
+		if(rate<=0 && d.getMaxBandwidth()<=0){
+			return null;
+		}
+		long bandwidthBurst = d.getBandwidthBurst()>0 ? d.getBandwidthBurst() : d.getMaxBandwidth();
+		return new RateLimiter(rate, burst, d.getMaxBandwidth(), bandwidthBurst);
+	}
+	
+	/**
+	 * Create and bind the socket of a destination
+	 * @param d
+	 * @param address	Address to bind to
+	 * @return
+	 * @throws InterruptedException
+	 */
+	private ZMQ.Socket createSocket(Destination d, String address) throws InterruptedException{
+		int type;
+		switch (d.getType()) {
+		case PUB:
+			// If messages are cached use a XPUB socket to get notified about new subscribers
+			type = cache!=null ? ZMQ.XPUB : ZMQ.PUB;
+			break;
+
+		case ROUTER:
+			type = ZMQ.ROUTER;
+			break;
+
+		default:
+			type = ZMQ.PUSH;
+			break;
+		}
+		ZMQ.Socket socket = context.socket(type);
+		if(type==ZMQ.XPUB){
+			socket.setXpubVerbose(true); // Also pass duplicate subscriptions (i.e. every new subscriber)
+		}
+		if(type==ZMQ.ROUTER){
+			socket.base().setSocketOpt(zmq.ZMQ.ZMQ_ROUTER_MANDATORY, 1); // Report workers that are gone
+		}
+		socket.setHWM(d.getBuffer());
+		socket.setSendTimeOut(TIMEOUT);
+//		socket.setRate(100000);
+		String endpoint = Chains.endpoint(d);
+		try{
+			if(!Chains.isDeclared(address)){
+				bind(socket, address);
+			}
+			if(endpoint!=null){
+				// Endpoint for routings chained in memory
+				bind(socket, Chains.address(endpoint));
+			}
+		}
+		catch(RuntimeException e){
+			close(socket);
+			throw e;
+		}
+		return socket;
+	}
+	
+	/**
+	 * Close a destination socket (its inproc addresses are released)
+	 * @param socket
+	 */
+	private void close(ZMQ.Socket socket){
+		Chains.release(context, socket);
+		socket.close();
+	}
+	
+	/**
+	 * Connect socket to an inproc address. Connecting fails as long as the address is not bound (i.e. the routing
+	 * providing a chained endpoint is not started yet), therefore connecting is retried until the router gets terminated.
+	 * @param socket
+	 * @param address
+	 * @throws InterruptedException
+	 */
+	private void connect(ZMQ.Socket socket, String address) throws InterruptedException{
+		for(int retry=0;!socket.base().connect(address);retry++){
+			if(terminate){
+				throw new ZMQException(ZError.ETERM);
+			}
+			if(retry==10){
+				logger.warning("Routing "+routing.getName()+" waits for "+address+" to be bound");
+			}
+			Thread.sleep(TIMEOUT);
+		}
+	}
+	
+	/**
+	 * Bind socket to the given address. As the contexts are shared, the address might still be
+	 * in use by a router that was just terminated (sockets are released asynchronously).
+	 * Therefore binding is retried for a short time. The socket is bound via its base as the error code of a failed
+	 * attempt is not reset by a successful retry (i.e. {@link ZMQ.Socket#bind(String)} would still fail).
+	 * Inproc addresses are bound via {@link Chains#bind(ZMQ.Context, ZMQ.Socket, String)}, i.e. only an address
+	 * held by a closed socket of the broker is taken over.
+	 * @param socket
+	 * @param address
+	 * @throws InterruptedException 
+	 */
+	private void bind(ZMQ.Socket socket, String address) throws InterruptedException{
+		if(address.startsWith("inproc://")){
+			Chains.bind(context, socket, address);
+			return;
+		}
+		for(int retry=0;!socket.base().bind(address);retry++){
+			int error = socket.base().errno();
+			if(error!=ZError.EADDRINUSE || retry>=10 || terminate){
+				throw new ZMQException(error);
+			}
+			Thread.sleep(TIMEOUT);
+		}
+	}
+	
+	/**
+	 * Receive next frame from the sources without copying its content.
+	 * The first frame of a message is taken from the sources according to the scheduling of the routing,
+	 * all further frames of the message are taken from the same source (i.e. messages are not interleaved).
+	 * Blocks until a frame is available or the router gets terminated. While waiting messages of
+	 * the backlogs are sent and new subscribers get the cached messages.
+	 * @param first	Frame to receive is the first frame of a message, i.e. all destinations are at
+	 * 				a message boundary
+	 * @param wait	Wait for a frame (otherwise null is returned if no frame is available)
+	 * @return	received frame
+	 * @throws IOException 
+	 */
+	private Msg receiveFrame(boolean first, boolean wait) throws IOException, InterruptedException{
+		if(first && credit<=0){ // Move on to the next source
+			current = (current+1) % inputs.length;
+			credit = weights[current];
+		}
+		while(true){
+			if(compressing){
+				for(int i=0;i<compressors.length;i++){
+					if(compressors[i]!=null){
+						sendCompressed(i, false);
+					}
+				}
+			}
+			if(first){
+				if(update!=null){
+					applyUpdate();
+				}
+				for(int k=0;k<inputs.length;k++){
+					int s = (current+k) % inputs.length;
+					Msg message = tryReceive(inputs[s]);
+					if(message!=null){
+						if(s!=current){
+							current = s;
+							credit = weights[s];
+						}
+						credit--;
+						return message;
+					}
+				}
+				// Sources are idle - send the batches that are due
+				flushExpired();
+			}
+			else{
+				Msg message = tryReceive(inputs[current]);
+				if(message!=null){
+					return message;
+				}
+			}
+			if(terminate){
+				throw new ZMQException(ZError.ETERM);
+			}
+			if(!wait){
+				return null;
+			}
+			
+			if(strategy!=Routing.WaitStrategy.BLOCKING){
+				// Do not block - serve the destinations from time to time and try again
+				if(++spins>=SPINS){
+					spins = 0;
+					pollNow(first);
+				}
+				if(strategy==Routing.WaitStrategy.YIELDING){
+					Thread.yield();
+				}
+				continue;
+			}
+			
+			if(!poll(first)){
+				// Nothing to wait for besides the (single) source
+				Msg message = inputs[current].recv(0);
+				if(message!=null){
+					if(first){
+						credit--;
+					}
+					return message;
+				}
+				if(inputs[current].errno()!=ZError.EAGAIN){
+					throw new ZMQException(inputs[current].errno());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Receive next frame from the sources (see {@link #receiveFrame(boolean, boolean)}). Batches received from sources
+	 * with un-batching are split into their messages. Batches are received as a whole, i.e. the source is
+	 * only changed at the boundary of a batch.
+	 * @param first	Frame to receive is the first frame of a message
+	 * @param wait	Wait for a frame (otherwise null is returned if no frame is available)
+	 * @return	received frame
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private Msg receive(boolean first, boolean wait) throws IOException, InterruptedException{
+		while(true){
+			Unbatcher u = unbatchers[current];
+			if(u!=null){
+				Msg message = u.next();
+				if(message!=null){
+					return message;
+				}
+			}
+			Msg message = receiveFrame(first && (u==null || !u.isPending()), wait);
+			if(message==null){
+				return null;
+			}
+			if(decompressors[current]!=null){
+				message = decompressors[current].decompress(message);
+			}
+			u = unbatchers[current];
+			if(u==null){
+				return message;
+			}
+			u.add(message);
+		}
+	}
+	
+	/**
+	 * Send the batch of a destination
+	 * @param destination	Index of the destination
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void flush(int destination) throws IOException, InterruptedException{
+		Batcher b = batchers[destination];
+		List<Msg> frames = b.getFrames();
+		for(int k=0;k<frames.size();k++){
+			emit(destination, frames.get(k), k<frames.size()-1 ? ZMQ.SNDMORE : 0);
+		}
+		b.clear();
+		counters.batched(destination);
+	}
+	
+	/**
+	 * Pass frame to the compressor of the destination or send it directly (see {@link #send(int, SocketBase, Msg, int)}).
+	 * If the compressor of the destination is busy the routing either waits (policy BLOCK) or drops the message.
+	 * @param destination	Index of the destination
+	 * @param frame
+	 * @param flags
+	 * @return	false if the frame was dropped
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private boolean emit(int destination, Msg frame, int flags) throws IOException, InterruptedException{
+		Compressor c = compressors[destination];
+		if(c==null){
+			return send(destination, outputs[destination], frame, flags);
+		}
+		boolean last = (flags & ZMQ.SNDMORE)==0;
+		if(c.isStart() && c.isFull()){
+			sendCompressed(destination, false);
+			if(c.isFull()){
+				if(routing.getDestinations().get(destination).getPolicy()!=Destination.Policy.BLOCK){
+					counters.dropped(destination);
+					c.drop(last);
+					return false;
+				}
+				sendCompressed(destination, true);
+			}
+		}
+		return c.add(frame, last);
+	}
+	
+	/**
+	 * Send the messages of the compressor of a destination that are compressed already
+	 * @param destination	Index of the destination
+	 * @param wait			Wait for the oldest message to be compressed (only this message is sent)
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void sendCompressed(int destination, boolean wait) throws IOException, InterruptedException{
+		Compressor c = compressors[destination];
+		Msg[] message;
+		while((message = c.take(wait))!=null){
+			for(int k=0;k<message.length;k++){
+				send(destination, outputs[destination], message[k], k<message.length-1 ? ZMQ.SNDMORE : 0);
+			}
+			if(wait){
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Send the batches whose linger time passed. Must only be called at a message boundary.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void flushExpired() throws IOException, InterruptedException{
+		long now = 0;
+		for(int i=0;i<batchers.length;i++){
+			if(batchers[i]!=null && !batchers[i].isEmpty()){
+				if(now==0){
+					now = System.nanoTime();
+				}
+				if(batchers[i].isExpired(now)){
+					flush(i);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Receive frame without blocking
+	 * @return	null if there is no frame available
+	 */
+	private Msg tryReceive(SocketBase socket){
+		Msg message = socket.recv(ZMQ.DONTWAIT);
+		if(message==null && socket.errno()!=ZError.EAGAIN){
+			throw new ZMQException(socket.errno());
+		}
+		return message;
+	}
+	
+	/**
+	 * Wait until either a source has data, destinations with messages in their backlog
+	 * can accept messages again or (XPUB) destinations received a subscription. Messages of these
+	 * backlogs are sent, new subscribers get the cached messages.
+	 * @param first	All destinations are at a message boundary, i.e. cached messages can be sent and
+	 * 				all sources are of interest (otherwise only the current source)
+	 * @return	false if there is nothing to wait for besides the (single) source (nothing was done)
+	 * @throws IOException 
+	 */
+	private boolean poll(boolean first) throws IOException{
+		long timeout = prepare(first);
+		if(timeout<0){
+			if(inputs.length==1){
+				return false;
+			}
+			timeout = TIMEOUT;
+		}
+		if(selector==null){
+			selector = Selector.open();
+		}
+		zmq.ZMQ.poll(selector, items, items.length, timeout);
+		dispatch();
+		return true;
+	}
+	
+	/**
+	 * Serve the destinations (see {@link #poll(boolean)}) without waiting
+	 * @param first
+	 * @throws IOException
+	 */
+	private void pollNow(boolean first) throws IOException{
+		if(prepare(first)<0){
+			return;
+		}
+		if(selector==null){
+			selector = Selector.open();
+		}
+		zmq.ZMQ.poll(selector, items, items.length, 0);
+		dispatch();
+	}
+	
+	/**
+	 * Set the events of interest of the poll items of the routing (see {@link #getItems()})
+	 * @param first	All destinations are at a message boundary (see {@link #poll(boolean)})
+	 * @return	Maximum time to wait in milliseconds or -1 if there is nothing to wait for besides the sources
+	 */
+	long prepare(boolean first){
+		boolean wait = false;
+		long timeout = TIMEOUT;
+		long now = 0;
+		for(int i=0;first && i<batchers.length;i++){
+			if(batchers[i]!=null && !batchers[i].isEmpty()){
+				// Wake up in time to send the batch
+				if(now==0){
+					now = System.nanoTime();
+				}
+				timeout = Math.min(timeout, batchers[i].getRemaining(now));
+				wait = true;
+			}
+		}
+		for(int i=0;compressing && i<compressors.length;i++){
+			if(compressors[i]!=null && !compressors[i].isEmpty()){
+				// Check for compressed messages regularly
+				timeout = Math.min(timeout, 1);
+				wait = true;
+			}
+		}
+		for(int i=0;i<backlogs.length;i++){
+			int ops = 0;
+			if(backlogs[i]!=null && !backlogs[i].isEmpty() && !partial[i]){
+				ops |= zmq.ZMQ.ZMQ_POLLOUT;
+			}
+			if((first && xpub[i]) || workers[i]!=null){
+				ops |= zmq.ZMQ.ZMQ_POLLIN;
+			}
+			items[inputs.length+i].interestOps(ops);
+			wait |= ops!=0;
+		}
+		for(int i=0;i<inputs.length;i++){
+			items[i].interestOps(first || i==current ? zmq.ZMQ.ZMQ_POLLIN : 0);
+		}
+		return wait ? timeout : -1;
+	}
+	
+	/**
+	 * Handle the events of the destinations after polling the items of the routing
+	 * @throws IOException
+	 */
+	void dispatch() throws IOException{
+		for(int i=0;i<backlogs.length;i++){
+			if(items[inputs.length+i].isReadable()){
+				if(workers[i]!=null){
+					readCredits(i);
+				}
+				else{
+					replay(i);
+				}
+			}
+			if(items[inputs.length+i].isWritable()){
+				drain(i, false);
+			}
+		}
+	}
+	
+	/**
+	 * @return	Poll items of the sources and destinations of the routing. The items are replaced if the destinations change.
+	 */
+	PollItem[] getItems(){
+		return items;
+	}
+	
+	/**
+	 * Read the subscriptions received by a XPUB destination. For each new subscription the cached
+	 * messages are sent if the subscriber is the only peer of the destination - XPUB sockets send to all matching
+	 * subscribers, i.e. already connected subscribers would get the cached messages again. The cached frames
+	 * might have been sent already, i.e. they are sent with a Msg of their own.
+	 * @param destination	Index of the destination
+	 */
+	private void replay(int destination){
+		SocketBase socket = outputs[destination];
+		Msg subscription;
+		while((subscription = socket.recv(ZMQ.DONTWAIT))!=null){
+			if(subscription.size()==0 || subscription.data()[0]!=1){
+				continue; // Unsubscribe
+			}
+			if(subscribers[destination].update()>1){
+				continue;
+			}
+			for(MessageCache.Entry e: cache.getMessages()){
+				Msg[] frames = e.getFrames();
+				for(int c=0;c<frames.length;c++){
+					sendBlocking(socket, Frames.share(frames[c]), c<frames.length-1 ? ZMQ.SNDMORE : 0);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Send frame to the given socket. The data of the frame is not copied, the Msg must not be passed to
+	 * another socket though (see {@link Frames#share(Msg)}).
+	 * If the high water mark of the socket is reached the message is written to the backlog (queue or
+	 * spill journal) of the destination. If there is no backlog or it is full the policy of the destination
+	 * applies, i.e. the routing blocks until the message can be sent (or the router gets terminated), messages get dropped
+	 * or the receivers get disconnected.
+	 * @param destination	Index of the destination
+	 * @param socket
+	 * @param message
+	 * @param flags
+	 * @return	false if the frame was dropped
+	 * @throws IOException 
+	 * @throws InterruptedException 
+	 */
+	private boolean send(int destination, SocketBase socket, Msg message, int flags) throws IOException, InterruptedException{
+		boolean more = (flags & ZMQ.SNDMORE)!=0;
+		if(discard[destination]){ // Remaining frames of a dropped message
+			discard[destination] = more;
+			return false;
+		}
+		if(partial[destination]){ // Remaining frames of a message that is sent directly
+			partial[destination] = more;
+			sendBlocking(socket, message, flags);
+			return true;
+		}
+		if(workers[destination]!=null){ // Start of a message to a worker
+			if(!sendIdentity(destination)){
+				counters.dropped(destination);
+				discard[destination] = more;
+				return false;
+			}
+			partial[destination] = more;
+			sendBlocking(socket, message, flags);
+			return true;
+		}
+		Backlog backlog = backlogs[destination];
+		if(backlog!=null && backlog.isWriting()){ // Remaining frames of a message in the backlog
+			backlog.write(message, more);
+			return true;
+		}
+		
+		// Start of a message - messages in the backlog need to be sent first
+		if(backlog!=null){
+			drain(destination, false);
+		}
+		if(backlog==null || backlog.isEmpty()){
+			if(trySend(socket, message, flags)){
+				partial[destination] = more;
+				disconnected[destination] = false;
+				return true;
+			}
+			counters.hwm(destination);
+		}
+		
+		if(backlog==null || backlog.isFull()){
+			Destination.Policy policy = routing.getDestinations().get(destination).getPolicy();
+			if(policy==Destination.Policy.DROP_OLDEST && (backlog==null || backlog.isEmpty())){
+				policy = Destination.Policy.DROP_NEWEST; // Nothing queued - drop new message
+			}
+			switch(policy){
+			case DROP_OLDEST:
+				while(backlog.isFull() && !backlog.isEmpty()){
+					skip(backlog);
+					counters.dropped(destination);
+				}
+				break;
+			case DROP_NEWEST:
+				counters.dropped(destination);
+				discard[destination] = more;
+				return false;
+			case DISCONNECT:
+				if(!disconnected[destination]){ // Do not disconnect again as long as nobody connected
+					disconnect(destination);
+					disconnected[destination] = true;
+				}
+				counters.dropped(destination);
+				discard[destination] = more;
+				return false;
+			default:
+				if(backlog==null){
+					partial[destination] = more;
+					sendBlocking(socket, message, flags);
+					return true;
+				}
+				drain(destination, true); // Block until there is space in the backlog again
+			}
+		}
+		backlog.write(message, more);
+		counters.spilled(destination);
+		return true;
+	}
+	
+	/**
+	 * Send the identity frame of the worker with the most credit of a ROUTER destination
+	 * @param destination	Index of the destination
+	 * @return	false if no (connected) worker has credit
+	 */
+	private boolean sendIdentity(int destination){
+		readCredits(destination);
+		Workers w = workers[destination];
+		SocketBase socket = outputs[destination];
+		for(int worker=w.select();worker>=0;worker=w.select()){
+			if(socket.send(Frames.share(w.getIdentity(worker)), ZMQ.SNDMORE | ZMQ.DONTWAIT)){
+				w.consume(worker);
+				return true;
+			}
+			int errno = socket.errno();
+			if(errno!=ZError.EHOSTUNREACH && errno!=ZError.EAGAIN){
+				throw new ZMQException(errno);
+			}
+			// Worker is gone or has more messages pending than it announced
+			w.remove(worker);
+		}
+		return false;
+	}
+	
+	/**
+	 * Read the credit messages of the workers of a ROUTER destination. A credit message consists of the
+	 * number of messages (ASCII decimal) the worker is able to take, an empty message is one credit.
+	 * @param destination	Index of the destination
+	 */
+	private void readCredits(int destination){
+		SocketBase socket = outputs[destination];
+		Msg identity;
+		while((identity = tryReceive(socket))!=null){
+			long credit = 0;
+			boolean valid = identity.hasMore();
+			if(valid){
+				Msg m = socket.recv(0); // Frames of a message arrive together
+				byte[] data = m.data();
+				for(int i=0;i<m.size() && valid;i++){
+					valid = data[i]>='0' && data[i]<='9';
+					credit = credit*10+(data[i]-'0');
+				}
+				if(m.size()==0){
+					credit = 1;
+				}
+				while(m.hasMore()){ // Ignore additional frames
+					m = socket.recv(0);
+					valid = false;
+				}
+			}
+			if(valid){
+				workers[destination].credit(identity, credit);
+			}
+		}
+	}
+	
+	/**
+	 * Select the destination a message is sent to (ROUND_ROBIN, LEAST_LOADED distribution).
+	 * For LEAST_LOADED the destination with the most credit is selected (destinations other than ROUTER
+	 * count as one credit). If no destination has credit this blocks until a worker announces credit.
+	 * @param take	Destinations that take the message
+	 * @return	Index of the destination or -1 if no destination takes the message
+	 */
+	private int distribute(boolean[] take) throws IOException{
+		int n = take.length;
+		while(true){
+			int d = -1;
+			long max = 0;
+			boolean candidates = false;
+			for(int k=1;k<=n;k++){
+				int i = (next+k) % n;
+				if(!take[i]){
+					continue;
+				}
+				candidates = true;
+				long credit = 1;
+				if(routing.getDistribution()==Routing.Distribution.LEAST_LOADED && workers[i]!=null){
+					readCredits(i);
+					credit = workers[i].getCredits();
+				}
+				if(credit>max){
+					max = credit;
+					d = i;
+					if(routing.getDistribution()==Routing.Distribution.ROUND_ROBIN){
+						break;
+					}
+				}
+			}
+			if(d>=0 || !candidates){
+				if(d>=0){
+					next = d;
+				}
+				return d;
+			}
+			
+			// Wait for credit
+			if(terminate){
+				throw new ZMQException(ZError.ETERM);
+			}
+			for(int i=0;i<items.length;i++){
+				int destination = i-inputs.length;
+				items[i].interestOps(destination>=0 && workers[destination]!=null ? zmq.ZMQ.ZMQ_POLLIN : 0);
+			}
+			if(selector==null){
+				selector = Selector.open();
+			}
+			zmq.ZMQ.poll(selector, items, items.length, TIMEOUT);
+		}
+	}
+	
+	/**
+	 * Skip (drop) the oldest message of a backlog
+	 */
+	private void skip(Backlog backlog){
+		backlog.begin();
+		while(backlog.read().hasMore()){
+		}
+		backlog.commit();
+	}
+	
+	/**
+	 * Disconnect all receivers of a destination. The socket of the destination is closed
+	 * (pending messages are discarded) and bound again. All messages of the backlog are dropped.
+	 * @param destination	Index of the destination
+	 * @throws InterruptedException
+	 */
+	private void disconnect(int destination) throws InterruptedException{
+		Destination d = routing.getDestinations().get(destination);
+		logger.warning("Disconnect receivers of destination "+d.getAddress()+" of routing "+routing.getName());
+		
+		ZMQ.Socket socket = out.get(destination);
+		socket.setLinger(0);
+		close(socket);
+		socket = createSocket(d, d.getAddress());
+		out.set(destination, socket);
+		outputs[destination] = socket.base();
+		items[inputs.length+destination] = new PollItem(outputs[destination], 0);
+		
+		Backlog backlog = backlogs[destination];
+		if(backlog!=null){
+			for(long i=backlog.getMessages();i>0;i--){
+				counters.dropped(destination);
+			}
+			backlog.close();
+		}
+		counters.disconnected(destination);
+	}
+	
+	/**
+	 * Send messages from the backlog of a destination
+	 * @param destination	Index of the destination
+	 * @param blocking		If true, block until the backlog is not full anymore. Otherwise send messages
+	 * 						as long as this is possible without blocking.
+	 */
+	private void drain(int destination, boolean blocking){
+		Backlog backlog = backlogs[destination];
+		SocketBase socket = outputs[destination];
+		// Retention only applies to spilled messages
+		long retention = backlog instanceof Journal ? routing.getDestinations().get(destination).getSpillRetention() : 0;
+		
+		while(!backlog.isEmpty() && (!blocking || backlog.isFull())){
+			long timestamp = backlog.begin();
+			Msg frame = backlog.read();
+			
+			if(retention>0 && System.currentTimeMillis()-timestamp>retention){
+				// Drop expired message
+				while(frame.hasMore()){
+					frame = backlog.read();
+				}
+				backlog.commit();
+				counters.expired(destination);
+				continue;
+			}
+			
+			int flags = frame.hasMore() ? ZMQ.SNDMORE : 0;
+			if(!trySend(socket, frame, flags)){
+				if(!blocking){
+					backlog.rewind();
+					return;
+				}
+				sendBlocking(socket, frame, flags);
+			}
+			disconnected[destination] = false;
+			while(frame.hasMore()){
+				frame = backlog.read();
+				sendBlocking(socket, frame, frame.hasMore() ? ZMQ.SNDMORE : 0);
+			}
+			backlog.commit();
+		}
+	}
+	
+	/**
+	 * Send frame without blocking
+	 * @return	false if the high water mark of the socket is reached
+	 */
+	private boolean trySend(SocketBase socket, Msg message, int flags){
+		if(socket.send(message, flags | ZMQ.DONTWAIT)){
+			return true;
+		}
+		int errno = socket.errno();
+		if(errno!=ZError.EAGAIN){
+			throw new ZMQException(errno);
+		}
+		return false;
+	}
+	
+	/**
+	 * Send frame, blocks as long as the high water mark of the socket is reached
+	 * or until the router gets terminated.
+	 */
+	private void sendBlocking(SocketBase socket, Msg message, int flags){
+		while(!socket.send(message, flags)){
+			int errno = socket.errno();
+			if(errno!=ZError.EAGAIN){
+				throw new ZMQException(errno);
+			}
+			if(terminate){
+				throw new ZMQException(ZError.ETERM);
+			}
+		}
+	}
+
+	public Routing getRouting(){
+		return routing;
+	}
+	
+	public Counters getCounters(){
+		return counters;
+	}
+	
+	/**
+	 * @return	Cache of the last messages or null if caching is disabled for the routing
+	 */
+	public MessageCache getCache(){
+		return cache;
+	}
+	
+	/**
+	 * @return	Tap for the live inspection of the messages of the routing
+	 */
+	public Tap getTap(){
+		return tap;
+	}
+	
+	/**
+	 * @return	Tracking of the sequence numbers of the messages or null if the routing does not track sequence numbers
+	 */
+	public SequenceTracker getSequenceTracker(){
+		return tracker;
+	}
+	
+	/**
+	 * Get current statistics of the routing
+	 * @return
+	 */
+	public RoutingStatistics getStatistics(){
+		RoutingStatistics s;
+		Workers[] w;
+		Backlog[] b;
+		Compressor[] c;
+		Recorder[] re;
+		synchronized(counters){ // Consistent view while the destinations are updated
+			s = counters.getStatistics(routing.getName(), routing.getSources(), routing.getDestinations());
+			w = workers;
+			b = backlogs;
+			c = compressors;
+			re = recorders;
+		}
+		for(int i=0;i<re.length;i++){
+			if(re[i]!=null){
+				DestinationStatistics d = s.getDestinations().get(i);
+				d.setDropped(d.getDropped()+re[i].getDropped());
+			}
+		}
+		for(int i=0;i<c.length;i++){
+			if(c[i]!=null){
+				s.getDestinations().get(i).setCompressionRatio(c[i].getRatio());
+				s.getDestinations().get(i).setCompressionTime(c[i].getTime()/1000000);
+			}
+		}
+		for(int i=0;i<w.length;i++){
+			if(w[i]!=null){
+				s.getDestinations().get(i).setCredits(w[i].getCredits());
+			}
+		}
+		Decompressor[] dc = decompressors; // Null until the routing is started
+		for(int i=0;dc!=null && i<dc.length;i++){
+			if(dc[i]!=null){
+				s.getSources().get(i).setInvalid(dc[i].getInvalid());
+			}
+		}
+		for(int i=0;i<b.length;i++){
+			if(b[i] instanceof Journal){
+				s.getDestinations().get(i).setSpillMessages(b[i].getMessages());
+				s.getDestinations().get(i).setSpillBytes(b[i].getBytes());
+			}
+			else if(b[i]!=null){
+				s.getDestinations().get(i).setQueueMessages(b[i].getMessages());
+				s.getDestinations().get(i).setQueueBytes(b[i].getBytes());
+			}
+		}
+		return s;
 	}
 }
@@ -0,0 +1,89 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import zmq.Msg;
+import ch.psi.zmq.broker.model.Destination;
+
+/**
+ * Deterministic reduction of the messages sent to a destination. Selects every Nth message
+ * either based on the message count of the routing or on the hash of a field of the (JSON) header.
+ * Destinations with the same N but different offsets get disjoint shares of the stream.
+ * 
+ * A sampler is not thread safe, it must only be used by the routing thread.
+ * @author ebner
+ *
+ */
+public class Sampler {
+	
+	private final Destination.Reduction reduction;
+	private final int every;
+	private final int offset;
+	private final HeaderField field;
+	
+	private Sampler(Destination.Reduction reduction, int every, int offset, String field){
+		this.reduction = reduction;
+		this.every = every;
+		this.offset = offset;
+		this.field = field!=null ? new HeaderField(field) : null;
+	}
+	
+	/**
+	 * Create sampler for a destination
+	 * @param d
+	 * @return	Sampler or null if the destination does not use count or hash based reduction
+	 */
+	public static Sampler create(Destination d){
+		if(d.getReduction()==null || d.getReduction()==Destination.Reduction.NONE || d.getEvery()<=1){
+			return null;
+		}
+		if(d.getReduction()==Destination.Reduction.HASH && (d.getField()==null || d.getField().isEmpty())){
+			throw new IllegalArgumentException("Hash based reduction of destination "+d.getAddress()+" requires a field");
+		}
+		if(d.getOffset()<0 || d.getOffset()>=d.getEvery()){
+			// No message would ever be selected
+			throw new IllegalArgumentException("Offset of destination "+d.getAddress()+" needs to be 0-"+(d.getEvery()-1));
+		}
+		return new Sampler(d.getReduction(), d.getEvery(), d.getOffset(), d.getField());
+	}
+	
+	/**
+	 * @param sequence	Number of the message within the routing (starting at 0)
+	 * @param frame		First frame of the message
+	 * @return	true if the message is selected
+	 */
+	public boolean accept(long sequence, Msg frame){
+		if(reduction==Destination.Reduction.COUNT){
+			return sequence % every == offset;
+		}
+		
+		byte[] data = frame.data();
+		if(!field.find(data, frame.size())){
+			return false; // Messages without the field are not selected
+		}
+		// FNV-1a hash of the raw value - stable across broker restarts
+		int hash = 0x811c9dc5;
+		for(int i=field.getStart();i<field.getEnd();i++){
+			hash ^= data[i] & 0xff;
+			hash *= 0x01000193;
+		}
+		return ((hash & 0x7fffffff) % every) == offset;
+	}
+}
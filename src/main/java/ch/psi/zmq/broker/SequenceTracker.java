@@ -0,0 +1,329 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import zmq.Msg;
+import ch.psi.zmq.broker.model.Destination;
+import ch.psi.zmq.broker.model.Routing;
+import ch.psi.zmq.broker.model.SequenceEvent;
+import ch.psi.zmq.broker.model.Source;
+
+/**
+ * Tracking of the sequence numbers of the messages of a routing. The sequence number is taken from a field of the
+ * JSON header or from a fixed offset within a frame. Per source gaps, duplicates and reordering are detected,
+ * per destination gaps caused by messages the broker dropped (messages dropped when they are received, i.e. not
+ * messages dropped from a queue/spill journal later on).
+ * 
+ * Each source keeps a bitmap of the last {@value #WINDOW} sequence numbers, i.e. tracking is O(1) per message
+ * and does not allocate. Only irregularities create an event, the last {@value #EVENTS} events are kept in a ring
+ * that can be read by any thread (see {@link #getEvents(long, long)}).
+ * 
+ * Except for reading the events the tracker must only be used by the routing thread.
+ * @author ebner
+ *
+ */
+public class SequenceTracker {
+	
+	/**
+	 * Number of sequence numbers (up to the highest sequence number received) duplicates and late messages are
+	 * detected for. Messages further behind are taken as restart of the sequence.
+	 */
+	static final int WINDOW = 1024;
+	
+	/**
+	 * Number of most recent events kept
+	 */
+	static final int EVENTS = 1024;
+	
+	private static final long NONE = Long.MIN_VALUE;
+	
+	private final String name;
+	private final List<Source> sources;
+	private final Counters counters;
+	
+	/**
+	 * Location of the sequence number - header field (null for a binary sequence number) or
+	 * frame, offset, size and byte order of the binary sequence number
+	 */
+	private final HeaderField field;
+	private final int frame;
+	private final int offset;
+	private final int size;
+	private final boolean littleEndian;
+	
+	/**
+	 * Sequence number of the current message (NONE if unknown)
+	 */
+	private long value = NONE;
+	
+	/**
+	 * Per source - first sequence number since the (re)start of the sequence, highest sequence number received
+	 * (NONE if none) and bitmap of the sequence numbers received within the window
+	 */
+	private final long[] start;
+	private final long[] highest;
+	private final long[][] received;
+	
+	/**
+	 * Per destination - first and last sequence number (NONE if none) and number of messages of the current run of dropped messages
+	 */
+	private List<Destination> destinations = new ArrayList<>();
+	private long[] droppedFirst = new long[0];
+	private long[] droppedLast = new long[0];
+	private long[] droppedCount = new long[0];
+	
+	private final AtomicReferenceArray<SequenceEvent> events = new AtomicReferenceArray<>(EVENTS);
+	private final Counter count = new Counter();
+	
+	/**
+	 * @param routing
+	 * @return	true if the routing tracks sequence numbers
+	 */
+	public static boolean isTracked(Routing routing){
+		return (routing.getSequence()!=null && !routing.getSequence().isEmpty()) || routing.getSequenceOffset()>=0;
+	}
+	
+	/**
+	 * Create the tracker of a routing
+	 * @param routing
+	 * @param counters	Counters the irregularities are recorded in
+	 * @return	Tracker or null if the routing does not track sequence numbers
+	 */
+	public static SequenceTracker create(Routing routing, Counters counters){
+		if(!isTracked(routing)){
+			return null;
+		}
+		boolean header = routing.getSequence()!=null && !routing.getSequence().isEmpty();
+		if(!header){
+			if(routing.getSequenceSize()<1 || routing.getSequenceSize()>8){
+				throw new IllegalArgumentException("Size of sequence number needs to be 1-8 bytes");
+			}
+			if(routing.getSequenceFrame()<0){
+				throw new IllegalArgumentException("Frame of sequence number needs to be >=0");
+			}
+		}
+		return new SequenceTracker(routing, counters, header);
+	}
+	
+	private SequenceTracker(Routing routing, Counters counters, boolean header){
+		this.name = routing.getName();
+		this.sources = routing.getSources();
+		this.counters = counters;
+		this.field = header ? new HeaderField(routing.getSequence()) : null;
+		this.frame = header ? 0 : routing.getSequenceFrame();
+		this.offset = routing.getSequenceOffset();
+		this.size = routing.getSequenceSize();
+		this.littleEndian = routing.getSequenceOrder()==Routing.ByteOrder.LITTLE_ENDIAN;
+		
+		int n = sources!=null ? sources.size() : 0;
+		start = new long[n];
+		highest = new long[n];
+		received = new long[n][WINDOW/64];
+		Arrays.fill(highest, NONE);
+	}
+	
+	/**
+	 * Take the sequence number from a frame of the current message
+	 * @param index		Index of the frame within the message
+	 * @param message	Frame
+	 */
+	public void frame(int index, Msg message){
+		if(index==0){
+			value = NONE;
+		}
+		if(index!=frame){
+			return;
+		}
+		byte[] data = message.data();
+		if(field!=null){
+			if(field.find(data, message.size())){
+				value = field.getLong(data);
+			}
+		}
+		else if(offset+size<=message.size()){
+			long v = 0;
+			for(int i=0;i<size;i++){
+				int b = data[offset+(littleEndian ? size-1-i : i)] & 0xff;
+				v = (v << 8) | b;
+			}
+			value = v;
+		}
+	}
+	
+	/**
+	 * Track the sequence number of the current (completely received) message
+	 * @param source	Index of the source the message was received from
+	 */
+	public void received(int source){
+		long v = value;
+		if(v==NONE){
+			return;
+		}
+		long h = highest[source];
+		long[] bits = received[source];
+		if(h==NONE){
+			start[source] = v;
+		}
+		else if(v>h){
+			if(v-h>1){
+				counters.gap(source, v-h-1);
+				event(SequenceEvent.Type.GAP, sources.get(source).getAddress(), h+1, v-1, v-h-1);
+			}
+			if(v-h>=WINDOW){
+				Arrays.fill(bits, 0);
+			}
+			else{
+				for(long k=h+1;k<v;k++){
+					clear(bits, k);
+				}
+			}
+		}
+		else if(h-v>=WINDOW){
+			counters.reset(source);
+			event(SequenceEvent.Type.RESET, sources.get(source).getAddress(), v, v, 1);
+			Arrays.fill(bits, 0);
+			start[source] = v;
+			h = NONE;
+		}
+		else if(isSet(bits, v)){
+			counters.duplicate(source);
+			event(SequenceEvent.Type.DUPLICATE, sources.get(source).getAddress(), v, v, 1);
+			return;
+		}
+		else{
+			// Late message - was counted as missing unless it precedes the start of the sequence
+			counters.reordered(source, v>start[source]);
+			event(SequenceEvent.Type.REORDERED, sources.get(source).getAddress(), v, v, 1);
+		}
+		set(bits, v);
+		if(h==NONE || v>h){
+			highest[source] = v;
+			counters.sequence(source, v);
+		}
+	}
+	
+	/**
+	 * Record that the current message was sent to a destination
+	 * @param destination	Index of the destination
+	 */
+	public void sent(int destination){
+		if(droppedFirst[destination]!=NONE){
+			// Run of dropped messages ended
+			event(SequenceEvent.Type.DROPPED, destinations.get(destination).getAddress(), droppedFirst[destination], droppedLast[destination], droppedCount[destination]);
+			droppedFirst[destination] = NONE;
+		}
+	}
+	
+	/**
+	 * Record that the current message was dropped for a destination
+	 * @param destination	Index of the destination
+	 */
+	public void dropped(int destination){
+		if(value==NONE){
+			return;
+		}
+		if(droppedFirst[destination]==NONE){
+			counters.dropGap(destination);
+			droppedFirst[destination] = value;
+			droppedCount[destination] = 0;
+		}
+		droppedLast[destination] = value;
+		droppedCount[destination]++;
+	}
+	
+	/**
+	 * Rearrange the destination state after the destinations of the routing were updated
+	 * @param map			Index of the previous destination for each destination (-1 for new destinations), null if all destinations are new
+	 * @param destinations	New destinations
+	 */
+	public void remap(int[] map, List<Destination> destinations){
+		int n = destinations.size();
+		long[] first = new long[n];
+		long[] last = new long[n];
+		long[] dropped = new long[n];
+		for(int j=0;j<n;j++){
+			int i = map!=null ? map[j] : -1;
+			first[j] = i>=0 ? droppedFirst[i] : NONE;
+			last[j] = i>=0 ? droppedLast[i] : NONE;
+			dropped[j] = i>=0 ? droppedCount[i] : 0;
+		}
+		this.destinations = destinations;
+		droppedFirst = first;
+		droppedLast = last;
+		droppedCount = dropped;
+	}
+	
+	private static boolean isSet(long[] bits, long sequence){
+		int i = (int) (sequence & (WINDOW-1));
+		return (bits[i >>> 6] & (1L << (i & 63)))!=0;
+	}
+	
+	private static void set(long[] bits, long sequence){
+		int i = (int) (sequence & (WINDOW-1));
+		bits[i >>> 6] |= 1L << (i & 63);
+	}
+	
+	private static void clear(long[] bits, long sequence){
+		int i = (int) (sequence & (WINDOW-1));
+		bits[i >>> 6] &= ~(1L << (i & 63));
+	}
+	
+	private void event(SequenceEvent.Type type, String address, long first, long last, long messages){
+		SequenceEvent e = new SequenceEvent();
+		e.setRouting(name);
+		e.setType(type);
+		e.setAddress(address);
+		e.setFirst(first);
+		e.setLast(last);
+		e.setMessages(messages);
+		e.setTime(System.currentTimeMillis());
+		events.lazySet((int) (count.get() % EVENTS), e);
+		count.increment();
+	}
+	
+	/**
+	 * @return	Total number of events that occurred so far
+	 */
+	public long getEventCount(){
+		return count.get();
+	}
+	
+	/**
+	 * Get the events that occurred within the given range, oldest first. Events that are not kept anymore are skipped.
+	 * @param from	Number of the first event (inclusive)
+	 * @param to	Number of the last event (exclusive, see {@link #getEventCount()})
+	 * @return
+	 */
+	public List<SequenceEvent> getEvents(long from, long to){
+		List<SequenceEvent> l = new ArrayList<>();
+		for(long i=Math.max(from, to-EVENTS);i<to;i++){
+			SequenceEvent e = events.get((int) (i % EVENTS));
+			if(e!=null){
+				l.add(e);
+			}
+		}
+		return l;
+	}
+}
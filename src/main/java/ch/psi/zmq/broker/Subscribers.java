@@ -0,0 +1,75 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.zeromq.ZMQ;
+
+/**
+ * Number of peers connected to a XPUB destination, tracked via a monitor of the socket (accepted/disconnected
+ * connections). XPUB sockets cannot send to a single peer, i.e. cached messages are only replayed to a new
+ * subscriber as long as it is the only peer of the destination.
+ * Peers connecting via inproc (chained routings) are not reported by the monitor and are therefore not counted.
+ * 
+ * Instances are not thread safe, they must only be used by the routing thread.
+ * @author ebner
+ *
+ */
+public class Subscribers {
+	
+	private static final AtomicInteger ids = new AtomicInteger();
+	
+	private final ZMQ.Socket monitor;
+	private int peers = 0;
+	
+	/**
+	 * @param context	Context of the socket
+	 * @param socket	XPUB socket (not bound yet, connections accepted before are not counted)
+	 */
+	public Subscribers(ZMQ.Context context, ZMQ.Socket socket){
+		String address = "inproc://subscribers-"+ids.incrementAndGet();
+		socket.monitor(address, ZMQ.EVENT_ACCEPTED | ZMQ.EVENT_DISCONNECTED);
+		monitor = context.socket(ZMQ.PAIR);
+		monitor.connect(address);
+	}
+	
+	/**
+	 * Take the connection events reported so far into account. An accepted connection is reported
+	 * before the subscriptions of the peer are received.
+	 * @return	Number of connected peers
+	 */
+	public int update(){
+		ZMQ.Event event;
+		while((event = ZMQ.Event.recv(monitor, ZMQ.DONTWAIT))!=null){
+			if(event.getEvent()==ZMQ.EVENT_ACCEPTED){
+				peers++;
+			}
+			else if(event.getEvent()==ZMQ.EVENT_DISCONNECTED){
+				peers = Math.max(0, peers-1);
+			}
+		}
+		return peers;
+	}
+	
+	public void close(){
+		monitor.close();
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import zmq.Msg;
+
+/**
+ * Tap for the live inspection of the messages of a routing. While somebody subscribed, the routing thread publishes
+ * every Nth message to a single slot, overwriting the previous one. Subscribers read the slot at their own pace,
+ * i.e. a slow subscriber misses messages but never slows the routing down. Frames are not copied.
+ * 
+ * Without subscribers the tap costs the routing thread a single volatile read per message.
+ * @author ebner
+ *
+ */
+public class Tap {
+	
+	private final AtomicReference<Sample> slot = new AtomicReference<>();
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+	
+	/**
+	 * Every Nth message is published (0 = no subscribers)
+	 */
+	private volatile int every = 0;
+	private volatile boolean closed = false;
+	
+	/**
+	 * @param sequence	Number of the message within the routing
+	 * @return	true if the message is to be published. Must only be called by the routing thread.
+	 */
+	public boolean isSampled(long sequence){
+		int e = every;
+		return e>0 && sequence % e == 0;
+	}
+	
+	/**
+	 * Publish message. Must only be called by the routing thread.
+	 * @param sequence	Number of the message within the routing
+	 * @param frames
+	 */
+	public void offer(long sequence, List<Msg> frames){
+		slot.lazySet(new Sample(sequence, System.currentTimeMillis(), frames.toArray(new Msg[frames.size()])));
+	}
+	
+	/**
+	 * Subscribe to the tap
+	 * @param every	Get every Nth message (best effort - if several subscribers use different rates the smallest rate applies
+	 * 				to the routing and the subscribers skip the messages they are not interested in)
+	 * @return
+	 */
+	public synchronized Subscription subscribe(int every){
+		Subscription s = new Subscription(Math.max(1, every));
+		subscriptions.add(s);
+		update();
+		return s;
+	}
+	
+	private synchronized void unsubscribe(Subscription s){
+		subscriptions.remove(s);
+		update();
+	}
+	
+	private void update(){
+		int e = 0;
+		for(Subscription s: subscriptions){
+			e = e==0 ? s.every : Math.min(e, s.every);
+		}
+		every = e;
+		if(e==0){
+			slot.set(null); // Do not keep frames referenced
+		}
+	}
+	
+	/**
+	 * Close tap (routing terminated)
+	 */
+	public void close(){
+		closed = true;
+	}
+	
+	/**
+	 * Subscription of a tap. Not thread safe, a subscription must only be used by one thread.
+	 */
+	public class Subscription {
+		
+		private final int every;
+		private long next = 0;
+		
+		private Subscription(int every){
+			this.every = every;
+		}
+		
+		/**
+		 * Get the next message
+		 * @return	Message or null if there is no new message (since the last call)
+		 */
+		public Sample poll(){
+			Sample s = slot.get();
+			if(s==null || s.sequence<next){
+				return null;
+			}
+			next = s.sequence+every;
+			return s;
+		}
+		
+		/**
+		 * @return	true if the routing was terminated
+		 */
+		public boolean isClosed(){
+			return closed;
+		}
+		
+		public void unsubscribe(){
+			Tap.this.unsubscribe(this);
+		}
+	}
+	
+	/**
+	 * Message published by the tap
+	 */
+	public static class Sample {
+		private final long sequence;
+		private final long timestamp;
+		private final Msg[] frames;
+		
+		Sample(long sequence, long timestamp, Msg[] frames){
+			this.sequence = sequence;
+			this.timestamp = timestamp;
+			this.frames = frames;
+		}
+		
+		/**
+		 * @return	Number of the message within the routing
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+		/**
+		 * @return	Time (epoch millis) the message was received
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+		public Msg[] getFrames() {
+			return frames;
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Pins threads to CPUs via the <code>taskset</code> command (Linux). The id of the calling thread is
+ * taken from <code>/proc/thread-self</code>, i.e. no native code is needed.
+ * @author ebner
+ *
+ */
+public class TasksetAffinityProvider implements AffinityProvider {
+	
+	/**
+	 * CPUs the threads were allowed to run on before they got pinned
+	 */
+	private String cpus;
+	
+	@Override
+	public void pin(int cpu) throws IOException {
+		String tid = getThreadId();
+		synchronized(this){
+			if(cpus==null){
+				String out = taskset("-pc", tid);
+				cpus = out.substring(out.lastIndexOf(':')+1).trim();
+			}
+		}
+		taskset("-pc", Integer.toString(cpu), tid);
+	}
+	
+	@Override
+	public void unpin() throws IOException {
+		String c;
+		synchronized(this){
+			c = cpus;
+		}
+		if(c!=null){
+			taskset("-pc", c, getThreadId());
+		}
+	}
+	
+	/**
+	 * @return	Id of the calling thread (Linux)
+	 * @throws IOException
+	 */
+	private static String getThreadId() throws IOException{
+		// Link to /proc/<pid>/task/<tid>
+		Path p = Files.readSymbolicLink(Paths.get("/proc/thread-self"));
+		return p.getFileName().toString();
+	}
+	
+	private static String taskset(String... args) throws IOException{
+		String[] command = new String[args.length+1];
+		command[0] = "taskset";
+		System.arraycopy(args, 0, command, 1, args.length);
+		Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+		StringBuilder b = new StringBuilder();
+		try(BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))){
+			String line;
+			while((line=r.readLine())!=null){
+				b.append(line);
+			}
+		}
+		try {
+			if(p.waitFor()!=0){
+				throw new IOException("taskset failed: "+b);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for taskset");
+		}
+		return b.toString();
+	}
+}
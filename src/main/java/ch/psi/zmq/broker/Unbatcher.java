@@ -0,0 +1,125 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import zmq.Msg;
+import ch.psi.zmq.broker.model.Routing;
+
+/**
+ * Splits the batches received from a source (see {@link Batcher}) into the individual messages again.
+ * 
+ * An unbatcher is not thread safe, it must only be used by the routing thread.
+ * @author ebner
+ *
+ */
+public class Unbatcher {
+	
+	private final Routing.Batching format;
+	
+	/**
+	 * Remaining frames of the current message (MULTIPART)
+	 */
+	private int remaining = 0;
+	
+	/**
+	 * Frames decoded but not yet taken (BLOB, MULTIPART)
+	 */
+	private final ArrayDeque<Msg> frames = new ArrayDeque<>();
+	
+	/**
+	 * The batch received last has more frames
+	 */
+	private boolean more = false;
+	
+	public Unbatcher(Routing.Batching format){
+		this.format = format;
+	}
+	
+	/**
+	 * Decode frame of a batch
+	 * @param frame
+	 */
+	public void add(Msg frame){
+		more = frame.hasMore();
+		if(format==Routing.Batching.MULTIPART){
+			if(remaining==0){ // Header of the next message
+				remaining = frame.size()>=Batcher.HEADER ? Math.max(0, ByteBuffer.wrap(frame.data()).getInt(0)) : 0;
+				return;
+			}
+			remaining--;
+			if(!more){
+				remaining = 0; // Batch ends - terminate message in any case
+			}
+			if(remaining>0){
+				frame.setFlags(Msg.MORE);
+			}
+			else{
+				frame.resetFlags(Msg.MORE);
+			}
+			frames.add(frame);
+		}
+		else{
+			byte[] data = frame.data();
+			ByteBuffer b = ByteBuffer.wrap(data, 0, frame.size());
+			while(b.remaining()>=Batcher.HEADER){
+				int n = b.getInt();
+				for(int i=0;i<n && b.remaining()>=Batcher.HEADER;i++){
+					int size = Math.max(0, Math.min(b.getInt(), b.remaining())); // Sizes are read off the network
+					Msg m = new Msg(Arrays.copyOfRange(data, b.position(), b.position()+size));
+					b.position(b.position()+size);
+					if(i<n-1 && b.remaining()>=Batcher.HEADER){
+						m.setFlags(Msg.MORE);
+					}
+					frames.add(m);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return	Next frame or null if the batch (frames received so far) holds no further frame
+	 */
+	public Msg next(){
+		return frames.poll();
+	}
+	
+	/**
+	 * @return	true if the current batch has more frames to be received
+	 */
+	public boolean isPending(){
+		return more;
+	}
+	
+	/**
+	 * Create unbatcher for a source
+	 * @param format	Format of the batches the source receives
+	 * @return	Unbatcher or null if the source does not receive batches
+	 */
+	public static Unbatcher create(Routing.Batching format){
+		if(format==null || format==Routing.Batching.NONE){
+			return null;
+		}
+		return new Unbatcher(format);
+	}
+}
@@ -0,0 +1,130 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.util.Arrays;
+
+import zmq.Msg;
+
+/**
+ * Workers connected to a ROUTER destination and their credit (number of messages they are
+ * able to take). Workers (DEALER sockets) announce their capacity by sending credit messages to the destination.
+ * Each message sent to a worker consumes one credit.
+ * 
+ * Instances are not thread safe, they must only be used by the routing thread. Only the sum of the credits
+ * ({@link #getCredits()}) can be read from any thread.
+ * @author ebner
+ *
+ */
+public class Workers {
+	
+	/**
+	 * Identity frames of the workers - reused for every message sent to the worker
+	 */
+	private Msg[] identities = new Msg[0];
+	private long[] credits = new long[0];
+	private final Counter total = new Counter();
+	
+	/**
+	 * Add credit to a worker. Unknown workers are added.
+	 * @param identity	Identity of the worker (as received by the ROUTER socket)
+	 * @param credit
+	 */
+	public void credit(Msg identity, long credit){
+		int w = find(identity);
+		if(w<0){
+			w = identities.length;
+			identities = Arrays.copyOf(identities, w+1);
+			credits = Arrays.copyOf(credits, w+1);
+			identities[w] = new Msg(Arrays.copyOf(identity.data(), identity.size()));
+		}
+		credits[w] += credit;
+		total.add(credit);
+	}
+	
+	private int find(Msg identity){
+		for(int i=0;i<identities.length;i++){
+			Msg m = identities[i];
+			if(m.size()==identity.size()){
+				boolean equal = true;
+				for(int c=0;c<m.size() && equal;c++){
+					equal = m.data()[c]==identity.data()[c];
+				}
+				if(equal){
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return	Index of the worker with the most credit or -1 if no worker has credit
+	 */
+	public int select(){
+		int w = -1;
+		long max = 0;
+		for(int i=0;i<credits.length;i++){
+			if(credits[i]>max){
+				max = credits[i];
+				w = i;
+			}
+		}
+		return w;
+	}
+	
+	/**
+	 * @param worker	Index of the worker
+	 * @return	Identity frame of the worker. Sending rewrites the flags of a frame, i.e. send a new Msg sharing its
+	 * 			data for every message (see {@link Frames#share(Msg)}).
+	 */
+	public Msg getIdentity(int worker){
+		return identities[worker];
+	}
+	
+	/**
+	 * Consume one credit of a worker
+	 * @param worker
+	 */
+	public void consume(int worker){
+		credits[worker]--;
+		total.add(-1);
+	}
+	
+	/**
+	 * Remove a worker (e.g. because it disconnected)
+	 * @param worker
+	 */
+	public void remove(int worker){
+		total.add(-credits[worker]);
+		int n = identities.length-1;
+		identities[worker] = identities[n];
+		credits[worker] = credits[n];
+		identities = Arrays.copyOf(identities, n);
+		credits = Arrays.copyOf(credits, n);
+	}
+	
+	/**
+	 * @return	Sum of the credits of all workers
+	 */
+	public long getCredits(){
+		return total.get();
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Change of a routing that is (or would be) done when applying a new configuration to the broker
+ * @author ebner
+ *
+ */
+public class Change {
+	
+	/**
+	 * ADD - new routing is started, REMOVE - routing is terminated, RESTART - routing is terminated and started
+	 * again (sources or settings of the routing changed), UPDATE - destinations are added/removed on the running
+	 * routing, KEEP - routing is left untouched
+	 */
+	public enum Action {ADD, REMOVE, RESTART, UPDATE, KEEP};
+	
+	private String name;
+	private Action action;
+	
+	/**
+	 * Details of the change, e.g. the destinations added/removed
+	 */
+	private List<String> details = new ArrayList<>();
+	
+	public Change(){
+	}
+	
+	public Change(String name, Action action){
+		this.name = name;
+		this.action = action;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	public void setName(String name) {
+		this.name = name;
+	}
+	public Action getAction() {
+		return action;
+	}
+	public void setAction(Action action) {
+		this.action = action;
+	}
+	public List<String> getDetails() {
+		return details;
+	}
+	public void setDetails(List<String> details) {
+		this.details = details;
+	}
+}
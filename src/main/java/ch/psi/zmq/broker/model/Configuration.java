@@ -21,6 +21,7 @@ package ch.psi.zmq.broker.model;
 
 import java.util.List;
 
+import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlRootElement;
 
 /**
@@ -33,6 +34,24 @@ import javax.xml.bind.annotation.XmlRootElement;
 public class Configuration {
 	
 	private List<Routing> routing;
+	
+	/**
+	 * Number of (shared) ZMQ contexts routings can be assigned to.
+	 * If not specified the current setting of the broker is kept.
+	 */
+	private Integer contexts;
+	
+	/**
+	 * Number of I/O threads per ZMQ context.
+	 * If not specified the current setting of the broker is kept.
+	 */
+	private Integer ioThreads;
+	
+	/**
+	 * Number of event loop threads shared by the routings with EVENT_LOOP execution.
+	 * If not specified the current setting of the broker is kept (default: one per CPU).
+	 */
+	private Integer eventLoops;
 
 	public List<Routing> getRouting() {
 		return routing;
@@ -40,4 +59,25 @@ public class Configuration {
 	public void setRouting(List<Routing> routing) {
 		this.routing = routing;
 	}
+	@XmlAttribute
+	public Integer getContexts() {
+		return contexts;
+	}
+	public void setContexts(Integer contexts) {
+		this.contexts = contexts;
+	}
+	@XmlAttribute
+	public Integer getIoThreads() {
+		return ioThreads;
+	}
+	public void setIoThreads(Integer ioThreads) {
+		this.ioThreads = ioThreads;
+	}
+	@XmlAttribute
+	public Integer getEventLoops() {
+		return eventLoops;
+	}
+	public void setEventLoops(Integer eventLoops) {
+		this.eventLoops = eventLoops;
+	}
 }
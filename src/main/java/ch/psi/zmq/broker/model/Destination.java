@@ -19,13 +19,61 @@
 
 package ch.psi.zmq.broker.model;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
 import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
 
+import ch.psi.zmq.broker.model.Routing.Batching;
+import ch.psi.zmq.broker.model.Routing.Compression;
 import ch.psi.zmq.broker.model.Routing.Type;
 
 
 public class Destination {
 	
+	/**
+	 * Deterministic reduction strategy
+	 */
+	public enum Reduction {
+		/**
+		 * All messages
+		 */
+		NONE,
+		/**
+		 * Every Nth message (based on the message count of the routing)
+		 */
+		COUNT,
+		/**
+		 * Messages whose hash of a header field modulo N equals the offset
+		 */
+		HASH
+	};
+	
+	/**
+	 * Policy applied if a message cannot be sent because the buffer and the queue (or spill journal)
+	 * of the destination are full
+	 */
+	public enum Policy {
+		/**
+		 * Wait until the destination accepts messages again (blocks the whole routing)
+		 */
+		BLOCK,
+		/**
+		 * Drop the message that cannot be sent
+		 */
+		DROP_NEWEST,
+		/**
+		 * Drop the oldest queued message to make room for the new one
+		 */
+		DROP_OLDEST,
+		/**
+		 * Disconnect all receivers of the destination (the socket is closed and bound again) and drop all queued messages
+		 */
+		DISCONNECT
+	};
+	
 	/**
 	 * Address of the source in following format
 	 * tcp://&gt;ip>:&gt;port>
@@ -43,10 +91,141 @@ public class Destination {
 	private int buffer = 5;
 	
 	/**
-	 * Update frequency in milliseconds
+	 * Update frequency in milliseconds, i.e. send at most one message per period.
+	 * Shortcut for a maxRate of 1000/frequency (with burst 1).
 	 */
 	private long frequency = 0;
 	
+	/**
+	 * Deterministic reduction (in addition to frequency/rate limits)
+	 */
+	private Reduction reduction = Reduction.NONE;
+	
+	/**
+	 * Send one out of every N messages (reduction COUNT or HASH)
+	 */
+	private int every = 1;
+	
+	/**
+	 * Which one of the N messages is sent (0 - N-1). Destinations with the same N but different
+	 * offsets get disjoint shares.
+	 */
+	private int offset = 0;
+	
+	/**
+	 * Name of the field of the (JSON) header the hash is calculated of (reduction HASH)
+	 */
+	private String field;
+	
+	/**
+	 * Maximum number of messages per second (0 = unlimited)
+	 */
+	private double maxRate = 0;
+	
+	/**
+	 * Maximum number of bytes per second (0 = unlimited)
+	 */
+	private long maxBandwidth = 0;
+	
+	/**
+	 * Number of messages that can be sent at once (after an idle period) exceeding the maxRate
+	 */
+	private int burst = 1;
+	
+	/**
+	 * Number of bytes that can be sent at once (after an idle period) exceeding the maxBandwidth.
+	 * 0 = maxBandwidth, i.e. the bytes of one second.
+	 */
+	private long bandwidthBurst = 0;
+	
+	/**
+	 * Prefixes the first frame of a message must start with to be sent to this destination.
+	 * If empty all messages are sent.
+	 */
+	private List<String> filters = new ArrayList<>();
+	
+	/**
+	 * Conditions on the fields of the JSON header (first frame) of a message, e.g. <code>htype == dimage-1.0</code>,
+	 * <code>frame &gt;= 100</code> or <code>series in 1..10</code>. A message is sent to this destination if it fulfills
+	 * all conditions. If empty all messages are sent.
+	 */
+	private List<String> matches = new ArrayList<>();
+	
+	/**
+	 * Number of messages that are queued (in memory) if the buffer of the destination is full. 
+	 * While there are queued messages the routing continues to serve the other destinations.
+	 */
+	private int queue = 0;
+	
+	/**
+	 * Policy if buffer and queue are full
+	 */
+	private Policy policy = Policy.BLOCK;
+	
+	/**
+	 * Directory of the spill journal. If set, messages that cannot be sent because the buffer
+	 * of the destination is full are written to a journal on disk (instead of blocking the routing)
+	 * and are sent as soon as the receiver catches up.
+	 */
+	private String spill;
+	
+	/**
+	 * Maximum disk space of the spill journal in megabytes. If reached the policy of the destination applies.
+	 */
+	private long spillSize = 1024;
+	
+	/**
+	 * Maximum time in milliseconds messages are kept in the spill journal. Older messages
+	 * are dropped. 0 keeps messages until they are sent.
+	 */
+	private long spillRetention = 0;
+	
+	/**
+	 * Size of the segment files of a recording (FILE destinations) in megabytes
+	 */
+	private long segmentSize = 64;
+	
+	/**
+	 * Maximum number of segment files of a recording (FILE destinations), the oldest segments are deleted (0 = no limit)
+	 */
+	private int segments = 0;
+	
+	/**
+	 * Combine several messages into one batch (MULTIPART, BLOB) before sending them
+	 */
+	private Batching batching = Batching.NONE;
+	
+	/**
+	 * Maximum number of messages per batch
+	 */
+	private int batchSize = 100;
+	
+	/**
+	 * Maximum number of bytes per batch (0 = no limit)
+	 */
+	private long batchBytes = 1024*1024;
+	
+	/**
+	 * Maximum time in milliseconds a message is held back to fill up a batch. With 0 an incomplete
+	 * batch is sent as soon as no further message is available from the sources.
+	 */
+	private long linger = 0;
+	
+	/**
+	 * Compression of the frames sent (done on a worker pool)
+	 */
+	private Compression compression = Compression.NONE;
+	
+	/**
+	 * Compression level (1 fastest - 9 best compression for DEFLATE, 17 for LZ4, 22 for ZSTD)
+	 */
+	private int compressionLevel = 1;
+	
+	/**
+	 * Minimum size of a frame in bytes to get compressed
+	 */
+	private int compressionThreshold = 1024;
+	
 	@XmlAttribute
 	public String getAddress() {
 		return address;
@@ -75,5 +254,215 @@ public class Destination {
 	public void setFrequency(long frequency) {
 		this.frequency = frequency;
 	}
+	@XmlAttribute
+	public Reduction getReduction() {
+		return reduction;
+	}
+	public void setReduction(Reduction reduction) {
+		this.reduction = reduction;
+	}
+	@XmlAttribute
+	public int getEvery() {
+		return every;
+	}
+	public void setEvery(int every) {
+		this.every = every;
+	}
+	@XmlAttribute
+	public int getOffset() {
+		return offset;
+	}
+	public void setOffset(int offset) {
+		this.offset = offset;
+	}
+	@XmlAttribute
+	public String getField() {
+		return field;
+	}
+	public void setField(String field) {
+		this.field = field;
+	}
+	@XmlAttribute
+	public double getMaxRate() {
+		return maxRate;
+	}
+	public void setMaxRate(double maxRate) {
+		this.maxRate = maxRate;
+	}
+	@XmlAttribute
+	public long getMaxBandwidth() {
+		return maxBandwidth;
+	}
+	public void setMaxBandwidth(long maxBandwidth) {
+		this.maxBandwidth = maxBandwidth;
+	}
+	@XmlAttribute
+	public int getBurst() {
+		return burst;
+	}
+	public void setBurst(int burst) {
+		this.burst = burst;
+	}
+	@XmlAttribute
+	public long getBandwidthBurst() {
+		return bandwidthBurst;
+	}
+	public void setBandwidthBurst(long bandwidthBurst) {
+		this.bandwidthBurst = bandwidthBurst;
+	}
+	@XmlElement(name="filter")
+	public List<String> getFilters() {
+		return filters;
+	}
+	public void setFilters(List<String> filters) {
+		this.filters = filters;
+	}
+	@XmlElement(name="match")
+	public List<String> getMatches() {
+		return matches;
+	}
+	public void setMatches(List<String> matches) {
+		this.matches = matches;
+	}
+	@XmlAttribute
+	public int getQueue() {
+		return queue;
+	}
+	public void setQueue(int queue) {
+		this.queue = queue;
+	}
+	@XmlAttribute
+	public Policy getPolicy() {
+		return policy;
+	}
+	public void setPolicy(Policy policy) {
+		this.policy = policy;
+	}
+	@XmlAttribute
+	public String getSpill() {
+		return spill;
+	}
+	public void setSpill(String spill) {
+		this.spill = spill;
+	}
+	@XmlAttribute
+	public long getSpillSize() {
+		return spillSize;
+	}
+	public void setSpillSize(long spillSize) {
+		this.spillSize = spillSize;
+	}
+	@XmlAttribute
+	public long getSpillRetention() {
+		return spillRetention;
+	}
+	public void setSpillRetention(long spillRetention) {
+		this.spillRetention = spillRetention;
+	}
+	@XmlAttribute
+	public long getSegmentSize() {
+		return segmentSize;
+	}
+	public void setSegmentSize(long segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+	@XmlAttribute
+	public int getSegments() {
+		return segments;
+	}
+	public void setSegments(int segments) {
+		this.segments = segments;
+	}
+	@XmlAttribute
+	public Batching getBatching() {
+		return batching;
+	}
+	public void setBatching(Batching batching) {
+		this.batching = batching;
+	}
+	@XmlAttribute
+	public int getBatchSize() {
+		return batchSize;
+	}
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+	@XmlAttribute
+	public long getBatchBytes() {
+		return batchBytes;
+	}
+	public void setBatchBytes(long batchBytes) {
+		this.batchBytes = batchBytes;
+	}
+	@XmlAttribute
+	public long getLinger() {
+		return linger;
+	}
+	public void setLinger(long linger) {
+		this.linger = linger;
+	}
+	@XmlAttribute
+	public Compression getCompression() {
+		return compression;
+	}
+	public void setCompression(Compression compression) {
+		this.compression = compression;
+	}
+	@XmlAttribute
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+	@XmlAttribute
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
 	
+	@Override
+	public boolean equals(Object obj) {
+		if(this==obj){
+			return true;
+		}
+		if(!(obj instanceof Destination)){
+			return false;
+		}
+		Destination o = (Destination) obj;
+		return Objects.equals(address, o.address)
+				&& type==o.type
+				&& buffer==o.buffer
+				&& frequency==o.frequency
+				&& reduction==o.reduction
+				&& every==o.every
+				&& offset==o.offset
+				&& Objects.equals(field, o.field)
+				&& maxRate==o.maxRate
+				&& maxBandwidth==o.maxBandwidth
+				&& burst==o.burst
+				&& bandwidthBurst==o.bandwidthBurst
+				&& Objects.equals(filters, o.filters)
+				&& Objects.equals(matches, o.matches)
+				&& queue==o.queue
+				&& policy==o.policy
+				&& Objects.equals(spill, o.spill)
+				&& spillSize==o.spillSize
+				&& spillRetention==o.spillRetention
+				&& segmentSize==o.segmentSize
+				&& segments==o.segments
+				&& batching==o.batching
+				&& batchSize==o.batchSize
+				&& batchBytes==o.batchBytes
+				&& linger==o.linger
+				&& compression==o.compression
+				&& compressionLevel==o.compressionLevel
+				&& compressionThreshold==o.compressionThreshold;
+	}
+	@Override
+	public int hashCode() {
+		return Objects.hash(address, type, buffer, frequency, reduction, every, offset, field, maxRate, maxBandwidth, burst, bandwidthBurst, filters, matches, queue, policy, spill, spillSize, spillRetention, segmentSize, segments, batching, batchSize, batchBytes, linger, compression, compressionLevel, compressionThreshold);
+	}
 }
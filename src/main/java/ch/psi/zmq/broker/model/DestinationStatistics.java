@@ -0,0 +1,282 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker.model;
+
+/**
+ * Statistics of a destination of a routing
+ * @author ebner
+ *
+ */
+public class DestinationStatistics {
+	
+	private String address;
+	
+	private long messages;
+	private long frames;
+	private long bytes;
+	
+	/**
+	 * Number of messages not sent because of the reduced frequency/rate of the destination
+	 */
+	private long skipped;
+	
+	/**
+	 * Number of times a send had to wait because the high water mark (buffer) of the destination was reached
+	 */
+	private long hwm;
+	
+	/**
+	 * Number of messages dropped because buffer and queue/spill journal were full
+	 */
+	private long dropped;
+	
+	/**
+	 * Number of times the receivers were disconnected because buffer and queue/spill journal were full
+	 */
+	private long disconnects;
+	
+	/**
+	 * Number of messages written to the queue or spill journal
+	 */
+	private long spilled;
+	
+	/**
+	 * Number of messages dropped from the spill journal because they exceeded the retention time
+	 */
+	private long expired;
+	
+	/**
+	 * Number of batches sent (destinations batching messages). The messages of a dropped batch are counted as sent,
+	 * the batch as one dropped message.
+	 */
+	private long batches;
+	
+	/**
+	 * Ratio between original and compressed size of the frames (destinations compressing messages)
+	 */
+	private double compressionRatio;
+	
+	/**
+	 * CPU time in milliseconds spent for compression
+	 */
+	private long compressionTime;
+	
+	/**
+	 * Time from receiving a message to starting to send it (routings recording latency)
+	 */
+	private LatencyStatistics residence;
+	
+	/**
+	 * Time spent sending the frames of a message, i.e. handing them over to the socket, queue or spill journal
+	 * (routings recording latency)
+	 */
+	private LatencyStatistics sending;
+	
+	/**
+	 * Time from the creation of a message (timestamp in header) to starting to send it (routings recording latency
+	 * with timestamp field)
+	 */
+	private LatencyStatistics endToEnd;
+	
+	/**
+	 * Gaps in the sequence of the messages sent, i.e. runs of messages dropped by the broker (routings tracking sequence numbers)
+	 */
+	private long gaps;
+	
+	/**
+	 * Current credit of the workers (ROUTER destinations)
+	 */
+	private long credits;
+	
+	/**
+	 * Number of messages currently in the queue
+	 */
+	private long queueMessages;
+	
+	/**
+	 * Size of the messages currently in the queue in bytes
+	 */
+	private long queueBytes;
+	
+	/**
+	 * Number of messages currently in the spill journal
+	 */
+	private long spillMessages;
+	
+	/**
+	 * Disk space currently used by the spill journal in bytes
+	 */
+	private long spillBytes;
+	
+	/**
+	 * Messages per second (average over the statistics window)
+	 */
+	private double messageRate;
+	
+	/**
+	 * Bytes per second (average over the statistics window)
+	 */
+	private double byteRate;
+	
+	public String getAddress() {
+		return address;
+	}
+	public void setAddress(String address) {
+		this.address = address;
+	}
+	public long getMessages() {
+		return messages;
+	}
+	public void setMessages(long messages) {
+		this.messages = messages;
+	}
+	public long getFrames() {
+		return frames;
+	}
+	public void setFrames(long frames) {
+		this.frames = frames;
+	}
+	public long getBytes() {
+		return bytes;
+	}
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+	public long getSkipped() {
+		return skipped;
+	}
+	public void setSkipped(long skipped) {
+		this.skipped = skipped;
+	}
+	public long getHwm() {
+		return hwm;
+	}
+	public void setHwm(long hwm) {
+		this.hwm = hwm;
+	}
+	public long getDropped() {
+		return dropped;
+	}
+	public void setDropped(long dropped) {
+		this.dropped = dropped;
+	}
+	public long getDisconnects() {
+		return disconnects;
+	}
+	public void setDisconnects(long disconnects) {
+		this.disconnects = disconnects;
+	}
+	public long getSpilled() {
+		return spilled;
+	}
+	public void setSpilled(long spilled) {
+		this.spilled = spilled;
+	}
+	public long getExpired() {
+		return expired;
+	}
+	public void setExpired(long expired) {
+		this.expired = expired;
+	}
+	public long getBatches() {
+		return batches;
+	}
+	public void setBatches(long batches) {
+		this.batches = batches;
+	}
+	public double getCompressionRatio() {
+		return compressionRatio;
+	}
+	public void setCompressionRatio(double compressionRatio) {
+		this.compressionRatio = compressionRatio;
+	}
+	public long getCompressionTime() {
+		return compressionTime;
+	}
+	public void setCompressionTime(long compressionTime) {
+		this.compressionTime = compressionTime;
+	}
+	public LatencyStatistics getResidence() {
+		return residence;
+	}
+	public void setResidence(LatencyStatistics residence) {
+		this.residence = residence;
+	}
+	public LatencyStatistics getSending() {
+		return sending;
+	}
+	public void setSending(LatencyStatistics sending) {
+		this.sending = sending;
+	}
+	public LatencyStatistics getEndToEnd() {
+		return endToEnd;
+	}
+	public void setEndToEnd(LatencyStatistics endToEnd) {
+		this.endToEnd = endToEnd;
+	}
+	public long getGaps() {
+		return gaps;
+	}
+	public void setGaps(long gaps) {
+		this.gaps = gaps;
+	}
+	public long getCredits() {
+		return credits;
+	}
+	public void setCredits(long credits) {
+		this.credits = credits;
+	}
+	public long getQueueMessages() {
+		return queueMessages;
+	}
+	public void setQueueMessages(long queueMessages) {
+		this.queueMessages = queueMessages;
+	}
+	public long getQueueBytes() {
+		return queueBytes;
+	}
+	public void setQueueBytes(long queueBytes) {
+		this.queueBytes = queueBytes;
+	}
+	public long getSpillMessages() {
+		return spillMessages;
+	}
+	public void setSpillMessages(long spillMessages) {
+		this.spillMessages = spillMessages;
+	}
+	public long getSpillBytes() {
+		return spillBytes;
+	}
+	public void setSpillBytes(long spillBytes) {
+		this.spillBytes = spillBytes;
+	}
+	public double getMessageRate() {
+		return messageRate;
+	}
+	public void setMessageRate(double messageRate) {
+		this.messageRate = messageRate;
+	}
+	public double getByteRate() {
+		return byteRate;
+	}
+	public void setByteRate(double byteRate) {
+		this.byteRate = byteRate;
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker.model;
+
+/**
+ * Percentiles of a latency histogram. All values are in microseconds.
+ * @author ebner
+ *
+ */
+public class LatencyStatistics {
+	
+	/**
+	 * Number of recorded values
+	 */
+	private long count;
+	
+	private double p50;
+	private double p99;
+	private double p999;
+	private double max;
+	
+	public long getCount() {
+		return count;
+	}
+	public void setCount(long count) {
+		this.count = count;
+	}
+	public double getP50() {
+		return p50;
+	}
+	public void setP50(double p50) {
+		this.p50 = p50;
+	}
+	public double getP99() {
+		return p99;
+	}
+	public void setP99(double p99) {
+		this.p99 = p99;
+	}
+	public double getP999() {
+		return p999;
+	}
+	public void setP999(double p999) {
+		this.p999 = p999;
+	}
+	public double getMax() {
+		return max;
+	}
+	public void setMax(double max) {
+		this.max = max;
+	}
+}
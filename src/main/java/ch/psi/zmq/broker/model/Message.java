@@ -0,0 +1,51 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * (Multipart) message received by a routing
+ * @author ebner
+ *
+ */
+public class Message {
+	
+	/**
+	 * Time (epoch millis) the message was received by the broker
+	 */
+	private long timestamp;
+	
+	private List<byte[]> frames = new ArrayList<>();
+	
+	public long getTimestamp() {
+		return timestamp;
+	}
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+	public List<byte[]> getFrames() {
+		return frames;
+	}
+	public void setFrames(List<byte[]> frames) {
+		this.frames = frames;
+	}
+}
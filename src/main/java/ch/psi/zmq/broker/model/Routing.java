@@ -19,11 +19,13 @@
 
 package ch.psi.zmq.broker.model;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 /**
  * Class describes a routing configuration of the broker
@@ -34,14 +36,115 @@ import javax.xml.bind.annotation.XmlRootElement;
 public class Routing {
 	
 	/**
-	 * Enum holding type of connections supported by routing
+	 * Enum holding type of connections supported by routing. FILE records the messages to segment files in the
+	 * directory given as address (destinations) or replays such a recording (sources).
 	 */
-	public enum Type {PUSH, PULL, PUB, SUB};
+	public enum Type {PUSH, PULL, PUB, SUB, ROUTER, FILE};
+	
+	/**
+	 * Scheduling between the sources of a routing. FAIR takes one message of each source in turn,
+	 * WEIGHTED takes up to weight messages of a source in turn.
+	 */
+	public enum Scheduling {FAIR, WEIGHTED};
+	
+	/**
+	 * Format of message batches - NONE (no batching), MULTIPART (one multipart message per batch,
+	 * each message preceded by its number of frames), BLOB (one length prefixed frame per batch)
+	 */
+	public enum Batching {NONE, MULTIPART, BLOB};
+	
+	/**
+	 * Compression of the frames of a message - NONE, DEFLATE, LZ4 (fast, lower ratio), ZSTD (native library)
+	 */
+	public enum Compression {NONE, DEFLATE, LZ4, ZSTD};
+	
+	/**
+	 * Execution of the routing - THREAD (dedicated thread), EVENT_LOOP (shared event loop thread of the broker)
+	 */
+	public enum Execution {THREAD, EVENT_LOOP};
+	
+	/**
+	 * Waiting of the routing thread for messages - BLOCKING (thread sleeps until a message arrives),
+	 * YIELDING (non-blocking receives, the thread yields the CPU in between), BUSY_SPIN (non-blocking receives
+	 * without pause, occupies one CPU core)
+	 */
+	public enum WaitStrategy {BLOCKING, YIELDING, BUSY_SPIN};
+	
+	/**
+	 * Recording of latency histograms per destination - NONE, SAMPLED (every Nth message, see latencySampling),
+	 * ALL (every message)
+	 */
+	public enum Latency {NONE, SAMPLED, ALL};
+	
+	/**
+	 * Byte order of binary sequence numbers
+	 */
+	public enum ByteOrder {BIG_ENDIAN, LITTLE_ENDIAN};
 
 	private String name = "";
-	private Source source;
+	private List<Source> sources = new ArrayList<>();
 	private List<Destination> destinations;
 	
+	private Scheduling scheduling = Scheduling.FAIR;
+	
+	/**
+	 * Distribution of the messages to the destinations. BROADCAST sends every message to all destinations,
+	 * ROUND_ROBIN to one destination after the other, LEAST_LOADED to the destination with the most credit
+	 * (ROUTER destinations - credit announced by the workers).
+	 */
+	public enum Distribution {BROADCAST, ROUND_ROBIN, LEAST_LOADED};
+	
+	private Distribution distribution = Distribution.BROADCAST;
+	
+	/**
+	 * Index of the (shared) ZMQ context the routing is using. Heavy streams can be
+	 * put on a context of their own so that they do not compete with other streams
+	 * for the I/O threads.
+	 */
+	private int context = 0;
+	
+	/**
+	 * Number of most recent messages kept by the routing (0 = none). Subscribers connecting to a
+	 * PUB destination get these messages immediately. The most recent message is also available via the REST API.
+	 */
+	private int cache = 0;
+	
+	private Execution execution = Execution.THREAD;
+	
+	private WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+	
+	/**
+	 * CPU the routing thread is pinned to (-1 = not pinned). Only applies to routings with a dedicated thread.
+	 */
+	private int cpu = -1;
+	
+	private Latency latency = Latency.NONE;
+	
+	/**
+	 * Record the latency of every Nth message (latency SAMPLED)
+	 */
+	private int latencySampling = 100;
+	
+	/**
+	 * Field of the JSON header (first frame) holding the time the message was created (milliseconds since epoch).
+	 * If set the end-to-end latency is recorded as well.
+	 */
+	private String timestamp;
+	
+	/**
+	 * Field of the JSON header (first frame) holding the sequence number of the message. If set (or a binary
+	 * sequence number is configured, see sequenceOffset) gaps, duplicates and reordering of the messages are tracked.
+	 */
+	private String sequence;
+	
+	/**
+	 * Binary sequence number - index of the frame, offset (-1 = none) and size (1-8 bytes) within the frame and byte order
+	 */
+	private int sequenceFrame = 0;
+	private int sequenceOffset = -1;
+	private int sequenceSize = 8;
+	private ByteOrder sequenceOrder = ByteOrder.BIG_ENDIAN;
+	
 	@XmlAttribute
 	public String getName() {
 		return name;
@@ -49,11 +152,41 @@ public class Routing {
 	public void setName(String name) {
 		this.name = name;
 	}
+	@XmlElement(name="source")
+	public List<Source> getSources() {
+		return sources;
+	}
+	public void setSources(List<Source> sources) {
+		this.sources = sources;
+	}
+	/**
+	 * @return	First source of the routing
+	 */
+	@XmlTransient
 	public Source getSource() {
-		return source;
+		return sources!=null && !sources.isEmpty() ? sources.get(0) : null;
 	}
+	/**
+	 * Set the (single) source of the routing
+	 * @param source
+	 */
 	public void setSource(Source source) {
-		this.source = source;
+		this.sources = new ArrayList<>();
+		this.sources.add(source);
+	}
+	@XmlAttribute
+	public Distribution getDistribution() {
+		return distribution;
+	}
+	public void setDistribution(Distribution distribution) {
+		this.distribution = distribution;
+	}
+	@XmlAttribute
+	public Scheduling getScheduling() {
+		return scheduling;
+	}
+	public void setScheduling(Scheduling scheduling) {
+		this.scheduling = scheduling;
 	}
 	@XmlElement(name="destination")
 	public List<Destination> getDestinations() {
@@ -62,4 +195,95 @@ public class Routing {
 	public void setDestinations(List<Destination> destinations) {
 		this.destinations = destinations;
 	}
+	@XmlAttribute
+	public int getContext() {
+		return context;
+	}
+	public void setContext(int context) {
+		this.context = context;
+	}
+	@XmlAttribute
+	public int getCache() {
+		return cache;
+	}
+	public void setCache(int cache) {
+		this.cache = cache;
+	}
+	@XmlAttribute
+	public Execution getExecution() {
+		return execution;
+	}
+	public void setExecution(Execution execution) {
+		this.execution = execution;
+	}
+	@XmlAttribute
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+	public void setWaitStrategy(WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+	@XmlAttribute
+	public int getCpu() {
+		return cpu;
+	}
+	public void setCpu(int cpu) {
+		this.cpu = cpu;
+	}
+	@XmlAttribute
+	public Latency getLatency() {
+		return latency;
+	}
+	public void setLatency(Latency latency) {
+		this.latency = latency;
+	}
+	@XmlAttribute
+	public int getLatencySampling() {
+		return latencySampling;
+	}
+	public void setLatencySampling(int latencySampling) {
+		this.latencySampling = latencySampling;
+	}
+	@XmlAttribute
+	public String getTimestamp() {
+		return timestamp;
+	}
+	public void setTimestamp(String timestamp) {
+		this.timestamp = timestamp;
+	}
+	@XmlAttribute
+	public String getSequence() {
+		return sequence;
+	}
+	public void setSequence(String sequence) {
+		this.sequence = sequence;
+	}
+	@XmlAttribute
+	public int getSequenceFrame() {
+		return sequenceFrame;
+	}
+	public void setSequenceFrame(int sequenceFrame) {
+		this.sequenceFrame = sequenceFrame;
+	}
+	@XmlAttribute
+	public int getSequenceOffset() {
+		return sequenceOffset;
+	}
+	public void setSequenceOffset(int sequenceOffset) {
+		this.sequenceOffset = sequenceOffset;
+	}
+	@XmlAttribute
+	public int getSequenceSize() {
+		return sequenceSize;
+	}
+	public void setSequenceSize(int sequenceSize) {
+		this.sequenceSize = sequenceSize;
+	}
+	@XmlAttribute
+	public ByteOrder getSequenceOrder() {
+		return sequenceOrder;
+	}
+	public void setSequenceOrder(ByteOrder sequenceOrder) {
+		this.sequenceOrder = sequenceOrder;
+	}
 }
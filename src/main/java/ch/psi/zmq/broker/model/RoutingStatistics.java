@@ -0,0 +1,110 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Statistics of a routing
+ * @author ebner
+ *
+ */
+public class RoutingStatistics {
+	
+	private String name;
+	
+	private long messages;
+	private long frames;
+	private long bytes;
+	
+	/**
+	 * Number of received messages consisting of more than one frame
+	 */
+	private long multipart;
+	
+	/**
+	 * Messages per second (average over the statistics window)
+	 */
+	private double messageRate;
+	
+	/**
+	 * Bytes per second (average over the statistics window)
+	 */
+	private double byteRate;
+	
+	private List<SourceStatistics> sources = new ArrayList<>();
+	private List<DestinationStatistics> destinations = new ArrayList<>();
+	
+	public String getName() {
+		return name;
+	}
+	public void setName(String name) {
+		this.name = name;
+	}
+	public long getMessages() {
+		return messages;
+	}
+	public void setMessages(long messages) {
+		this.messages = messages;
+	}
+	public long getFrames() {
+		return frames;
+	}
+	public void setFrames(long frames) {
+		this.frames = frames;
+	}
+	public long getBytes() {
+		return bytes;
+	}
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+	public long getMultipart() {
+		return multipart;
+	}
+	public void setMultipart(long multipart) {
+		this.multipart = multipart;
+	}
+	public double getMessageRate() {
+		return messageRate;
+	}
+	public void setMessageRate(double messageRate) {
+		this.messageRate = messageRate;
+	}
+	public double getByteRate() {
+		return byteRate;
+	}
+	public void setByteRate(double byteRate) {
+		this.byteRate = byteRate;
+	}
+	public List<SourceStatistics> getSources() {
+		return sources;
+	}
+	public void setSources(List<SourceStatistics> sources) {
+		this.sources = sources;
+	}
+	public List<DestinationStatistics> getDestinations() {
+		return destinations;
+	}
+	public void setDestinations(List<DestinationStatistics> destinations) {
+		this.destinations = destinations;
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker.model;
+
+/**
+ * Irregularity in the sequence numbers of the messages of a routing
+ * @author ebner
+ *
+ */
+public class SequenceEvent {
+	
+	/**
+	 * Type of the event - GAP (messages missing at the source), DUPLICATE (sequence number received again),
+	 * REORDERED (message arrived late), RESET (sequence restarted at the source), DROPPED (messages dropped by
+	 * the broker for a destination)
+	 */
+	public enum Type {GAP, DUPLICATE, REORDERED, RESET, DROPPED};
+	
+	private String routing;
+	private Type type;
+	
+	/**
+	 * Address of the source (DROPPED: destination)
+	 */
+	private String address;
+	
+	/**
+	 * Range of the sequence numbers concerned (inclusive)
+	 */
+	private long first;
+	private long last;
+	
+	/**
+	 * Number of messages concerned (GAP: missing, DROPPED: dropped)
+	 */
+	private long messages;
+	
+	/**
+	 * Time of the event (milliseconds since epoch)
+	 */
+	private long time;
+	
+	public String getRouting() {
+		return routing;
+	}
+	public void setRouting(String routing) {
+		this.routing = routing;
+	}
+	public Type getType() {
+		return type;
+	}
+	public void setType(Type type) {
+		this.type = type;
+	}
+	public String getAddress() {
+		return address;
+	}
+	public void setAddress(String address) {
+		this.address = address;
+	}
+	public long getFirst() {
+		return first;
+	}
+	public void setFirst(long first) {
+		this.first = first;
+	}
+	public long getLast() {
+		return last;
+	}
+	public void setLast(long last) {
+		this.last = last;
+	}
+	public long getMessages() {
+		return messages;
+	}
+	public void setMessages(long messages) {
+		this.messages = messages;
+	}
+	public long getTime() {
+		return time;
+	}
+	public void setTime(long time) {
+		this.time = time;
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker.model;
+
+/**
+ * Sequence tracking of a source (routings tracking sequence numbers)
+ * @author ebner
+ *
+ */
+public class SequenceStatistics {
+	
+	/**
+	 * Highest sequence number received
+	 */
+	private long last;
+	
+	/**
+	 * Number of gaps, i.e. jumps ahead in the sequence
+	 */
+	private long gaps;
+	
+	/**
+	 * Number of messages missing in the gaps (messages arriving late are not counted as missing)
+	 */
+	private long missing;
+	
+	/**
+	 * Messages with a sequence number that was already received
+	 */
+	private long duplicates;
+	
+	/**
+	 * Messages that arrived late, i.e. after a message with a higher sequence number
+	 */
+	private long reordered;
+	
+	/**
+	 * Restarts of the sequence (sequence number far behind the highest sequence number received)
+	 */
+	private long resets;
+	
+	public long getLast() {
+		return last;
+	}
+	public void setLast(long last) {
+		this.last = last;
+	}
+	public long getGaps() {
+		return gaps;
+	}
+	public void setGaps(long gaps) {
+		this.gaps = gaps;
+	}
+	public long getMissing() {
+		return missing;
+	}
+	public void setMissing(long missing) {
+		this.missing = missing;
+	}
+	public long getDuplicates() {
+		return duplicates;
+	}
+	public void setDuplicates(long duplicates) {
+		this.duplicates = duplicates;
+	}
+	public long getReordered() {
+		return reordered;
+	}
+	public void setReordered(long reordered) {
+		this.reordered = reordered;
+	}
+	public long getResets() {
+		return resets;
+	}
+	public void setResets(long resets) {
+		this.resets = resets;
+	}
+}
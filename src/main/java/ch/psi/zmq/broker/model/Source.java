@@ -19,8 +19,15 @@
 
 package ch.psi.zmq.broker.model;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
 import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
 
+import ch.psi.zmq.broker.model.Routing.Batching;
+import ch.psi.zmq.broker.model.Routing.Compression;
 import ch.psi.zmq.broker.model.Routing.Type;
 
 public class Source {
@@ -40,6 +47,38 @@ public class Source {
 	 * Number of messages that can be buffered on the receiving side
 	 */
 	private int buffer = 5;
+	
+	/**
+	 * Topic prefixes subscribed to (SUB sources only). If empty all topics are subscribed.
+	 */
+	private List<String> topics = new ArrayList<>();
+	
+	/**
+	 * Number of messages taken from this source in turn (WEIGHTED scheduling of the routing)
+	 */
+	private int weight = 1;
+	
+	/**
+	 * Format of the message batches received from this source (e.g. from a batching destination of another broker).
+	 * The batches are split into the individual messages again.
+	 */
+	private Batching unbatch = Batching.NONE;
+	
+	/**
+	 * Compression of the frames received from this source (e.g. from a compressing destination of another broker).
+	 * The frames are decompressed before they are routed.
+	 */
+	private Compression decompress = Compression.NONE;
+	
+	/**
+	 * Replay speed of a recording (FILE sources) relative to the original speed (0 = as fast as possible)
+	 */
+	private double speed = 1;
+	
+	/**
+	 * Replay the recording (FILE sources) over and over again
+	 */
+	private boolean loop = false;
 
 
 	@XmlAttribute
@@ -63,4 +102,70 @@ public class Source {
 	public void setBuffer(int buffer) {
 		this.buffer = buffer;
 	}
+	@XmlAttribute
+	public int getWeight() {
+		return weight;
+	}
+	public void setWeight(int weight) {
+		this.weight = weight;
+	}
+	@XmlAttribute
+	public Batching getUnbatch() {
+		return unbatch;
+	}
+	public void setUnbatch(Batching unbatch) {
+		this.unbatch = unbatch;
+	}
+	@XmlAttribute
+	public Compression getDecompress() {
+		return decompress;
+	}
+	public void setDecompress(Compression decompress) {
+		this.decompress = decompress;
+	}
+	@XmlAttribute
+	public double getSpeed() {
+		return speed;
+	}
+	public void setSpeed(double speed) {
+		this.speed = speed;
+	}
+	@XmlAttribute
+	public boolean isLoop() {
+		return loop;
+	}
+	public void setLoop(boolean loop) {
+		this.loop = loop;
+	}
+	@XmlElement(name="topic")
+	public List<String> getTopics() {
+		return topics;
+	}
+	public void setTopics(List<String> topics) {
+		this.topics = topics;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if(this==obj){
+			return true;
+		}
+		if(!(obj instanceof Source)){
+			return false;
+		}
+		Source o = (Source) obj;
+		return Objects.equals(address, o.address)
+				&& type==o.type
+				&& buffer==o.buffer
+				&& weight==o.weight
+				&& Objects.equals(topics, o.topics)
+				&& unbatch==o.unbatch
+				&& decompress==o.decompress
+				&& speed==o.speed
+				&& loop==o.loop;
+	}
+	@Override
+	public int hashCode() {
+		return Objects.hash(address, type, buffer, weight, topics, unbatch, decompress, speed, loop);
+	}
 }
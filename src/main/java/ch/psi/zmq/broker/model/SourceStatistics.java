@@ -0,0 +1,103 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker.model;
+
+/**
+ * Statistics of a source of a routing
+ * @author ebner
+ *
+ */
+public class SourceStatistics {
+	
+	private String address;
+	
+	private long messages;
+	private long frames;
+	private long bytes;
+	
+	/**
+	 * Messages per second (average over the statistics window)
+	 */
+	private double messageRate;
+	
+	/**
+	 * Bytes per second (average over the statistics window)
+	 */
+	private double byteRate;
+	
+	/**
+	 * Sequence tracking (null if the routing does not track sequence numbers)
+	 */
+	private SequenceStatistics sequence;
+	
+	/**
+	 * Frames that could not be decompressed (passed on as received, sources decompressing frames only)
+	 */
+	private long invalid;
+	
+	public String getAddress() {
+		return address;
+	}
+	public void setAddress(String address) {
+		this.address = address;
+	}
+	public long getMessages() {
+		return messages;
+	}
+	public void setMessages(long messages) {
+		this.messages = messages;
+	}
+	public long getFrames() {
+		return frames;
+	}
+	public void setFrames(long frames) {
+		this.frames = frames;
+	}
+	public long getBytes() {
+		return bytes;
+	}
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+	public double getMessageRate() {
+		return messageRate;
+	}
+	public void setMessageRate(double messageRate) {
+		this.messageRate = messageRate;
+	}
+	public double getByteRate() {
+		return byteRate;
+	}
+	public void setByteRate(double byteRate) {
+		this.byteRate = byteRate;
+	}
+	public SequenceStatistics getSequence() {
+		return sequence;
+	}
+	public void setSequence(SequenceStatistics sequence) {
+		this.sequence = sequence;
+	}
+	public long getInvalid() {
+		return invalid;
+	}
+	public void setInvalid(long invalid) {
+		this.invalid = invalid;
+	}
+}
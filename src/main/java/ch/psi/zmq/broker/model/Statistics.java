@@ -0,0 +1,98 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Aggregated statistics of all routings of the broker
+ * @author ebner
+ *
+ */
+public class Statistics {
+	
+	private long messagesIn;
+	private long bytesIn;
+	private long messagesOut;
+	private long bytesOut;
+	
+	private double messageRateIn;
+	private double byteRateIn;
+	private double messageRateOut;
+	private double byteRateOut;
+	
+	private List<RoutingStatistics> routing = new ArrayList<>();
+	
+	public long getMessagesIn() {
+		return messagesIn;
+	}
+	public void setMessagesIn(long messagesIn) {
+		this.messagesIn = messagesIn;
+	}
+	public long getBytesIn() {
+		return bytesIn;
+	}
+	public void setBytesIn(long bytesIn) {
+		this.bytesIn = bytesIn;
+	}
+	public long getMessagesOut() {
+		return messagesOut;
+	}
+	public void setMessagesOut(long messagesOut) {
+		this.messagesOut = messagesOut;
+	}
+	public long getBytesOut() {
+		return bytesOut;
+	}
+	public void setBytesOut(long bytesOut) {
+		this.bytesOut = bytesOut;
+	}
+	public double getMessageRateIn() {
+		return messageRateIn;
+	}
+	public void setMessageRateIn(double messageRateIn) {
+		this.messageRateIn = messageRateIn;
+	}
+	public double getByteRateIn() {
+		return byteRateIn;
+	}
+	public void setByteRateIn(double byteRateIn) {
+		this.byteRateIn = byteRateIn;
+	}
+	public double getMessageRateOut() {
+		return messageRateOut;
+	}
+	public void setMessageRateOut(double messageRateOut) {
+		this.messageRateOut = messageRateOut;
+	}
+	public double getByteRateOut() {
+		return byteRateOut;
+	}
+	public void setByteRateOut(double byteRateOut) {
+		this.byteRateOut = byteRateOut;
+	}
+	public List<RoutingStatistics> getRouting() {
+		return routing;
+	}
+	public void setRouting(List<RoutingStatistics> routing) {
+		this.routing = routing;
+	}
+}
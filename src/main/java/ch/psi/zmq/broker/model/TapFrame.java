@@ -0,0 +1,64 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker.model;
+
+/**
+ * Frame of a message seen by a tap (see {@link TapMessage})
+ * @author ebner
+ *
+ */
+public class TapFrame {
+	
+	/**
+	 * Encoding of the preview - UTF8 (frame is text), HEX (binary frame)
+	 */
+	public enum Encoding {UTF8, HEX};
+	
+	/**
+	 * Size of the frame in bytes
+	 */
+	private int size;
+	
+	private Encoding encoding;
+	
+	/**
+	 * First bytes of the frame
+	 */
+	private String preview;
+	
+	public int getSize() {
+		return size;
+	}
+	public void setSize(int size) {
+		this.size = size;
+	}
+	public Encoding getEncoding() {
+		return encoding;
+	}
+	public void setEncoding(Encoding encoding) {
+		this.encoding = encoding;
+	}
+	public String getPreview() {
+		return preview;
+	}
+	public void setPreview(String preview) {
+		this.preview = preview;
+	}
+}
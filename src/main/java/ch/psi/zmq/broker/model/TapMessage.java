@@ -0,0 +1,74 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Message of a routing as seen by a tap (see {@link ch.psi.zmq.broker.Tap})
+ * @author ebner
+ *
+ */
+public class TapMessage {
+	
+	/**
+	 * Number of the message within the routing
+	 */
+	private long sequence;
+	
+	/**
+	 * Time (epoch millis) the message was received by the broker
+	 */
+	private long timestamp;
+	
+	/**
+	 * First frame parsed as JSON object (null if the first frame is no JSON object)
+	 */
+	private Map<String, Object> header;
+	
+	private List<TapFrame> frames = new ArrayList<>();
+	
+	public long getSequence() {
+		return sequence;
+	}
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+	public long getTimestamp() {
+		return timestamp;
+	}
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+	public Map<String, Object> getHeader() {
+		return header;
+	}
+	public void setHeader(Map<String, Object> header) {
+		this.header = header;
+	}
+	public List<TapFrame> getFrames() {
+		return frames;
+	}
+	public void setFrames(List<TapFrame> frames) {
+		this.frames = frames;
+	}
+}
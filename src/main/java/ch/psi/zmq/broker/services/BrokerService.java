@@ -19,14 +19,21 @@
 
 package ch.psi.zmq.broker.services;
 
+import java.util.List;
+
 import javax.inject.Inject;
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.core.MediaType;
 
 import org.glassfish.jersey.media.sse.EventOutput;
@@ -35,8 +42,13 @@ import org.glassfish.jersey.media.sse.SseBroadcaster;
 import org.glassfish.jersey.media.sse.SseFeature;
 
 import ch.psi.zmq.broker.Broker;
+import ch.psi.zmq.broker.Tap;
+import ch.psi.zmq.broker.model.Change;
 import ch.psi.zmq.broker.model.Configuration;
+import ch.psi.zmq.broker.model.Message;
 import ch.psi.zmq.broker.model.Routing;
+import ch.psi.zmq.broker.model.RoutingStatistics;
+import ch.psi.zmq.broker.model.Statistics;
 
 @Path("")
 public class BrokerService {
@@ -54,11 +66,22 @@ public class BrokerService {
 		return broker.getConfiguration();
 	}
 	
+	/**
+	 * Apply new configuration. Only routings that changed are touched. With dryrun=true the changes
+	 * are only reported but not applied.
+	 * @param configuration
+	 * @param dryrun
+	 * @return	Changes (to be) applied
+	 */
 	@PUT
 	@Path("broker")
 	@Consumes({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
-	public void setConfiguration(Configuration configuration){
-		broker.setConfiguration(configuration);
+	@Produces(MediaType.APPLICATION_JSON)
+	public List<Change> setConfiguration(Configuration configuration, @QueryParam("dryrun") boolean dryrun){
+		if(dryrun){
+			return broker.getChanges(configuration);
+		}
+		List<Change> changes = broker.setConfiguration(configuration);
 		
 		// Broadcast new stream list
 		OutboundEvent.Builder eventBuilder = new OutboundEvent.Builder();
@@ -66,7 +89,8 @@ public class BrokerService {
 				            .mediaType(MediaType.APPLICATION_JSON_TYPE)
 				            .data(Configuration.class, broker.getConfiguration())
 				            .build();
-		broadcaster.broadcast(event);			
+		broadcaster.broadcast(event);
+		return changes;
 	}
 	
 	@DELETE
@@ -123,6 +147,80 @@ public class BrokerService {
 		broadcaster.broadcast(event);
 	}
 	
+	@GET
+	@Path("broker/{routing-id}/stats")
+	@Produces(MediaType.APPLICATION_JSON)
+	public RoutingStatistics getRoutingStatistics(@PathParam("routing-id") String name){
+		return broker.getStatistics(name);
+	}
+	
+	@GET
+	@Path("broker/{routing-id}/last")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Message getLastMessage(@PathParam("routing-id") String name){
+		return broker.getLastMessage(name);
+	}
+	
+	@GET
+	@Path("broker/{routing-id}/last/{frame}")
+	@Produces(MediaType.APPLICATION_OCTET_STREAM)
+	public byte[] getLastMessageFrame(@PathParam("routing-id") String name, @PathParam("frame") int frame){
+		Message m = broker.getLastMessage(name);
+		if(m==null || frame<0 || frame>=m.getFrames().size()){
+			return null;
+		}
+		return m.getFrames().get(frame);
+	}
+	
+	/**
+	 * Stream sampled messages of a routing (frame sizes, preview of the first bytes of each frame, parsed JSON header)
+	 * @param name
+	 * @param sample	Get every Nth message
+	 * @param bytes		Maximum number of bytes of the preview of a frame
+	 * @param count		Number of messages after which the stream is closed (0 = unlimited)
+	 * @return
+	 * @throws BadRequestException	If a parameter is out of range
+	 * @throws ServiceUnavailableException	If the maximum number of concurrent taps is reached
+	 */
+	@GET
+	@Path("broker/{routing-id}/tap")
+	@Produces(SseFeature.SERVER_SENT_EVENTS)
+	public EventOutput tap(@PathParam("routing-id") String name, @QueryParam("sample") @DefaultValue("1") int sample,
+			@QueryParam("bytes") @DefaultValue("64") int bytes, @QueryParam("count") @DefaultValue("0") int count){
+		if(sample<1 || bytes<0 || count<0){
+			throw new BadRequestException("Invalid tap parameters - sample needs to be >0, bytes and count >=0");
+		}
+		Tap tap = broker.getTap(name);
+		if(tap==null){
+			throw new NotFoundException("Routing "+name+" does not exist");
+		}
+		EventOutput output = new EventOutput();
+		Tap.Subscription subscription = tap.subscribe(sample);
+		if(!broker.publishTap(new TapPublisher(subscription, output, bytes, count))){
+			subscription.unsubscribe();
+			throw new ServiceUnavailableException("Maximum number of concurrent taps ("+Broker.MAX_TAPS+") reached");
+		}
+		return output;
+	}
+	
+	@GET
+	@Path("stats")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Statistics getStatistics(){
+		return broker.getStatistics();
+	}
+	
+	/**
+	 * Statistics of all routings in Prometheus text format (snapshot, see {@link Broker#getSnapshot()})
+	 * @return
+	 */
+	@GET
+	@Path("metrics")
+	@Produces(PrometheusFormat.CONTENT_TYPE)
+	public String getMetrics(){
+		return PrometheusFormat.format(broker.getSnapshot());
+	}
+	
 	@GET
     @Path("events")
     @Produces(SseFeature.SERVER_SENT_EVENTS)
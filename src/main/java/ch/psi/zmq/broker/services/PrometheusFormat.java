@@ -0,0 +1,305 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker.services;
+
+import ch.psi.zmq.broker.model.DestinationStatistics;
+import ch.psi.zmq.broker.model.LatencyStatistics;
+import ch.psi.zmq.broker.model.RoutingStatistics;
+import ch.psi.zmq.broker.model.SourceStatistics;
+import ch.psi.zmq.broker.model.Statistics;
+
+/**
+ * Formats the statistics of the broker in the Prometheus text exposition format (version 0.0.4).
+ * Metrics are labeled with the name of the routing and the address of the source/destination.
+ * @author ebner
+ *
+ */
+public class PrometheusFormat {
+	
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+	
+	private static final String PREFIX = "zmq_broker_";
+	
+	private static final String[] QUANTILES = {"0.5", "0.99", "0.999", "1"};
+	
+	private final StringBuilder b = new StringBuilder();
+	
+	/**
+	 * @param statistics
+	 * @return	Statistics in Prometheus text format
+	 */
+	public static String format(Statistics statistics){
+		return new PrometheusFormat().append(statistics).toString();
+	}
+	
+	private PrometheusFormat append(Statistics s){
+		header("messages_in_total", "counter", "Messages received by the routing");
+		for(RoutingStatistics r: s.getRouting()){
+			sample("messages_in_total", r.getName(), null, null, r.getMessages());
+		}
+		header("bytes_in_total", "counter", "Bytes received by the routing");
+		for(RoutingStatistics r: s.getRouting()){
+			sample("bytes_in_total", r.getName(), null, null, r.getBytes());
+		}
+		header("message_rate_in", "gauge", "Messages per second received by the routing");
+		for(RoutingStatistics r: s.getRouting()){
+			sample("message_rate_in", r.getName(), null, null, r.getMessageRate());
+		}
+		header("byte_rate_in", "gauge", "Bytes per second received by the routing");
+		for(RoutingStatistics r: s.getRouting()){
+			sample("byte_rate_in", r.getName(), null, null, r.getByteRate());
+		}
+		
+		header("source_messages_total", "counter", "Messages received from the source");
+		for(RoutingStatistics r: s.getRouting()){
+			for(SourceStatistics so: r.getSources()){
+				sample("source_messages_total", r.getName(), "source", so.getAddress(), so.getMessages());
+			}
+		}
+		header("source_message_rate", "gauge", "Messages per second received from the source");
+		for(RoutingStatistics r: s.getRouting()){
+			for(SourceStatistics so: r.getSources()){
+				sample("source_message_rate", r.getName(), "source", so.getAddress(), so.getMessageRate());
+			}
+		}
+		header("source_invalid_frames_total", "counter", "Frames of the source that could not be decompressed");
+		for(RoutingStatistics r: s.getRouting()){
+			for(SourceStatistics so: r.getSources()){
+				sample("source_invalid_frames_total", r.getName(), "source", so.getAddress(), so.getInvalid());
+			}
+		}
+		
+		header("source_sequence_gaps_total", "counter", "Gaps in the sequence numbers of the source");
+		for(RoutingStatistics r: s.getRouting()){
+			for(SourceStatistics so: r.getSources()){
+				if(so.getSequence()!=null){
+					sample("source_sequence_gaps_total", r.getName(), "source", so.getAddress(), so.getSequence().getGaps());
+				}
+			}
+		}
+		header("source_sequence_missing_total", "counter", "Messages missing in the sequence of the source");
+		for(RoutingStatistics r: s.getRouting()){
+			for(SourceStatistics so: r.getSources()){
+				if(so.getSequence()!=null){
+					sample("source_sequence_missing_total", r.getName(), "source", so.getAddress(), so.getSequence().getMissing());
+				}
+			}
+		}
+		header("source_sequence_duplicates_total", "counter", "Messages of the source with a sequence number received before");
+		for(RoutingStatistics r: s.getRouting()){
+			for(SourceStatistics so: r.getSources()){
+				if(so.getSequence()!=null){
+					sample("source_sequence_duplicates_total", r.getName(), "source", so.getAddress(), so.getSequence().getDuplicates());
+				}
+			}
+		}
+		header("source_sequence_reordered_total", "counter", "Messages of the source that arrived late");
+		for(RoutingStatistics r: s.getRouting()){
+			for(SourceStatistics so: r.getSources()){
+				if(so.getSequence()!=null){
+					sample("source_sequence_reordered_total", r.getName(), "source", so.getAddress(), so.getSequence().getReordered());
+				}
+			}
+		}
+		header("source_sequence_resets_total", "counter", "Restarts of the sequence numbers of the source");
+		for(RoutingStatistics r: s.getRouting()){
+			for(SourceStatistics so: r.getSources()){
+				if(so.getSequence()!=null){
+					sample("source_sequence_resets_total", r.getName(), "source", so.getAddress(), so.getSequence().getResets());
+				}
+			}
+		}
+		
+		header("destination_messages_total", "counter", "Messages sent to the destination");
+		for(RoutingStatistics r: s.getRouting()){
+			for(DestinationStatistics d: r.getDestinations()){
+				sample("destination_messages_total", r.getName(), "destination", d.getAddress(), d.getMessages());
+			}
+		}
+		header("destination_bytes_total", "counter", "Bytes sent to the destination");
+		for(RoutingStatistics r: s.getRouting()){
+			for(DestinationStatistics d: r.getDestinations()){
+				sample("destination_bytes_total", r.getName(), "destination", d.getAddress(), d.getBytes());
+			}
+		}
+		header("destination_message_rate", "gauge", "Messages per second sent to the destination");
+		for(RoutingStatistics r: s.getRouting()){
+			for(DestinationStatistics d: r.getDestinations()){
+				sample("destination_message_rate", r.getName(), "destination", d.getAddress(), d.getMessageRate());
+			}
+		}
+		header("destination_byte_rate", "gauge", "Bytes per second sent to the destination");
+		for(RoutingStatistics r: s.getRouting()){
+			for(DestinationStatistics d: r.getDestinations()){
+				sample("destination_byte_rate", r.getName(), "destination", d.getAddress(), d.getByteRate());
+			}
+		}
+		header("destination_skipped_total", "counter", "Messages not sent because of the reduced frequency/rate of the destination");
+		for(RoutingStatistics r: s.getRouting()){
+			for(DestinationStatistics d: r.getDestinations()){
+				sample("destination_skipped_total", r.getName(), "destination", d.getAddress(), d.getSkipped());
+			}
+		}
+		header("destination_dropped_total", "counter", "Messages dropped because buffer and queue/spill journal were full");
+		for(RoutingStatistics r: s.getRouting()){
+			for(DestinationStatistics d: r.getDestinations()){
+				sample("destination_dropped_total", r.getName(), "destination", d.getAddress(), d.getDropped());
+			}
+		}
+		header("destination_sequence_gaps_total", "counter", "Runs of messages dropped for the destination (routings tracking sequence numbers)");
+		for(RoutingStatistics r: s.getRouting()){
+			if(!isTracked(r)){
+				continue;
+			}
+			for(DestinationStatistics d: r.getDestinations()){
+				sample("destination_sequence_gaps_total", r.getName(), "destination", d.getAddress(), d.getGaps());
+			}
+		}
+		header("destination_hwm_total", "counter", "Sends that hit the high water mark of the destination");
+		for(RoutingStatistics r: s.getRouting()){
+			for(DestinationStatistics d: r.getDestinations()){
+				sample("destination_hwm_total", r.getName(), "destination", d.getAddress(), d.getHwm());
+			}
+		}
+		header("destination_disconnects_total", "counter", "Disconnects of the receivers of the destination");
+		for(RoutingStatistics r: s.getRouting()){
+			for(DestinationStatistics d: r.getDestinations()){
+				sample("destination_disconnects_total", r.getName(), "destination", d.getAddress(), d.getDisconnects());
+			}
+		}
+		header("destination_queue_messages", "gauge", "Messages in the queue or spill journal of the destination");
+		for(RoutingStatistics r: s.getRouting()){
+			for(DestinationStatistics d: r.getDestinations()){
+				sample("destination_queue_messages", r.getName(), "destination", d.getAddress(), d.getQueueMessages()+d.getSpillMessages());
+			}
+		}
+		header("destination_queue_bytes", "gauge", "Bytes in the queue or spill journal of the destination");
+		for(RoutingStatistics r: s.getRouting()){
+			for(DestinationStatistics d: r.getDestinations()){
+				sample("destination_queue_bytes", r.getName(), "destination", d.getAddress(), d.getQueueBytes()+d.getSpillBytes());
+			}
+		}
+		
+		header("destination_residence_seconds", "summary", "Time from receiving a message to starting to send it");
+		for(RoutingStatistics r: s.getRouting()){
+			for(DestinationStatistics d: r.getDestinations()){
+				summary("destination_residence_seconds", r.getName(), d.getAddress(), d.getResidence());
+			}
+		}
+		header("destination_sending_seconds", "summary", "Time spent sending the frames of a message");
+		for(RoutingStatistics r: s.getRouting()){
+			for(DestinationStatistics d: r.getDestinations()){
+				summary("destination_sending_seconds", r.getName(), d.getAddress(), d.getSending());
+			}
+		}
+		header("destination_end_to_end_seconds", "summary", "Time from the creation of a message to starting to send it");
+		for(RoutingStatistics r: s.getRouting()){
+			for(DestinationStatistics d: r.getDestinations()){
+				summary("destination_end_to_end_seconds", r.getName(), d.getAddress(), d.getEndToEnd());
+			}
+		}
+		return this;
+	}
+	
+	/**
+	 * @return	true if the routing tracks sequence numbers
+	 */
+	private static boolean isTracked(RoutingStatistics r){
+		for(SourceStatistics so: r.getSources()){
+			if(so.getSequence()!=null){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void header(String name, String type, String help){
+		b.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+		b.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+	}
+	
+	private void sample(String name, String routing, String label, String value, double sample){
+		b.append(PREFIX).append(name);
+		labels(routing, label, value, null);
+		b.append(' ').append(sample).append('\n');
+	}
+	
+	private void sample(String name, String routing, String label, String value, long sample){
+		b.append(PREFIX).append(name);
+		labels(routing, label, value, null);
+		b.append(' ').append(sample).append('\n');
+	}
+	
+	/**
+	 * Latency percentiles as summary (quantiles in seconds, no sum available)
+	 */
+	private void summary(String name, String routing, String destination, LatencyStatistics l){
+		if(l==null){
+			return; // Latency not recorded
+		}
+		double[] values = {l.getP50(), l.getP99(), l.getP999(), l.getMax()};
+		for(int i=0;i<QUANTILES.length;i++){
+			b.append(PREFIX).append(name);
+			labels(routing, "destination", destination, QUANTILES[i]);
+			b.append(' ').append(values[i]/1e6).append('\n');
+		}
+		b.append(PREFIX).append(name).append("_count");
+		labels(routing, "destination", destination, null);
+		b.append(' ').append(l.getCount()).append('\n');
+	}
+	
+	private void labels(String routing, String label, String value, String quantile){
+		b.append("{routing=\"");
+		escape(routing);
+		b.append('"');
+		if(label!=null){
+			b.append(',').append(label).append("=\"");
+			escape(value);
+			b.append('"');
+		}
+		if(quantile!=null){
+			b.append(",quantile=\"").append(quantile).append('"');
+		}
+		b.append('}');
+	}
+	
+	private void escape(String value){
+		if(value==null){
+			return;
+		}
+		for(int i=0;i<value.length();i++){
+			char c = value.charAt(i);
+			if(c=='\\' || c=='"'){
+				b.append('\\').append(c);
+			}
+			else if(c=='\n'){
+				b.append("\\n");
+			}
+			else{
+				b.append(c);
+			}
+		}
+	}
+	
+	@Override
+	public String toString(){
+		return b.toString();
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker.services;
+
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.WeakHashMap;
+
+import javax.ws.rs.core.MediaType;
+
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.glassfish.jersey.media.sse.SseBroadcaster;
+
+import ch.psi.zmq.broker.Broker;
+import ch.psi.zmq.broker.SequenceTracker;
+import ch.psi.zmq.broker.model.SequenceEvent;
+
+/**
+ * Periodically broadcasts the new sequence events of all routings (gaps, duplicates, reordering and messages
+ * dropped by the broker) as <code>sequence</code> server sent events. The events are taken from the ring of the
+ * sequence trackers, i.e. the routing threads are never blocked.
+ * @author ebner
+ *
+ */
+public class SequencePublisher extends TimerTask {
+	
+	private final Broker broker;
+	private final SseBroadcaster broadcaster;
+	
+	/**
+	 * Number of events already published per tracker
+	 */
+	private final Map<SequenceTracker, Long> published = new WeakHashMap<>();
+	
+	public SequencePublisher(Broker broker, SseBroadcaster broadcaster){
+		this.broker = broker;
+		this.broadcaster = broadcaster;
+	}
+
+	@Override
+	public void run() {
+		for(SequenceTracker tracker: broker.getSequenceTrackers()){
+			Long from = published.get(tracker);
+			long to = tracker.getEventCount();
+			for(SequenceEvent e: tracker.getEvents(from!=null ? from : 0, to)){
+				OutboundEvent.Builder eventBuilder = new OutboundEvent.Builder();
+				OutboundEvent event = eventBuilder.name("sequence")
+						.mediaType(MediaType.APPLICATION_JSON_TYPE)
+						.data(SequenceEvent.class, e)
+						.build();
+				broadcaster.broadcast(event);
+			}
+			published.put(tracker, to);
+		}
+	}
+}
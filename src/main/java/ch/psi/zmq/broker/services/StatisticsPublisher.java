@@ -0,0 +1,58 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker.services;
+
+import java.util.TimerTask;
+
+import javax.ws.rs.core.MediaType;
+
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.glassfish.jersey.media.sse.SseBroadcaster;
+
+import ch.psi.zmq.broker.Broker;
+import ch.psi.zmq.broker.model.Statistics;
+
+/**
+ * Periodically broadcasts the statistics snapshot of the broker (see {@link Broker#getSnapshot()}) as
+ * <code>stats</code> server sent event. The snapshot is serialized once per event for all clients, the
+ * routers are never touched.
+ * @author ebner
+ *
+ */
+public class StatisticsPublisher extends TimerTask {
+	
+	private final Broker broker;
+	private final SseBroadcaster broadcaster;
+	
+	public StatisticsPublisher(Broker broker, SseBroadcaster broadcaster){
+		this.broker = broker;
+		this.broadcaster = broadcaster;
+	}
+
+	@Override
+	public void run() {
+		OutboundEvent.Builder eventBuilder = new OutboundEvent.Builder();
+		OutboundEvent event = eventBuilder.name("stats")
+				.mediaType(MediaType.APPLICATION_JSON_TYPE)
+				.data(Statistics.class, broker.getSnapshot())
+				.build();
+		broadcaster.broadcast(event);
+	}
+}
@@ -0,0 +1,188 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.core.MediaType;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+
+import zmq.Msg;
+import ch.psi.zmq.broker.Tap;
+import ch.psi.zmq.broker.model.TapFrame;
+import ch.psi.zmq.broker.model.TapMessage;
+
+/**
+ * Streams the messages of a tap subscription to a client as <code>message</code> server sent events.
+ * Runs on a thread of its own (see {@link ch.psi.zmq.broker.Broker#publishTap(Runnable)}), i.e. a slow client only
+ * delays itself (see {@link Tap}).
+ * @author ebner
+ *
+ */
+public class TapPublisher implements Runnable {
+	
+	private static final Logger logger = Logger.getLogger(TapPublisher.class.getName());
+	
+	/**
+	 * Time in milliseconds between checks for new messages
+	 */
+	private static final long INTERVAL = 20;
+	/**
+	 * Time in milliseconds after which a comment is sent if there were no messages (detects disconnected clients)
+	 */
+	private static final long KEEPALIVE = 5000;
+	
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	private final ObjectMapper mapper = new ObjectMapper();
+	
+	private final Tap.Subscription subscription;
+	private final EventOutput output;
+	private final int bytes;
+	private final int count;
+	
+	/**
+	 * @param subscription
+	 * @param output
+	 * @param bytes	Maximum number of bytes of the preview of a frame
+	 * @param count	Number of messages after which the stream is closed (0 = unlimited)
+	 */
+	public TapPublisher(Tap.Subscription subscription, EventOutput output, int bytes, int count){
+		this.subscription = subscription;
+		this.output = output;
+		this.bytes = bytes;
+		this.count = count;
+	}
+
+	@Override
+	public void run() {
+		try{
+			int n = 0;
+			long last = System.currentTimeMillis();
+			while(!subscription.isClosed() && !output.isClosed() && (count==0 || n<count)){
+				Tap.Sample sample = subscription.poll();
+				if(sample!=null){
+					output.write(new OutboundEvent.Builder().name("message")
+							.mediaType(MediaType.APPLICATION_JSON_TYPE)
+							.data(TapMessage.class, format(sample))
+							.build());
+					n++;
+					last = System.currentTimeMillis();
+				}
+				else{
+					if(System.currentTimeMillis()-last>KEEPALIVE){
+						output.write(new OutboundEvent.Builder().comment("keepalive").build());
+						last = System.currentTimeMillis();
+					}
+					Thread.sleep(INTERVAL);
+				}
+			}
+		}
+		catch(IOException e){
+			// Client disconnected
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		finally{
+			subscription.unsubscribe();
+			try {
+				output.close();
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Unable to close tap stream", e);
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private TapMessage format(Tap.Sample sample){
+		TapMessage m = new TapMessage();
+		m.setSequence(sample.getSequence());
+		m.setTimestamp(sample.getTimestamp());
+		Msg[] frames = sample.getFrames();
+		for(int i=0;i<frames.length;i++){
+			byte[] data = frames[i].data();
+			int size = frames[i].size();
+			if(i==0 && size>0 && data[0]=='{'){
+				try {
+					m.setHeader(mapper.readValue(data, 0, size, Map.class));
+				} catch (IOException e) {
+					// No JSON header
+				}
+			}
+			TapFrame f = new TapFrame();
+			f.setSize(size);
+			int length = Math.min(size, bytes);
+			String text = decode(data, length, length==size);
+			if(text!=null){
+				f.setEncoding(TapFrame.Encoding.UTF8);
+				f.setPreview(text);
+			}
+			else{
+				f.setEncoding(TapFrame.Encoding.HEX);
+				f.setPreview(hex(data, length));
+			}
+			m.getFrames().add(f);
+		}
+		return m;
+	}
+	
+	/**
+	 * @param complete	The data is not cut, i.e. must not end within a multibyte character
+	 * @return	Text or null if the data is not printable UTF-8 text
+	 */
+	private static String decode(byte[] data, int length, boolean complete){
+		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		CharBuffer text = CharBuffer.allocate(length);
+		if(decoder.decode(ByteBuffer.wrap(data, 0, length), text, complete).isError()){
+			return null;
+		}
+		text.flip();
+		for(int i=0;i<text.length();i++){
+			char c = text.charAt(i);
+			if(Character.isISOControl(c) && c!='\n' && c!='\r' && c!='\t'){
+				return null;
+			}
+		}
+		return text.toString();
+	}
+	
+	private static String hex(byte[] data, int length){
+		char[] c = new char[2*length];
+		for(int i=0;i<length;i++){
+			c[2*i] = HEX[(data[i]>>4) & 0xf];
+			c[2*i+1] = HEX[data[i] & 0xf];
+		}
+		return new String(c);
+	}
+}
@@ -0,0 +1,264 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import zmq.Msg;
+import ch.psi.zmq.broker.model.Destination;
+import ch.psi.zmq.broker.model.Routing;
+import ch.psi.zmq.broker.model.Source;
+
+/**
+ * Round trips of messages through {@link Batcher} and {@link Unbatcher}, including batches that are malformed
+ * (sizes and headers are read off the network).
+ * @author ebner
+ *
+ */
+public class BatchingTest {
+	
+	/**
+	 * Messages of a batch - single frame, multipart, empty frames
+	 */
+	private static final byte[][][] MESSAGES = {
+		{{1, 2, 3}},
+		{{4}, {5, 6}, {7, 8, 9}},
+		{{}},
+		{{10}, {}, {11}},
+		{new byte[2000]} // larger than the initial blob
+	};
+	
+	private static final int BATCHES = 10;
+	private static final int BATCH_SIZE = 5;
+	private static final int FRAMES = 3;
+	
+	@Test
+	public void testMultipart() {
+		roundTrip(Routing.Batching.MULTIPART);
+	}
+	
+	@Test
+	public void testBlob() {
+		roundTrip(Routing.Batching.BLOB);
+	}
+	
+	private void roundTrip(Routing.Batching format){
+		Batcher batcher = new Batcher(format, MESSAGES.length, 0, 1000);
+		Unbatcher unbatcher = new Unbatcher(format);
+		for(int n=0;n<3;n++){ // Batcher is reused after clear()
+			for(byte[][] message: MESSAGES){
+				assertFalse(batcher.isFull());
+				for(int i=0;i<message.length;i++){
+					batcher.add(frame(message[i], i<message.length-1), i==message.length-1);
+				}
+			}
+			assertEquals(true, batcher.isFull());
+			receive(unbatcher, batcher.getFrames());
+			batcher.clear();
+			assertEquals(true, batcher.isEmpty());
+			
+			for(byte[][] message: MESSAGES){
+				checkMessage(unbatcher, message);
+			}
+			assertNull(unbatcher.next());
+			assertFalse(unbatcher.isPending());
+		}
+	}
+	
+	@Test
+	public void testMultipartHeaders() {
+		Unbatcher unbatcher = new Unbatcher(Routing.Batching.MULTIPART);
+		receive(unbatcher, Arrays.asList(
+				header(2), frame(new byte[]{1}), frame(new byte[]{2}),
+				header(-3), header(1), frame(new byte[]{3}),				// negative count is ignored
+				frame(new byte[]{0, 0}), header(1), frame(new byte[]{4}),	// truncated header is ignored
+				header(3), frame(new byte[]{5}), frame(new byte[]{6})		// batch ends before the message does
+				));
+		checkMessage(unbatcher, new byte[][]{{1}, {2}});
+		checkMessage(unbatcher, new byte[][]{{3}});
+		checkMessage(unbatcher, new byte[][]{{4}});
+		checkMessage(unbatcher, new byte[][]{{5}, {6}});
+		assertNull(unbatcher.next());
+		
+		// Next batch starts with a header again
+		receive(unbatcher, Arrays.asList(header(1), frame(new byte[]{7})));
+		checkMessage(unbatcher, new byte[][]{{7}});
+	}
+	
+	@Test
+	public void testBlobSizes() {
+		ByteBuffer b = ByteBuffer.allocate(64);
+		b.putInt(2).putInt(-5).putInt(3).put(new byte[]{1, 2, 3});	// negative size is read as empty frame
+		b.putInt(1).putInt(100).put(new byte[]{4, 5});				// size beyond the end of the blob
+		Unbatcher unbatcher = new Unbatcher(Routing.Batching.BLOB);
+		unbatcher.add(frame(Arrays.copyOf(b.array(), b.position()), false));
+		checkMessage(unbatcher, new byte[][]{{}, {1, 2, 3}});
+		checkMessage(unbatcher, new byte[][]{{4, 5}});
+		assertNull(unbatcher.next());
+	}
+	
+	@Test
+	public void testBlobTruncated() {
+		Batcher batcher = new Batcher(Routing.Batching.BLOB, 2, 0, 1000);
+		for(int m=0;m<2;m++){
+			for(int i=0;i<MESSAGES[1].length;i++){
+				batcher.add(frame(MESSAGES[1][i], false), i==MESSAGES[1].length-1);
+			}
+		}
+		byte[] blob = batcher.getFrames().get(0).data();
+		int first = Batcher.HEADER;
+		for(byte[] f: MESSAGES[1]){
+			first += Batcher.HEADER+f.length;
+		}
+		for(int size=0;size<blob.length;size++){
+			Unbatcher unbatcher = new Unbatcher(Routing.Batching.BLOB);
+			unbatcher.add(frame(Arrays.copyOf(blob, size), false));
+			if(size>=first){
+				checkMessage(unbatcher, MESSAGES[1]);
+			}
+			// Whatever is decoded of a truncated message is terminated
+			Msg last = null;
+			for(Msg m=unbatcher.next();m!=null;m=unbatcher.next()){
+				last = m;
+			}
+			assertFalse("Blob truncated to "+size+" bytes", last!=null && last.hasMore());
+		}
+	}
+	
+	/**
+	 * Messages received in BLOB batches are sent in MULTIPART batches to a destination without receiver, i.e.
+	 * the batches are queued until a receiver connects.
+	 */
+	@Test
+	public void testQueued() {
+		Source source = new Source();
+		source.setAddress("tcp://localhost:7200");
+		source.setUnbatch(Routing.Batching.BLOB);
+		
+		Destination d = new Destination();
+		d.setAddress("tcp://*:7201");
+		d.setBuffer(2);
+		d.setQueue(100);
+		d.setPolicy(Destination.Policy.DROP_NEWEST);
+		d.setBatching(Routing.Batching.MULTIPART);
+		d.setBatchSize(BATCH_SIZE);
+		d.setLinger(10);
+		List<Destination> destinations = new ArrayList<>();
+		destinations.add(d);
+		
+		Routing routing = new Routing();
+		routing.setName("batching");
+		routing.setSource(source);
+		routing.setDestinations(destinations);
+		
+		ZMQ.Context context = ZMQ.context(1);
+		ZMQ.Socket sender = context.socket(ZMQ.PUSH);
+		sender.bind("tcp://*:7200");
+		
+		Router router = new Router(routing, context);
+		new Thread(router).start();
+		
+		Batcher batcher = new Batcher(Routing.Batching.BLOB, BATCH_SIZE, 0, 1000);
+		for(int n=0;n<BATCHES;n++){
+			for(int m=n*BATCH_SIZE;m<(n+1)*BATCH_SIZE;m++){
+				for(int i=0;i<FRAMES;i++){
+					batcher.add(frame(new byte[]{(byte) m, (byte) i}, false), i==FRAMES-1);
+				}
+			}
+			sender.send(batcher.getFrames().get(0).data());
+			batcher.clear();
+		}
+		
+		ZMQ.Socket receiver = context.socket(ZMQ.PULL);
+		receiver.setReceiveTimeOut(5000);
+		receiver.connect("tcp://localhost:7201");
+		Unbatcher unbatcher = new Unbatcher(Routing.Batching.MULTIPART);
+		for(int n=0;n<BATCHES;n++){
+			List<Msg> frames = new ArrayList<>();
+			do{
+				byte[] data = receiver.recv();
+				assertFalse("Batch "+n+" not received", data==null);
+				frames.add(new Msg(data));
+			} while(receiver.hasReceiveMore());
+			receive(unbatcher, frames);
+			for(int m=n*BATCH_SIZE;m<(n+1)*BATCH_SIZE;m++){
+				checkMessage(unbatcher, new byte[][]{{(byte) m, 0}, {(byte) m, 1}, {(byte) m, 2}});
+			}
+			assertNull(unbatcher.next());
+		}
+		receiver.setReceiveTimeOut(200);
+		assertNull("Unexpected frames", receiver.recv());
+		assertEquals(0, router.getStatistics().getDestinations().get(0).getDropped());
+		
+		router.terminate();
+		sender.close();
+		receiver.close();
+		context.term();
+	}
+	
+	/**
+	 * Pass the frames of a batch to the unbatcher with the flags they are received with
+	 */
+	private static void receive(Unbatcher unbatcher, List<Msg> batch){
+		for(int i=0;i<batch.size();i++){
+			Msg m = Frames.share(batch.get(i));
+			if(i<batch.size()-1){
+				m.setFlags(Msg.MORE);
+			}
+			unbatcher.add(m);
+		}
+	}
+	
+	private static void checkMessage(Unbatcher unbatcher, byte[][] message){
+		for(int i=0;i<message.length;i++){
+			Msg frame = unbatcher.next();
+			assertFalse("Frame "+i+" missing", frame==null);
+			assertArrayEquals("Frame "+i, message[i], Arrays.copyOf(frame.data(), frame.size()));
+			assertEquals("MORE flag of frame "+i, i<message.length-1, frame.hasMore());
+		}
+	}
+	
+	private static Msg frame(byte[] data, boolean more){
+		Msg m = new Msg(data);
+		if(more){
+			m.setFlags(Msg.MORE);
+		}
+		return m;
+	}
+	
+	private static Msg frame(byte[] data){
+		return frame(data, false);
+	}
+	
+	private static Msg header(int n){
+		return new Msg(ByteBuffer.allocate(Batcher.HEADER).putInt(0, n));
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Scanning of JSON headers for a top level field. Numbers are checked against Double.parseDouble
+ * (bit by bit, i.e. the result must be correctly rounded).
+ * @author ebner
+ *
+ */
+public class HeaderFieldTest {
+	
+	/**
+	 * Numbers that must be parsed as by Double.parseDouble
+	 */
+	private static final String[] NUMBERS = {
+		"0", "-0", "1", "-1", "42", "0.5", "-0.25", "1.", ".5", "3.141592653589793", "1e3", "1E3", "1e+3", "-1e-3",
+		"2.5e22", "1e22", "1e-22", "123456789012345", "99999999999999", "999999999999999", // within the fast path
+		"1e23", "1e-23", "8.98846567431158e307", "1e308", "1e309", "2.2250738585072014E-308", "4.9e-324", "1e-400",
+		"1234567890123456789", "0.1234567890123456789", "9007199254740993", "123456789012345.678", // > 15 digits
+		"0.30000000000000004", "7.038531e-26", "1.7976931348623157e308", "1e0000000000023", "00012"
+	};
+	
+	/**
+	 * Values that are no JSON number
+	 */
+	private static final String[] MALFORMED = {
+		"", "-", ".", "-.", "e5", "1e", "1e+", "1.2.3", "1-2", "0x10", "1f", "1d", "NaN", "Infinity", "-Infinity",
+		"true", "null", "1 2", "+-1"
+	};
+	
+	@Test
+	public void testNumbers() {
+		HeaderField field = new HeaderField("v");
+		for(String n: NUMBERS){
+			byte[] data = bytes("{\"v\": "+n+" }");
+			assertTrue(n, field.find(data, data.length));
+			double expected = Double.parseDouble(n);
+			assertEquals(n, Double.doubleToLongBits(expected), Double.doubleToLongBits(field.getNumber(data)));
+		}
+	}
+	
+	@Test
+	public void testMalformed() {
+		HeaderField field = new HeaderField("v");
+		for(String n: MALFORMED){
+			byte[] data = bytes("{\"v\":"+n+"}");
+			if(field.find(data, data.length)){
+				assertTrue(n, Double.isNaN(field.getNumber(data)));
+				assertEquals(n, Long.MIN_VALUE, field.getLong(data));
+			}
+		}
+	}
+	
+	@Test
+	public void testLong() {
+		String[][] table = {
+			{"0", "0"}, {"-7", "-7"}, {"123456789012345678", "123456789012345678"},
+			{"1234567890123456789", null}, {"1.0", null}, {"1e3", null}, {"-", null}, {"\"12\"", "12"}
+		};
+		HeaderField field = new HeaderField("v");
+		for(String[] row: table){
+			byte[] data = bytes("{\"v\":"+row[0]+"}");
+			assertTrue(row[0], field.find(data, data.length));
+			long expected = row[1]==null ? Long.MIN_VALUE : Long.parseLong(row[1]);
+			assertEquals(row[0], expected, field.getLong(data));
+		}
+	}
+	
+	@Test
+	public void testFind() {
+		// header, field, raw value (null if not found)
+		String[][] table = {
+			{"{\"a\":1,\"b\":2}", "b", "2"},
+			{" { \"a\" : \"x\" , \"b\" : 2.5 } ", "b", "2.5"},
+			{"{\"a\":\"x\"}", "a", "x"},
+			{"{\"a\":\"\"}", "a", ""},
+			{"{\"a\":1}", "b", null},
+			{"{}", "a", null},
+			{"{\"s\":\"say \\\"b\\\":1\",\"b\":2}", "b", "2"},					// escaped quotes in a string
+			{"{\"s\":\"x\\\\\",\"b\":3}", "b", "3"},							// escaped backslash at the end of a string
+			{"{\"s\":\"x\\\\\"}", "s", "x\\\\"},
+			{"{\"o\":{\"b\":1,\"c\":[{\"b\":2}]},\"b\":4}", "b", "4"},			// nested fields are not top level
+			{"{\"o\":{\"b\":1}}", "b", null},
+			{"{\"a\":[1,\"]\",{\"x\":\"}\"}],\"b\":5}", "b", "5"},				// brackets in strings
+			{"{\"o\":{\"p\":1}}", "o", "{\"p\":1}"},
+			{"{\"a\":[1,2]}", "a", "[1,2]"},
+			{"{\"a\":true,\"n\":null}", "n", "null"},
+			{"{\"ab\":1,\"a\":2}", "a", "2"},										// prefix of another key
+			// Malformed
+			{"", "a", null},
+			{"[\"a\",1]", "a", null},
+			{"{\"a\"1}", "a", null},
+			{"{\"a\":}", "a", null},
+			{"{\"a\":,\"b\":1}", "b", null},
+			{"{\"a\":\"x", "a", null},
+			{"{\"x\":\"a\\\"}", "a", null},
+			{"{\"x\":{\"a\":1}", "b", null},
+			{"{\"x\":1 \"a\":2}", "a", null},
+			{"{a:1}", "a", null}
+		};
+		for(String[] row: table){
+			HeaderField field = new HeaderField(row[1]);
+			byte[] data = bytes(row[0]);
+			boolean found = field.find(data, data.length);
+			if(row[2]==null){
+				assertFalse(row[0], found);
+			}
+			else{
+				assertTrue(row[0], found);
+				assertEquals(row[0], row[2], new String(data, field.getStart(), field.getEnd()-field.getStart(), StandardCharsets.UTF_8));
+			}
+		}
+	}
+	
+	@Test
+	public void testSize() {
+		HeaderField field = new HeaderField("b");
+		byte[] data = bytes("{\"a\":1,\"b\":2}garbage");
+		assertTrue(field.find(data, 13));
+		assertFalse("Field beyond the valid bytes", field.find(data, 8));
+	}
+	
+	private static byte[] bytes(String s){
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+}
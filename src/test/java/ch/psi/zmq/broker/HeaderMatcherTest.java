@@ -0,0 +1,187 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import zmq.Msg;
+import ch.psi.zmq.broker.model.Destination;
+
+/**
+ * Match conditions of destinations against the JSON header of messages
+ * @author ebner
+ *
+ */
+public class HeaderMatcherTest {
+	
+	/**
+	 * Header the conditions are tested against
+	 */
+	private static final String HEADER = "{\"htype\":\"array-1.0\", \"frame\":1234, \"x\":-2.5e-3, \"big\":12345678901234567890,"
+			+ " \"exp\":1e30, \"name\":\"a \\\"b\\\"\", \"nested\":{\"frame\":7}, \"flag\":true}";
+	
+	/**
+	 * Condition and whether it matches HEADER
+	 */
+	private static final Object[][] CONDITIONS = {
+		{"htype == array-1.0", true},
+		{"htype = \"array-1.0\"", true},
+		{"htype != array-1.0", false},
+		{"htype in array-1.0, array-2.0", true},
+		{"frame == 1234", true},
+		{"frame == 1234.0", true},
+		{"frame == 1.234e3", true},
+		{"frame == \"1234\"", true},
+		{"frame != 1234", false},
+		{"frame < 1234", false},
+		{"frame <= 1234", true},
+		{"frame > 1233.999", true},
+		{"frame >= 1235", false},
+		{"frame in 1000..2000", true},
+		{"frame in 1235 .. 2000", false},
+		{"frame in 1, 2, 1234", true},
+		{"x == -0.0025", true},
+		{"x < 0", true},
+		{"x in -1e-2..-1e-3", true},
+		{"big == 12345678901234567890", true},
+		{"big > 12345678901234567000", false}, // same double
+		{"big >= 1.2345678901234567e19", true},
+		{"exp == 1e30", true},
+		{"exp > 9.99999999999e29", true},
+		{"name == a \\\"b\\\"", true}, // raw value
+		{"frame == 7", false}, // nested field is not top level
+		{"missing == 1", false},
+		{"missing != 1", false},
+		{"flag == true", true},
+		{"flag > 0", false}, // not a number
+		{"htype > 0", false},
+		{"frame == NaN", false}, // compared as text
+		{"frame == 1234f", false},
+		{"frame == 0x4d2", false},
+		{"htype == Infinity", false}
+	};
+	
+	/**
+	 * Conditions that must be rejected
+	 */
+	private static final String[] INVALID = {
+		"frame", "frame ==", "== 1", "frame < abc", "frame < NaN", "frame > Infinity", "frame >= -Infinity", "frame <= 1f",
+		"frame < 1d", "frame > 0x10", "frame < 1e", "frame < +1", "frame in 1..NaN", "frame in 1f..2", "frame in a..b"
+	};
+	
+	@Test
+	public void testConditions() {
+		Msg frame = new Msg(HEADER.getBytes(StandardCharsets.UTF_8));
+		List<Destination> destinations = new ArrayList<>();
+		for(Object[] row: CONDITIONS){
+			destinations.add(destination((String) row[0]));
+		}
+		HeaderMatcher matcher = HeaderMatcher.create(destinations);
+		boolean[] result = new boolean[destinations.size()];
+		Arrays.fill(result, true);
+		matcher.match(frame, result);
+		for(int i=0;i<CONDITIONS.length;i++){
+			assertEquals((String) CONDITIONS[i][0], CONDITIONS[i][1], result[i]);
+		}
+		
+		// Each condition on its own (the fields are parsed once per message)
+		for(Object[] row: CONDITIONS){
+			result = new boolean[]{true};
+			HeaderMatcher.create(Arrays.asList(destination((String) row[0]))).match(frame, result);
+			assertEquals((String) row[0], row[1], result[0]);
+		}
+	}
+	
+	@Test
+	public void testAllConditions() {
+		Destination d = destination("frame > 1000");
+		d.getMatches().add("htype == array-1.0");
+		d.getMatches().add("x >= 0");
+		List<Destination> destinations = Arrays.asList(d, destination("frame > 1000"), new Destination());
+		HeaderMatcher matcher = HeaderMatcher.create(destinations);
+		boolean[] result = {true, true, true};
+		matcher.match(new Msg(HEADER.getBytes(StandardCharsets.UTF_8)), result);
+		assertEquals(false, result[0]);
+		assertEquals(true, result[1]);
+		assertEquals(true, result[2]);
+		
+		result = new boolean[]{false, false, false};
+		matcher.match(new Msg(HEADER.getBytes(StandardCharsets.UTF_8)), result);
+		assertEquals("Destinations that are already excluded stay excluded", false, result[1]);
+	}
+	
+	@Test
+	public void testNoConditions() {
+		assertNull(HeaderMatcher.create(Arrays.asList(new Destination(), new Destination())));
+	}
+	
+	@Test
+	public void testMalformedHeader() {
+		String[] headers = {"", "frame", "[1234]", "{\"frame\":", "{\"frame\" 1234}"};
+		HeaderMatcher matcher = HeaderMatcher.create(Arrays.asList(destination("frame >= 0"), destination("frame != 1")));
+		for(String h: headers){
+			boolean[] result = {true, true};
+			matcher.match(new Msg(h.getBytes(StandardCharsets.UTF_8)), result);
+			assertEquals(h, false, result[0]);
+			assertEquals(h, false, result[1]);
+		}
+		
+		// The header is only scanned up to the field
+		boolean[] result = {true, true};
+		matcher.match(new Msg("{\"frame\":1234".getBytes(StandardCharsets.UTF_8)), result);
+		assertEquals(true, result[0]);
+		assertEquals(true, result[1]);
+		
+		// Found but not a number
+		result = new boolean[]{true, true};
+		matcher.match(new Msg("{\"frame\":12a4}".getBytes(StandardCharsets.UTF_8)), result);
+		assertEquals(false, result[0]);
+		assertEquals(true, result[1]);
+	}
+	
+	@Test
+	public void testInvalid() {
+		for(String condition: INVALID){
+			try{
+				HeaderMatcher.create(Arrays.asList(destination(condition)));
+				fail(condition);
+			}
+			catch(IllegalArgumentException e){
+				// Expected
+			}
+		}
+	}
+	
+	private static Destination destination(String condition){
+		Destination d = new Destination();
+		d.setAddress("tcp://*:7100");
+		d.getMatches().add(condition);
+		return d;
+	}
+}
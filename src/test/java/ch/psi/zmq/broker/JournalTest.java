@@ -0,0 +1,275 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.zeromq.ZMQ;
+
+import zmq.Msg;
+import ch.psi.zmq.broker.model.Destination;
+import ch.psi.zmq.broker.model.Routing;
+import ch.psi.zmq.broker.model.Source;
+
+/**
+ * Spill journal with small segments - rollover, reuse of the disk space while reading and writing, replay of
+ * spilled messages by the router.
+ * @author ebner
+ *
+ */
+public class JournalTest {
+	
+	/**
+	 * Maximum journal size resulting in the smallest segments (4096 bytes)
+	 */
+	private static final long MAX_BYTES = 16*1024;
+	private static final int SEGMENT = 4096;
+	private static final int FRAMES = 3;
+	private static final int FRAME_SIZE = 100;
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testRollover() throws IOException {
+		File dir = folder.newFolder();
+		Journal journal = new Journal(dir, "test", MAX_BYTES);
+		assertTrue(journal.isEmpty());
+		for(int m=0;m<100;m++){
+			write(journal, m);
+		}
+		assertEquals(100, journal.getMessages());
+		int files = dir.listFiles().length;
+		assertTrue("Segments: "+files, files>1);
+		assertEquals(files*SEGMENT, journal.getBytes());
+		assertTrue(journal.isFull());
+		
+		for(int m=0;m<100;m++){
+			read(journal, m);
+		}
+		assertTrue(journal.isEmpty());
+		assertEquals("Read segments are deleted", 1, dir.listFiles().length);
+		assertEquals(SEGMENT, journal.getBytes());
+		assertFalse(journal.isFull());
+		
+		journal.close();
+		assertEquals(0, dir.listFiles().length);
+		assertEquals(0, journal.getBytes());
+	}
+	
+	/**
+	 * Write and read continuously - the journal moves through the segments while its size stays constant
+	 */
+	@Test
+	public void testWrapAround() throws IOException {
+		File dir = folder.newFolder();
+		Journal journal = new Journal(dir, "test", MAX_BYTES);
+		int written = 0;
+		int read = 0;
+		for(;written<10;written++){
+			write(journal, written);
+		}
+		for(;written<1000;written++){
+			write(journal, written);
+			read(journal, read++);
+			assertEquals(10, journal.getMessages());
+			assertTrue("Segments: "+dir.listFiles().length, dir.listFiles().length<=2);
+			assertEquals(dir.listFiles().length*SEGMENT, journal.getBytes());
+		}
+		while(read<written){
+			read(journal, read++);
+		}
+		assertTrue(journal.isEmpty());
+		assertFalse("Segments of the start were deleted", new File(dir, "test-0.spill").exists());
+		
+		// The journal can be used again after it was closed
+		journal.close();
+		write(journal, 0);
+		read(journal, 0);
+		journal.close();
+		assertEquals(0, dir.listFiles().length);
+	}
+	
+	@Test
+	public void testRewind() throws IOException {
+		File dir = folder.newFolder();
+		Journal journal = new Journal(dir, "test", MAX_BYTES);
+		for(int m=0;m<100;m++){
+			write(journal, m);
+		}
+		// Messages spanning two segments are rewound to the previous segment
+		for(int m=0;m<100;m++){
+			journal.begin();
+			assertTrue(journal.read().hasMore());
+			journal.rewind();
+			journal.begin();
+			for(int i=0;i<FRAMES;i++){
+				journal.read();
+			}
+			journal.rewind();
+			read(journal, m);
+		}
+		assertTrue(journal.isEmpty());
+		journal.close();
+	}
+	
+	@Test
+	public void testLargeFrame() throws IOException {
+		File dir = folder.newFolder();
+		Journal journal = new Journal(dir, "test", MAX_BYTES);
+		byte[] data = new byte[3*SEGMENT];
+		for(int i=0;i<data.length;i++){
+			data[i] = (byte) i;
+		}
+		write(journal, 0);
+		journal.write(new Msg(data), false);
+		write(journal, 2);
+		assertFalse(journal.isWriting());
+		
+		read(journal, 0);
+		journal.begin();
+		Msg frame = journal.read();
+		assertArrayEquals(data, frame.data());
+		assertFalse(frame.hasMore());
+		journal.commit();
+		read(journal, 2);
+		journal.close();
+		assertEquals(0, dir.listFiles().length);
+	}
+	
+	@Test
+	public void testUnmap() throws IOException {
+		File file = folder.newFile();
+		MappedByteBuffer buffer;
+		try(RandomAccessFile f = new RandomAccessFile(file, "rw")){
+			buffer = f.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT);
+		}
+		buffer.putInt(0, 42);
+		MappedFiles.unmap(buffer);
+		MappedFiles.unmap(null);
+		assertTrue("Buffer not unmapped", MappedFiles.isSupported());
+		assertTrue(file.delete());
+	}
+	
+	/**
+	 * Messages are spilled to the journal while the destination has no receiver and are replayed in order as soon as
+	 * a receiver connects
+	 */
+	@Test
+	public void testSpill() throws IOException, InterruptedException {
+		File dir = folder.newFolder();
+		Source source = new Source();
+		source.setAddress("tcp://localhost:7210");
+		Destination d = new Destination();
+		d.setAddress("tcp://*:7211");
+		d.setBuffer(2);
+		d.setSpill(dir.getAbsolutePath());
+		d.setSpillSize(1); // 1MB, i.e. segments of 256KB
+		List<Destination> destinations = new ArrayList<>();
+		destinations.add(d);
+		
+		Routing routing = new Routing();
+		routing.setName("spill");
+		routing.setSource(source);
+		routing.setDestinations(destinations);
+		
+		ZMQ.Context context = ZMQ.context(1);
+		ZMQ.Socket sender = context.socket(ZMQ.PUSH);
+		sender.bind("tcp://*:7210");
+		Router router = new Router(routing, context);
+		new Thread(router).start();
+		
+		int messages = 100;
+		int size = 2048;
+		for(int m=0;m<messages;m++){
+			for(int i=0;i<FRAMES;i++){
+				sender.send(frame(m, i, size), i<FRAMES-1 ? ZMQ.SNDMORE : 0);
+			}
+		}
+		long spilled = 0;
+		for(int t=0;t<50 && spilled<messages-10;t++){
+			Thread.sleep(100);
+			spilled = router.getStatistics().getDestinations().get(0).getSpillMessages();
+		}
+		assertTrue("Spilled messages: "+spilled, spilled>=messages-10);
+		assertTrue("Segments: "+dir.listFiles().length, dir.listFiles().length>1);
+		
+		ZMQ.Socket receiver = context.socket(ZMQ.PULL);
+		receiver.setReceiveTimeOut(5000);
+		receiver.connect("tcp://localhost:7211");
+		for(int m=0;m<messages;m++){
+			for(int i=0;i<FRAMES;i++){
+				assertArrayEquals("Frame "+i+" of message "+m, frame(m, i, size), receiver.recv());
+				assertEquals(i<FRAMES-1, receiver.hasReceiveMore());
+			}
+		}
+		receiver.setReceiveTimeOut(200);
+		assertNull("Unexpected frames", receiver.recv());
+		assertEquals(0, router.getStatistics().getDestinations().get(0).getSpillMessages());
+		
+		router.terminate();
+		assertEquals("Segments not deleted", 0, dir.listFiles().length);
+		sender.close();
+		receiver.close();
+		context.term();
+	}
+	
+	private static void write(Journal journal, int m) throws IOException{
+		for(int i=0;i<FRAMES;i++){
+			journal.write(new Msg(frame(m, i, FRAME_SIZE)), i<FRAMES-1);
+		}
+	}
+	
+	private static void read(Journal journal, int m){
+		assertFalse(journal.isEmpty());
+		long now = System.currentTimeMillis();
+		long timestamp = journal.begin();
+		assertTrue(timestamp<=now && timestamp>now-60000);
+		for(int i=0;i<FRAMES;i++){
+			Msg frame = journal.read();
+			assertArrayEquals("Frame "+i+" of message "+m, frame(m, i, FRAME_SIZE), frame.data());
+			assertEquals(i<FRAMES-1, frame.hasMore());
+		}
+		journal.commit();
+	}
+	
+	private static byte[] frame(int m, int i, int size){
+		byte[] data = new byte[size];
+		for(int k=0;k<size;k++){
+			data[k] = (byte) (m*31+i*7+k);
+		}
+		return data;
+	}
+}
@@ -0,0 +1,475 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import javax.xml.bind.JAXB;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.zeromq.ZMQ;
+
+import ch.psi.zmq.broker.model.Configuration;
+import ch.psi.zmq.broker.model.LatencyStatistics;
+
+/**
+ * Load generator and verifier. Drives the sources of a broker (started in-process from a configuration file or an already
+ * running one) at a given rate, message size, number of frames and burstiness and checks the messages received at
+ * the destinations for loss, duplicates and ordering. Reports throughput and latency percentiles per destination.
+ * 
+ * Each message consists of a JSON header <code>{"source":&lt;index&gt;,"phase":&lt;n&gt;,"sequence":&lt;n&gt;,"time":&lt;ms since epoch&gt;,"nanos":&lt;System.nanoTime()&gt;}</code>
+ * followed by the payload frames. The generator binds the source addresses, the verifier connects to the destination addresses,
+ * i.e. the broker needs to connect its sources and bind its destinations (as usual). With an in-process broker inproc
+ * addresses can be used as well (context 0 of the broker).
+ * 
+ * With -x the maximum sustainable rate is searched: the rate is doubled until a run fails (loss above the accepted loss,
+ * rate not reached or messages not delivered in time) and then narrowed down by bisection.
+ * 
+ * The exit code is 0 if all runs (or the first run while searching) passed, i.e. the tool can be used as regression test.
+ * 
+ * Usage: LoadTest -h
+ * 
+ * @author ebner
+ *
+ */
+public class LoadTest {
+	
+	private static final Logger logger = Logger.getLogger(LoadTest.class.getName());
+	
+	/**
+	 * Time in milliseconds without any message after which the destinations are considered drained
+	 */
+	private static final long IDLE = 1000;
+	/**
+	 * Maximum time in milliseconds to wait for the messages of a run
+	 */
+	private static final long DRAIN = 30000;
+	
+	private final List<Sender> senders = new ArrayList<>();
+	private final List<Receiver> receivers = new ArrayList<>();
+	
+	private int frames = 1;
+	private int size = 1024;
+	private int burst = 1;
+	private long count = 10000;
+	private boolean union = false;
+	private double loss = 0;
+	
+	public static void main(String[] args) throws Exception {
+		Options options = new Options();
+		options.addOption("h", false, "Help");
+		options.addOption("c", true, "Configuration file of a broker to start in-process (default: use running broker)");
+		options.addOption("s", true, "Source address(es) to bind, comma separated (default: tcp://*:7777)");
+		options.addOption("t", true, "Socket type of the sources - PUSH, PUB (default: PUSH)");
+		options.addOption("d", true, "Destination address(es) to connect to, comma separated (default: tcp://localhost:8888)");
+		options.addOption("D", true, "Socket type of the destinations - PULL, SUB (default: PULL)");
+		options.addOption("r", true, "Messages per second and source (default: 1000, 0 = as fast as possible)");
+		options.addOption("m", true, "Size of a payload frame in bytes (default: 1024)");
+		options.addOption("f", true, "Number of payload frames per message (default: 1)");
+		options.addOption("b", true, "Number of messages sent back to back (default: 1)");
+		options.addOption("n", true, "Number of messages per source and run (default: 10000)");
+		options.addOption("u", false, "Messages are distributed over the destinations - check the union of all destinations for loss");
+		options.addOption("l", true, "Accepted fraction of lost messages (default: 0)");
+		options.addOption("x", false, "Search the maximum sustainable rate (starting at the given rate, needs to be >0)");
+		options.addOption("w", true, "Time in milliseconds to wait for the connections before sending (default: 1000)");
+		
+		CommandLine line = new GnuParser().parse(options, args);
+		if(line.hasOption("h")){
+			new HelpFormatter().printHelp("LoadTest", options);
+			return;
+		}
+		
+		LoadTest test = new LoadTest();
+		test.frames = Integer.parseInt(line.getOptionValue("f", "1"));
+		test.size = Integer.parseInt(line.getOptionValue("m", "1024"));
+		test.burst = Math.max(1, Integer.parseInt(line.getOptionValue("b", "1")));
+		test.count = Long.parseLong(line.getOptionValue("n", "10000"));
+		test.union = line.hasOption("u");
+		test.loss = Double.parseDouble(line.getOptionValue("l", "0"));
+		double rate = Double.parseDouble(line.getOptionValue("r", "1000"));
+		if(line.hasOption("x") && rate<=0){
+			// The search doubles the rate, i.e. it would never leave rate 0 (as fast as possible)
+			System.err.println("Searching the maximum sustainable rate (-x) needs a start rate >0 (-r)");
+			System.exit(2);
+		}
+		
+		// Start broker (the sources need to be bound before the broker connects to inproc addresses)
+		Broker broker = null;
+		Configuration configuration = null;
+		ZMQ.Context context;
+		if(line.hasOption("c")){
+			configuration = JAXB.unmarshal(new File(line.getOptionValue("c")), Configuration.class);
+			broker = new Broker(configuration.getContexts()!=null ? configuration.getContexts() : 1, 1);
+			context = broker.getContext(0);
+		}
+		else{
+			context = ZMQ.context(1);
+		}
+		
+		int type = line.getOptionValue("t", "PUSH").equalsIgnoreCase("PUB") ? ZMQ.PUB : ZMQ.PUSH;
+		String[] sources = line.getOptionValue("s", "tcp://*:7777").split(",");
+		for(int i=0;i<sources.length;i++){
+			test.senders.add(new Sender(context, type, sources[i].trim(), i));
+		}
+		if(broker!=null){
+			broker.setConfiguration(configuration);
+		}
+		
+		type = line.getOptionValue("D", "PULL").equalsIgnoreCase("SUB") ? ZMQ.SUB : ZMQ.PULL;
+		for(String address: line.getOptionValue("d", "tcp://localhost:8888").split(",")){
+			Receiver r = new Receiver(context, type, address.trim(), sources.length);
+			test.receivers.add(r);
+			r.start();
+		}
+		Thread.sleep(Long.parseLong(line.getOptionValue("w", "1000")));
+		
+		boolean passed;
+		if(line.hasOption("x")){
+			passed = test.search(rate);
+		}
+		else{
+			passed = test.run(1, rate);
+		}
+		
+		for(Receiver r: test.receivers){
+			r.terminate();
+		}
+		for(Sender s: test.senders){
+			s.close();
+		}
+		if(broker!=null){
+			broker.terminate();
+		}
+		else{
+			context.term();
+		}
+		System.exit(passed ? 0 : 1);
+	}
+	
+	/**
+	 * Search the maximum sustainable rate
+	 * @param rate	Rate of the first run
+	 * @return	true if the first run passed
+	 */
+	private boolean search(double rate) throws InterruptedException{
+		int phase = 1;
+		double good = 0;
+		double bad = 0;
+		while(bad==0){
+			if(run(phase++, rate)){
+				good = rate;
+				rate *= 2;
+			}
+			else{
+				bad = rate;
+			}
+		}
+		for(int i=0;i<4 && good>0;i++){
+			rate = (good+bad)/2;
+			if(run(phase++, rate)){
+				good = rate;
+			}
+			else{
+				bad = rate;
+			}
+		}
+		System.out.println(String.format("Maximum sustainable rate: %.0f messages/s per source (%.1f MB/s)", good, good*size*frames/1e6));
+		return good>0;
+	}
+	
+	/**
+	 * Send the configured number of messages on all sources and verify the messages received at the destinations
+	 * @param phase	Number of the run
+	 * @param rate	Messages per second and source (0 = as fast as possible)
+	 * @return	true if all checks passed
+	 */
+	private boolean run(int phase, double rate) throws InterruptedException{
+		for(Receiver r: receivers){
+			r.reset(phase);
+		}
+		
+		long start = System.nanoTime();
+		List<Thread> threads = new ArrayList<>();
+		for(final Sender s: senders){
+			threads.add(s.send(phase, rate, count, burst, frames, size));
+		}
+		for(Thread t: threads){
+			t.join();
+		}
+		double time = (System.nanoTime()-start)/1e9;
+		double achieved = count/time;
+		
+		// Wait for the messages in flight
+		long end = System.currentTimeMillis()+DRAIN;
+		boolean drained = false;
+		while(!drained && System.currentTimeMillis()<end){
+			Thread.sleep(100);
+			drained = true;
+			long now = System.nanoTime();
+			for(Receiver r: receivers){
+				drained &= (union || !r.isComplete(count)) ? now-r.getLast()>IDLE*1000000 : true;
+			}
+		}
+		
+		boolean passed = drained && (rate==0 || achieved>=0.95*rate);
+		System.out.println(String.format("Run %d - rate %s messages/s per source, sent %.0f messages/s per source (%.1f MB/s)%s",
+				phase, rate==0 ? "max" : String.format("%.0f", rate), achieved, achieved*size*frames/1e6, drained ? "" : " - not drained"));
+		
+		BitSet[] all = new BitSet[senders.size()];
+		for(int i=0;i<all.length;i++){
+			all[i] = new BitSet();
+		}
+		for(Receiver r: receivers){
+			long lost = 0;
+			for(int i=0;i<all.length;i++){
+				lost += count-r.getReceived(i).cardinality();
+				all[i].or(r.getReceived(i));
+			}
+			double received = r.getMessages();
+			LatencyStatistics l = r.getLatency().getStatistics();
+			System.out.println(String.format("  %s - received %d, lost %d, duplicates %d, out of order %d, stale %d, %.0f messages/s, "
+					+"latency us p50 %.1f p99 %.1f p99.9 %.1f max %.1f",
+					r.getAddress(), r.getMessages(), union ? 0 : lost, r.getDuplicates(), r.getReordered(), r.getStale(),
+					received/Math.max(time, (r.getLast()-start)/1e9), l.getP50(), l.getP99(), l.getP999(), l.getMax()));
+			passed &= r.getDuplicates()==0 && r.getReordered()==0;
+			if(!union){
+				passed &= lost<=loss*count*all.length;
+			}
+		}
+		if(union){
+			long lost = 0;
+			for(BitSet b: all){
+				lost += count-b.cardinality();
+			}
+			System.out.println(String.format("  all destinations - lost %d", lost));
+			passed &= lost<=loss*count*all.length;
+		}
+		System.out.println(passed ? "  PASSED" : "  FAILED");
+		return passed;
+	}
+	
+	/**
+	 * Sends messages to a source of the broker
+	 */
+	private static class Sender {
+		
+		private final ZMQ.Socket socket;
+		private final int index;
+		
+		Sender(ZMQ.Context context, int type, String address, int index){
+			this.socket = context.socket(type);
+			this.index = index;
+			socket.setHWM(10000);
+			socket.bind(address);
+		}
+		
+		/**
+		 * Start sending messages
+		 * @return	Sending thread
+		 */
+		Thread send(final int phase, final double rate, final long count, final int burst, final int frames, final int size){
+			Thread t = new Thread("sender-"+index){
+				@Override
+				public void run(){
+					byte[] payload = new byte[size];
+					long start = System.nanoTime();
+					for(long i=0;i<count;i++){
+						if(rate>0 && i%burst==0){
+							// Wait for the start of the next burst
+							long due = start + (long) (i*1e9/rate);
+							long wait;
+							while((wait = due-System.nanoTime())>0){
+								LockSupport.parkNanos(wait);
+							}
+						}
+						String header = "{\"source\":"+index+",\"phase\":"+phase+",\"sequence\":"+i+",\"time\":"+System.currentTimeMillis()+",\"nanos\":"+System.nanoTime()+"}";
+						socket.send(header.getBytes(StandardCharsets.UTF_8), frames>0 ? ZMQ.SNDMORE : 0);
+						for(int f=0;f<frames;f++){
+							socket.send(payload, f<frames-1 ? ZMQ.SNDMORE : 0);
+						}
+					}
+				}
+			};
+			t.start();
+			return t;
+		}
+		
+		void close(){
+			socket.close();
+		}
+	}
+	
+	/**
+	 * Receives and verifies the messages of a destination of the broker
+	 */
+	private static class Receiver extends Thread {
+		
+		private final ZMQ.Socket socket;
+		private final String address;
+		
+		private final HeaderField source = new HeaderField("source");
+		private final HeaderField phase = new HeaderField("phase");
+		private final HeaderField sequence = new HeaderField("sequence");
+		private final HeaderField nanos = new HeaderField("nanos");
+		
+		private volatile boolean terminate = false;
+		
+		// State of the current run (replaced on reset, only updated by the receiver thread)
+		private volatile Run run;
+		
+		private static class Run {
+			final int phase;
+			final BitSet[] received;
+			final long[] highest;
+			final Counter messages = new Counter();
+			final Counter duplicates = new Counter();
+			final Counter reordered = new Counter();
+			final Counter stale = new Counter();
+			final Histogram latency = new Histogram();
+			volatile long last = System.nanoTime();
+			
+			Run(int phase, int sources){
+				this.phase = phase;
+				received = new BitSet[sources];
+				highest = new long[sources];
+				for(int i=0;i<sources;i++){
+					received[i] = new BitSet();
+					highest[i] = -1;
+				}
+			}
+		}
+		
+		Receiver(ZMQ.Context context, int type, String address, int sources) throws InterruptedException{
+			super("receiver-"+address);
+			this.address = address;
+			this.run = new Run(0, sources);
+			socket = context.socket(type);
+			socket.setHWM(10000);
+			socket.setReceiveTimeOut(100);
+			if(type==ZMQ.SUB){
+				socket.subscribe(new byte[0]);
+			}
+			// Connecting to inproc addresses fails until the routing has bound its destination
+			long end = System.currentTimeMillis()+DRAIN;
+			while(!socket.base().connect(address)){
+				if(System.currentTimeMillis()>end){
+					throw new IllegalStateException("Unable to connect to "+address);
+				}
+				Thread.sleep(100);
+			}
+		}
+		
+		@Override
+		public void run(){
+			while(!terminate){
+				byte[] header = socket.recv();
+				if(header==null){
+					continue;
+				}
+				while(socket.hasReceiveMore()){
+					socket.recv();
+				}
+				long now = System.nanoTime();
+				Run r = run;
+				r.last = now;
+				if(!phase.find(header, header.length) || (int) phase.getNumber(header)!=r.phase){
+					r.stale.increment(); // Message of another run
+					continue;
+				}
+				if(!source.find(header, header.length) || !sequence.find(header, header.length) || !nanos.find(header, header.length)){
+					logger.warning("Invalid header: "+new String(header, StandardCharsets.UTF_8));
+					continue;
+				}
+				int s = (int) source.getNumber(header);
+				int n = (int) sequence.getNumber(header);
+				r.messages.increment();
+				r.latency.record(now-parseLong(header, nanos));
+				if(r.received[s].get(n)){
+					r.duplicates.increment();
+				}
+				else if(n<r.highest[s]){
+					r.reordered.increment();
+				}
+				r.received[s].set(n);
+				r.highest[s] = Math.max(r.highest[s], n);
+			}
+			socket.close();
+		}
+		
+		/**
+		 * Parse integer value of a header field found before (nanoseconds exceed the precision of a double)
+		 */
+		private static long parseLong(byte[] header, HeaderField field){
+			long value = 0;
+			boolean negative = header[field.getStart()]=='-';
+			for(int i=field.getStart()+(negative ? 1 : 0);i<field.getEnd();i++){
+				value = value*10 + (header[i]-'0');
+			}
+			return negative ? -value : value;
+		}
+		
+		void reset(int phase){
+			run = new Run(phase, run.received.length);
+		}
+		
+		void terminate() throws InterruptedException{
+			terminate = true;
+			join();
+		}
+		
+		boolean isComplete(long count){
+			return run.messages.get()>=count*run.received.length;
+		}
+		
+		String getAddress(){
+			return address;
+		}
+		long getLast(){
+			return run.last;
+		}
+		BitSet getReceived(int source){
+			return run.received[source];
+		}
+		long getMessages(){
+			return run.messages.get();
+		}
+		long getDuplicates(){
+			return run.duplicates.get();
+		}
+		long getReordered(){
+			return run.reordered.get();
+		}
+		long getStale(){
+			return run.stale.get();
+		}
+		Histogram getLatency(){
+			return run.latency;
+		}
+	}
+}
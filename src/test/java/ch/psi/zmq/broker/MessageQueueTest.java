@@ -0,0 +1,157 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import zmq.Msg;
+import ch.psi.zmq.broker.model.Destination;
+import ch.psi.zmq.broker.model.Routing;
+import ch.psi.zmq.broker.model.Source;
+
+/**
+ * Checks that the in memory backlog keeps the multipart boundaries of the queued messages, also for frames that do not
+ * carry the MORE flag (frames shared between destinations, batches, compressed frames).
+ * @author ebner
+ *
+ */
+public class MessageQueueTest {
+	
+	private static final int FRAMES = 3;
+	private static final int MESSAGES = 50;
+	
+	@Test
+	public void testBoundaries() {
+		MessageQueue queue = new MessageQueue(10);
+		for(int m=0;m<2;m++){
+			for(int i=0;i<FRAMES;i++){
+				queue.write(Frames.share(new Msg(new byte[]{(byte) m, (byte) i})), i<FRAMES-1);
+			}
+		}
+		assertEquals(2, queue.getMessages());
+		
+		// Rewind and read again - the flags do not change
+		queue.begin();
+		assertTrue(queue.read().hasMore());
+		queue.rewind();
+		for(int m=0;m<2;m++){
+			queue.begin();
+			for(int i=0;i<FRAMES;i++){
+				Msg frame = queue.read();
+				assertArrayEquals(new byte[]{(byte) m, (byte) i}, frame.data());
+				assertEquals(i<FRAMES-1, frame.hasMore());
+			}
+			queue.commit();
+		}
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.getBytes());
+	}
+	
+	@Test
+	public void testFlagsCleared() {
+		// A frame that carries a stale MORE flag ends the message if it was written as last frame
+		MessageQueue queue = new MessageQueue(1);
+		Msg frame = new Msg(new byte[1]);
+		frame.setFlags(Msg.MORE);
+		queue.write(frame, false);
+		queue.begin();
+		assertFalse(queue.read().hasMore());
+	}
+	
+	/**
+	 * Multipart messages routed to two destinations (i.e. the frames are shared) are queued by the destination
+	 * without receiver and drained once a receiver connects.
+	 */
+	@Test
+	public void testSharedMessages() throws InterruptedException {
+		Source source = new Source();
+		source.setAddress("tcp://localhost:7180");
+		
+		Destination direct = new Destination();
+		direct.setAddress("tcp://*:7181");
+		direct.setBuffer(1000);
+		Destination queued = new Destination();
+		queued.setAddress("tcp://*:7182");
+		queued.setBuffer(2);
+		queued.setQueue(100);
+		queued.setPolicy(Destination.Policy.DROP_NEWEST);
+		List<Destination> destinations = new ArrayList<>();
+		destinations.add(direct);
+		destinations.add(queued);
+		
+		Routing routing = new Routing();
+		routing.setName("queue");
+		routing.setSource(source);
+		routing.setDestinations(destinations);
+		
+		ZMQ.Context context = ZMQ.context(1);
+		ZMQ.Socket sender = context.socket(ZMQ.PUSH);
+		sender.bind("tcp://*:7180");
+		ZMQ.Socket receiver = context.socket(ZMQ.PULL);
+		receiver.setReceiveTimeOut(5000);
+		receiver.connect("tcp://localhost:7181");
+		
+		Router router = new Router(routing, context);
+		new Thread(router).start();
+		
+		// No receiver on the queued destination yet, i.e. all messages get queued
+		for(int m=0;m<MESSAGES;m++){
+			for(int i=0;i<FRAMES;i++){
+				sender.send(new byte[]{(byte) m, (byte) i}, i<FRAMES-1 ? ZMQ.SNDMORE : 0);
+			}
+		}
+		for(int m=0;m<MESSAGES;m++){
+			checkMessage(receiver, m);
+		}
+		
+		ZMQ.Socket late = context.socket(ZMQ.PULL);
+		late.setReceiveTimeOut(5000);
+		late.connect("tcp://localhost:7182");
+		for(int m=0;m<MESSAGES;m++){
+			checkMessage(late, m);
+		}
+		late.setReceiveTimeOut(200);
+		assertEquals("Unexpected frames", null, late.recv());
+		assertEquals(0, router.getStatistics().getDestinations().get(1).getDropped());
+		
+		router.terminate();
+		sender.close();
+		receiver.close();
+		late.close();
+		context.term();
+	}
+	
+	private static void checkMessage(ZMQ.Socket socket, int m){
+		for(int i=0;i<FRAMES;i++){
+			byte[] frame = socket.recv();
+			assertArrayEquals("Frame "+i+" of message "+m, new byte[]{(byte) m, (byte) i}, frame);
+			assertEquals("MORE flag of frame "+i+" of message "+m, i<FRAMES-1, socket.hasReceiveMore());
+		}
+	}
+}
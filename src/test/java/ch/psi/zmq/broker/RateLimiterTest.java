@@ -0,0 +1,122 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Token bucket of the rate and bandwidth limits of a destination. The clock is passed to the limiter, i.e. the tests
+ * do not depend on timing.
+ * @author ebner
+ *
+ */
+public class RateLimiterTest {
+	
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	@Test
+	public void testBurst() {
+		RateLimiter limiter = new RateLimiter(10, 3, 0, 0);
+		long now = System.nanoTime();
+		for(int i=0;i<3;i++){
+			assertTrue("Message "+i+" of the burst", limiter.acquire(now));
+		}
+		assertFalse(limiter.acquire(now));
+	}
+	
+	@Test
+	public void testRefill() {
+		RateLimiter limiter = new RateLimiter(10, 1, 0, 0);
+		long now = System.nanoTime();
+		assertTrue(limiter.acquire(now));
+		assertFalse(limiter.acquire(now+50*MS));
+		assertTrue(limiter.acquire(now+101*MS)); // 1 message per 100ms
+		assertFalse(limiter.acquire(now+102*MS));
+	}
+	
+	@Test
+	public void testBurstCap() {
+		RateLimiter limiter = new RateLimiter(10, 3, 0, 0);
+		long now = System.nanoTime();
+		// Idle for a long time - the bucket holds no more than the burst size
+		now += 10000*MS;
+		for(int i=0;i<3;i++){
+			assertTrue(limiter.acquire(now));
+		}
+		assertFalse(limiter.acquire(now));
+	}
+	
+	@Test
+	public void testBandwidthDebt() {
+		RateLimiter limiter = new RateLimiter(0, 1, 1000, 500);
+		long now = System.nanoTime();
+		// A message bigger than the bucket is accepted, the bucket goes into debt
+		assertTrue(limiter.acquire(now));
+		limiter.consume(2000);
+		assertFalse(limiter.acquire(now));
+		assertFalse(limiter.acquire(now+1400*MS)); // -100 bytes
+		assertTrue(limiter.acquire(now+1600*MS)); // +100 bytes
+		limiter.consume(100);
+		assertFalse(limiter.acquire(now+1600*MS));
+	}
+	
+	@Test
+	public void testRateAndBandwidth() {
+		RateLimiter limiter = new RateLimiter(1000, 10, 1000, 1000);
+		long now = System.nanoTime();
+		// Bandwidth limit applies although there are message tokens left
+		assertTrue(limiter.acquire(now));
+		limiter.consume(1000);
+		assertFalse(limiter.acquire(now));
+		// Rate limit applies although there is bandwidth left
+		limiter = new RateLimiter(1, 1, 1000, 1000);
+		now = System.nanoTime();
+		assertTrue(limiter.acquire(now));
+		limiter.consume(1);
+		assertFalse(limiter.acquire(now));
+	}
+	
+	@Test
+	public void testStaleTime() {
+		long before = System.nanoTime();
+		RateLimiter limiter = new RateLimiter(10, 1, 0, 0);
+		// A time taken before the limiter was created does not take tokens away
+		assertTrue(limiter.acquire(before));
+		assertFalse(limiter.acquire(before));
+	}
+	
+	@Test
+	public void testClockOverflow() {
+		RateLimiter limiter = new RateLimiter(10, 1, 0, 0);
+		// System.nanoTime() may overflow, only differences are meaningful
+		long now = Long.MAX_VALUE-50*MS;
+		assertTrue(limiter.acquire(now));
+		assertFalse(limiter.acquire(now));
+		now += 101*MS; // Overflows
+		assertTrue(now<0);
+		assertTrue(limiter.acquire(now));
+		assertFalse(limiter.acquire(now));
+	}
+}
@@ -0,0 +1,159 @@
+/**
+ *
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package ch.psi.zmq.broker;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import ch.psi.zmq.broker.model.Destination;
+import ch.psi.zmq.broker.model.Routing;
+import ch.psi.zmq.broker.model.Source;
+
+/**
+ * Measures the bytes allocated by the routing thread per forwarded frame.
+ * In steady state the routing loop must not allocate per frame for a single destination (the frames itself are
+ * allocated by the ZMQ I/O thread of the source socket). With several destinations each destination gets a Msg
+ * of its own that shares the data of the frame (see {@link Frames}).
+ *
+ * @author ebner
+ *
+ */
+@SuppressWarnings("restriction")
+public class RouterAllocationTest {
+
+	private static final Logger logger = Logger.getLogger(RouterAllocationTest.class.getName());
+	
+	/**
+	 * Frames sent per measurement
+	 */
+	private static final int COUNT = 50000;
+	
+	/**
+	 * The pipes of jeromq allocate their queue chunks and commands in batches, i.e. a few bytes per frame remain.
+	 * A single allocation per frame would already be >=16 bytes.
+	 */
+	private static final double PIPES = 16;
+	
+	/**
+	 * Bytes a Msg sharing the data of a frame (Msg and ByteBuffer duplicates) takes at most
+	 */
+	private static final double WRAPPER = 160;
+
+	@Test
+	public void testSingleDestination() throws InterruptedException {
+		double allocated = measure(1024, 1);
+		assertTrue("Routing allocates "+allocated+" bytes/frame", allocated<PIPES);
+	}
+	
+	@Test
+	public void testDestinations() throws InterruptedException {
+		int ndestinations = 4;
+		double allocated = measure(1024, ndestinations);
+		assertTrue("Routing allocates "+allocated+" bytes/frame", allocated<PIPES+ndestinations*WRAPPER);
+	}
+	
+	/**
+	 * @param size				Frame size
+	 * @param ndestinations		Number of destinations
+	 * @return	Bytes allocated by the routing thread per frame
+	 */
+	private double measure(int size, int ndestinations) throws InterruptedException {
+		Source source = new Source();
+		source.setAddress("tcp://localhost:7170");
+		source.setBuffer(1000);
+
+		List<Destination> destinations = new ArrayList<>();
+		for(int i=0;i<ndestinations;i++){
+			Destination d = new Destination();
+			d.setAddress("tcp://*:"+(7171+i));
+			d.setBuffer(1000);
+			destinations.add(d);
+		}
+
+		Routing routing = new Routing();
+		routing.setName("allocation");
+		routing.setSource(source);
+		routing.setDestinations(destinations);
+
+		ZMQ.Context context = ZMQ.context(1);
+		ZMQ.Socket sender = context.socket(ZMQ.PUSH);
+		sender.setHWM(1000);
+		sender.bind("tcp://*:7170");
+
+		final List<ZMQ.Socket> receivers = new ArrayList<>();
+		for(int i=0;i<ndestinations;i++){
+			ZMQ.Socket r = context.socket(ZMQ.PULL);
+			r.setHWM(1000);
+			r.connect("tcp://localhost:"+(7171+i));
+			receivers.add(r);
+		}
+
+		Router router = new Router(routing, context);
+		Thread routerThread = new Thread(router);
+		routerThread.start();
+
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		byte[] data = new byte[size];
+
+		// Warmup
+		transfer(sender, receivers, data, COUNT);
+
+		long allocated = bean.getThreadAllocatedBytes(routerThread.getId());
+		transfer(sender, receivers, data, COUNT);
+		allocated = bean.getThreadAllocatedBytes(routerThread.getId()) - allocated;
+
+		logger.info(String.format("Routing thread allocated %d bytes for %d frames to %d destination(s) (%.3f bytes/frame)", allocated, COUNT, ndestinations, ((double)allocated)/COUNT));
+
+		router.terminate();
+		sender.close();
+		for(ZMQ.Socket r: receivers){
+			r.close();
+		}
+		context.term();
+		return ((double)allocated)/COUNT;
+	}
+
+	/**
+	 * Send frames and wait until all receivers got them
+	 */
+	private static void transfer(ZMQ.Socket sender, List<ZMQ.Socket> receivers, byte[] data, int count){
+		int sent = 0;
+		int received = 0;
+		while(received<count){
+			// Keep at most 100 frames in flight
+			while(sent<count && sent-received<100){
+				sender.send(data, 0);
+				sent++;
+			}
+			for(ZMQ.Socket r: receivers){
+				r.recv();
+			}
+			received++;
+		}
+	}
+}
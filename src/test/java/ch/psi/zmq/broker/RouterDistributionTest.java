@@ -0,0 +1,140 @@
+/**
+ * 
+ * Copyright 2013 Paul Scherrer Institute. All rights reserved.
+ * 
+ * This code is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ * 
+ * This code is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU Lesser General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this code. If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package ch.psi.zmq.broker;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import ch.psi.zmq.broker.model.Destination;
+import ch.psi.zmq.broker.model.Routing;
+import ch.psi.zmq.broker.model.Source;
+
+/**
+ * Checks distributed routings (every message goes to one destination only) with rate limited destinations.
+ * Only the destination a message is distributed to takes a token of its limiter, i.e. the rates of the destinations add up.
+ * @author ebner
+ *
+ */
+public class RouterDistributionTest {
+	
+	private static final Logger logger = Logger.getLogger(RouterDistributionTest.class.getName());
+	
+	private static final int DESTINATIONS = 2;
+	/**
+	 * Messages per second and destination
+	 */
+	private static final double RATE = 100;
+	/**
+	 * Bucket size of the destinations (absorbs the scheduling jitter of the sender)
+	 */
+	private static final int BURST = 10;
+	/**
+	 * Send period in seconds (at 10 times the combined rate of the destinations)
+	 */
+	private static final double PERIOD = 2;
+	
+	@Test
+	public void testRoundRobin() throws InterruptedException {
+		test(Routing.Distribution.ROUND_ROBIN);
+	}
+	
+	@Test
+	public void testLeastLoaded() throws InterruptedException {
+		test(Routing.Distribution.LEAST_LOADED);
+	}
+	
+	private void test(Routing.Distribution distribution) throws InterruptedException {
+		Source source = new Source();
+		source.setAddress("tcp://localhost:7190");
+		source.setBuffer(10000);
+		
+		List<Destination> destinations = new ArrayList<>();
+		for(int i=0;i<DESTINATIONS;i++){
+			Destination d = new Destination();
+			d.setAddress("tcp://*:"+(7191+i));
+			d.setBuffer(10000);
+			d.setMaxRate(RATE);
+			d.setBurst(BURST);
+			d.setPolicy(Destination.Policy.DROP_NEWEST);
+			destinations.add(d);
+		}
+		
+		Routing routing = new Routing();
+		routing.setName("distribution");
+		routing.setSource(source);
+		routing.setDestinations(destinations);
+		routing.setDistribution(distribution);
+		
+		ZMQ.Context context = ZMQ.context(1);
+		ZMQ.Socket sender = context.socket(ZMQ.PUSH);
+		sender.setHWM(10000);
+		sender.bind("tcp://*:7190");
+		List<ZMQ.Socket> receivers = new ArrayList<>();
+		for(int i=0;i<DESTINATIONS;i++){
+			ZMQ.Socket r = context.socket(ZMQ.PULL);
+			r.setHWM(10000);
+			r.connect("tcp://localhost:"+(7191+i));
+			receivers.add(r);
+		}
+		
+		Router router = new Router(routing, context);
+		new Thread(router).start();
+		Thread.sleep(500); // Connect
+		
+		long period = (long) (1e9/(10*RATE*DESTINATIONS));
+		long start = System.nanoTime();
+		for(long next=start;next-start<PERIOD*1e9;next+=period){
+			LockSupport.parkNanos(next-System.nanoTime());
+			sender.send(new byte[1], 0);
+		}
+		Thread.sleep(500); // Messages in flight
+		
+		int[] received = new int[DESTINATIONS];
+		int total = 0;
+		for(int i=0;i<DESTINATIONS;i++){
+			while(receivers.get(i).recv(ZMQ.DONTWAIT)!=null){
+				received[i]++;
+			}
+			total += received[i];
+		}
+		double expected = (RATE*PERIOD+BURST)*DESTINATIONS;
+		logger.info(String.format("%s: received %d messages (expected %.0f) in %.1f s", distribution, total, expected, (System.nanoTime()-start)/1e9));
+		
+		router.terminate();
+		sender.close();
+		for(ZMQ.Socket r: receivers){
+			r.close();
+		}
+		context.term();
+		
+		assertTrue("Received "+total+" messages, expected "+expected, total>0.8*expected && total<1.2*expected);
+		for(int i=0;i<DESTINATIONS;i++){
+			assertTrue("Destination "+i+" received "+received[i]+" of "+total+" messages", received[i]>0.8*total/DESTINATIONS);
+		}
+	}
+}